@@ -0,0 +1,378 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import hudson.model.AbstractProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the stages of the scan and grouping pipeline against a {@link SyntheticJenkinsHome}, separately for every
+ * kind of selector:
+ * <ul>
+ * <li>parse: reading a config.xml into a document with a new parser</li>
+ * <li>parsePooled: reading a config.xml into a document with the parser and buffer of the thread, see {@link ParserPool}</li>
+ * <li>read: the way the scanner reads a config.xml for the selector, streaming simple paths and parsing otherwise</li>
+ * <li>getXmlBlock: {@link XPathConfig#getXmlBlock(File)}, the single job api</li>
+ * <li>evaluate: selecting the results from a parsed document</li>
+ * <li>fingerprint: the canonical fingerprint of a selected result</li>
+ * <li>fingerprintDocument: the canonical fingerprint of a whole config.xml, the largest block a selector like
+ * <code>/project</code> returns</li>
+ * <li>group: grouping the results of all jobs into distinct xml blocks</li>
+ * <li>render: writing the escaped text of all distinct xml blocks</li>
+ * </ul>
+ * Per job stages iterate over the jobs, one job per operation. Group and render handle all jobs in one operation, their
+ * time is expected to grow linearly with the number of jobs, compare the scores of the jobs parameters.
+ * Throughput and sample time are measured, the latter reports p99. Run with <code>-prof gc</code> for the allocation
+ * rate, the benchmark profile of the pom does.
+ *
+ * @author c031
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+    /**
+     * number of parsed documents kept for the evaluate stage.
+     */
+    private static final int MAX_DOCUMENTS = 1000;
+
+    /**
+     * number of jobs of the synthetic home.
+     */
+    @Param({ "1000", "10000", "100000" })
+    public int jobs;
+
+    /**
+     * number of builders and email triggers of every job.
+     */
+    @Param({ "4", "32" })
+    public int complexity;
+
+    /**
+     * the kind of selector, see {@link #newConfig(String)}.
+     */
+    @Param({ "simple", "predicate", "scalar", "allMatches" })
+    public String selector;
+
+    /**
+     * the selector.
+     */
+    private XPathConfig config;
+
+    /**
+     * the config.xml of every job.
+     */
+    private List< File > configFiles;
+
+    /**
+     * the first parsed documents.
+     */
+    private List< Document > documents;
+
+    /**
+     * the results selected from the parsed documents.
+     */
+    private List< Object > results;
+
+    /**
+     * the texts of the results of every job, null if nothing matched.
+     */
+    private BlockText[][] texts;
+
+    /**
+     * the fingerprints of the results of every job.
+     */
+    private String[][] digests;
+
+    /**
+     * the distinct xml blocks of all jobs.
+     */
+    private List< XmlBlock > xmlBlocks;
+
+    /**
+     * the scanned projects, grouping only needs their positions.
+     */
+    @SuppressWarnings("rawtypes")
+    private List< AbstractProject > universe;
+
+    /**
+     * the next job of the per job stages.
+     */
+    private int next;
+
+    /**
+     * Generates the home and evaluates the selector against all jobs, so that every stage gets its input.
+     *
+     * @throws IOException
+     *             if the home can't be generated
+     * @throws DocumentException
+     *             if a config.xml can't be parsed
+     */
+    @Setup
+    public void setup() throws IOException, DocumentException {
+        File baseDir = new File(System.getProperty("xpathviewer.bench.dir", new File(System.getProperty("java.io.tmpdir"), "xpath-config-viewer-bench").getPath()));
+        this.configFiles = SyntheticJenkinsHome.create(baseDir, this.jobs, this.complexity).getConfigFiles();
+        this.config = newConfig(this.selector);
+
+        this.documents = new ArrayList< Document >();
+        this.results = new ArrayList< Object >();
+        this.texts = new BlockText[this.jobs][];
+        this.digests = new String[this.jobs][];
+        for (int i = 0; i < this.jobs; i++) {
+            Document dom = new SAXReader().read(this.configFiles.get(i));
+            List< Object > selected = this.config.select(dom);
+            if (i < MAX_DOCUMENTS) {
+                this.documents.add(dom);
+                this.results.addAll(selected);
+            }
+
+            this.texts[i] = new BlockText[selected.size()];
+            this.digests[i] = new String[selected.size()];
+            for (int j = 0; j < selected.size(); j++) {
+                this.digests[i][j] = this.fingerprint(selected.get(j));
+                this.texts[i][j] = BlockText.intern(this.digests[i][j], text(selected.get(j)));
+            }
+        }
+
+        this.universe = Collections.nCopies(this.jobs, null);
+        this.xmlBlocks = this.group();
+    }
+
+    /**
+     * Returns the xpath config of the given kind of selector.
+     *
+     * @param selector
+     *            simple, predicate, scalar or allMatches
+     * @return the xpath config
+     */
+    static XPathConfig newConfig(String selector) {
+        if ("simple".equals(selector)) {
+            return new XPathConfig("simple", "simple", null, "/project/publishers/hudson.tasks.Mailer");
+        }
+        if ("predicate".equals(selector)) {
+            return new XPathConfig("predicate", "predicate", null, "//configuredTriggers/*[email/sendToDevelopers='true'][1]");
+        }
+        if ("scalar".equals(selector)) {
+            return new XPathConfig("scalar", "scalar", null, "count(/project/builders/*)");
+        }
+        if ("allMatches".equals(selector)) {
+            return new XPathConfig("allMatches", "allMatches", null, "/project/builders/hudson.tasks.Shell", false, false, true);
+        }
+        throw new IllegalArgumentException("Unknown selector: " + selector);
+    }
+
+    /**
+     * @return the next config.xml of the per job stages
+     */
+    private File nextFile() {
+        File file = this.configFiles.get(this.next);
+        this.next = (this.next + 1) % this.configFiles.size();
+        return file;
+    }
+
+    /**
+     * @return the parsed document of the next job
+     * @throws DocumentException
+     *             if the config.xml can't be parsed
+     */
+    @Benchmark
+    public Document parse() throws DocumentException {
+        return new SAXReader().read(this.nextFile());
+    }
+
+    /**
+     * @return the parsed document of the next job, parsed with the parser and buffer of this thread
+     * @throws DocumentException
+     *             if the config.xml can't be parsed
+     */
+    @Benchmark
+    public Document parsePooled() throws DocumentException {
+        return ParserPool.read(this.nextFile());
+    }
+
+    /**
+     * @return the results of the next job, read the way the scanner reads them
+     * @throws Exception
+     *             if the config.xml can't be read
+     */
+    @Benchmark
+    public Object read() throws Exception {
+        File file = this.nextFile();
+        String[] steps = this.config.isAllMatches() ? null : StreamingPathEvaluator.getSteps(this.config.getXpath());
+        if (steps != null) {
+            Element[] elements = StreamingPathEvaluator.evaluate(file, new String[][] { steps });
+            if (elements != null) {
+                return elements;
+            }
+        }
+        return this.config.select(ParserPool.read(file));
+    }
+
+    /**
+     * @return the xml block of the next job
+     */
+    @Benchmark
+    public Element getXmlBlock() {
+        return this.config.getXmlBlock(this.nextFile());
+    }
+
+    /**
+     * @return the results selected from the next parsed document
+     */
+    @Benchmark
+    public List< Object > evaluate() {
+        Document dom = this.documents.get(this.next);
+        this.next = (this.next + 1) % this.documents.size();
+        return this.config.select(dom);
+    }
+
+    /**
+     * @return the fingerprint of the next selected result
+     */
+    @Benchmark
+    public String fingerprint() {
+        if (this.results.isEmpty()) {
+            return null;
+        }
+        Object result = this.results.get(this.next % this.results.size());
+        this.next = (this.next + 1) % this.results.size();
+        return this.fingerprint(result);
+    }
+
+    /**
+     * @return the fingerprint of the root element of the next parsed document
+     */
+    @Benchmark
+    public String fingerprintDocument() {
+        Document dom = this.documents.get(this.next);
+        this.next = (this.next + 1) % this.documents.size();
+        return this.config.fingerprint(dom.getRootElement());
+    }
+
+    /**
+     * @return the distinct xml blocks of all jobs
+     */
+    @Benchmark
+    public List< XmlBlock > group() {
+        XmlBlockCollector collector = new XmlBlockCollector(this.universe);
+        for (int i = 0; i < this.texts.length; i++) {
+            if (this.texts[i].length == 0) {
+                collector.add(i, null, null);
+            }
+            for (int j = 0; j < this.texts[i].length; j++) {
+                collector.add(i, this.texts[i][j], this.digests[i][j]);
+            }
+        }
+        return collector.getXmlBlocks();
+    }
+
+    /**
+     * @return the number of chars written for all distinct xml blocks
+     * @throws IOException
+     *             never
+     */
+    @Benchmark
+    public long render() throws IOException {
+        CountingWriter out = new CountingWriter();
+        for (XmlBlock xmlBlock : this.xmlBlocks) {
+            xmlBlock.writeEscapedXmlblock(out);
+            out.write(xmlBlock.getProjects().size());
+        }
+        return out.count;
+    }
+
+    /**
+     * Returns the fingerprint of the given result.
+     *
+     * @param result
+     *            an element or a value
+     * @return the fingerprint
+     */
+    private String fingerprint(Object result) {
+        return result instanceof Element ? this.config.fingerprint((Element) result) : this.config.fingerprint((String) result);
+    }
+
+    /**
+     * Returns the text of the given result.
+     *
+     * @param result
+     *            an element or a value
+     * @return the serialized element or the value
+     */
+    private static String text(Object result) {
+        return result instanceof Element ? ((Element) result).asXML() : (String) result;
+    }
+
+    /**
+     * Counts the written chars and drops them.
+     */
+    private static final class CountingWriter extends Writer {
+        private long count;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            this.count += len;
+        }
+
+        @Override
+        public void write(int c) {
+            this.count++;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates a JENKINS_HOME with a jobs folder of synthetic config.xml files for the benchmarks. The jobs have the shape
+ * of the test fixtures in src/test/resources/jobs: a free style project with scm, triggers, shell builders, a mailer and
+ * an email-ext publisher.
+ *
+ * The values are drawn from small pools with a fixed seed, so that selectors group the jobs into a realistic number of
+ * distinct xml blocks and the same home is generated on every run. A generated home is reused by later runs.
+ *
+ * @author c031
+ *
+ */
+public final class SyntheticJenkinsHome {
+    /**
+     * written after the last job, a home without it is generated again.
+     */
+    private static final String COMPLETE = ".complete";
+
+    /**
+     * value pools the jobs are drawn from.
+     */
+    private static final String[] JDKS = { "jdk6", "jdk6u26", "jdk7", "(Default)" };
+
+    private static final String[] SCHEDULES = { "@daily", "@midnight", "H/15 * * * *", "0 2 * * 1-5", "H H(0-7) * * *" };
+
+    private static final String[] RECIPIENTS = { "build@example.com", "qa@example.com", "release@example.com", "dev@example.com" };
+
+    private static final String[] TRIGGERS = { "FailureTrigger", "StillFailingTrigger", "FixedTrigger", "UnstableTrigger" };
+
+    /**
+     * the jobs folder.
+     */
+    private final File jobsDir;
+
+    /**
+     * the config.xml of every job, in job order.
+     */
+    private final List< File > configFiles;
+
+    /**
+     * Constructor
+     *
+     * @param jobsDir
+     *            the jobs folder
+     * @param configFiles
+     *            the config.xml of every job
+     */
+    private SyntheticJenkinsHome(File jobsDir, List< File > configFiles) {
+        this.jobsDir = jobsDir;
+        this.configFiles = configFiles;
+    }
+
+    /**
+     * Returns the home with the given number of jobs and complexity in the given directory, generating it if needed.
+     *
+     * @param baseDir
+     *            the directory homes are generated in
+     * @param jobs
+     *            the number of jobs
+     * @param complexity
+     *            the number of builders and email triggers of every job
+     * @return the home
+     * @throws IOException
+     *             if the home can't be written
+     */
+    public static SyntheticJenkinsHome create(File baseDir, int jobs, int complexity) throws IOException {
+        File home = new File(baseDir, "home-" + jobs + "-" + complexity);
+        File jobsDir = new File(home, "jobs");
+        List< File > configFiles = new ArrayList< File >(jobs);
+        for (int i = 0; i < jobs; i++) {
+            configFiles.add(new File(new File(jobsDir, String.format("job-%06d", i)), "config.xml"));
+        }
+
+        File complete = new File(home, COMPLETE);
+        if (!complete.exists()) {
+            Random random = new Random(jobs * 31L + complexity);
+            for (File configFile : configFiles) {
+                configFile.getParentFile().mkdirs();
+                write(configFile, random, complexity);
+            }
+            complete.createNewFile();
+        }
+
+        return new SyntheticJenkinsHome(jobsDir, configFiles);
+    }
+
+    /**
+     * @return the jobs folder
+     */
+    public File getJobsDir() {
+        return this.jobsDir;
+    }
+
+    /**
+     * @return the config.xml of every job, in job order
+     */
+    public List< File > getConfigFiles() {
+        return this.configFiles;
+    }
+
+    /**
+     * Writes the config.xml of one job.
+     *
+     * @param configFile
+     *            the file
+     * @param random
+     *            draws the values
+     * @param complexity
+     *            the number of builders and email triggers
+     * @throws IOException
+     *             if the file can't be written
+     */
+    private static void write(File configFile, Random random, int complexity) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(configFile), "UTF-8");
+        try {
+            out.write("<?xml version='1.0' encoding='UTF-8'?>\n");
+            out.write("<project>\n");
+            out.write("  <actions/>\n");
+            out.write("  <description>generated job</description>\n");
+            out.write("  <keepDependencies>false</keepDependencies>\n");
+            out.write("  <properties/>\n");
+            if (random.nextInt(4) == 0) {
+                out.write("  <scm class=\"hudson.scm.NullSCM\"/>\n");
+            } else {
+                out.write("  <scm class=\"hudson.scm.SubversionSCM\">\n");
+                out.write("    <locations>\n");
+                out.write("      <hudson.scm.SubversionSCM_-ModuleLocation>\n");
+                out.write("        <remote>https://svn.example.com/repos/component" + random.nextInt(50) + "/trunk</remote>\n");
+                out.write("        <local>.</local>\n");
+                out.write("      </hudson.scm.SubversionSCM_-ModuleLocation>\n");
+                out.write("    </locations>\n");
+                out.write("  </scm>\n");
+            }
+            out.write("  <canRoam>true</canRoam>\n");
+            out.write("  <disabled>" + (random.nextInt(10) == 0) + "</disabled>\n");
+            out.write("  <blockBuildWhenDownstreamBuilding>false</blockBuildWhenDownstreamBuilding>\n");
+            out.write("  <blockBuildWhenUpstreamBuilding>false</blockBuildWhenUpstreamBuilding>\n");
+            out.write("  <jdk>" + JDKS[random.nextInt(JDKS.length)] + "</jdk>\n");
+            out.write("  <triggers class=\"vector\">\n");
+            out.write("    <hudson.triggers.TimerTrigger>\n");
+            out.write("      <spec>" + SCHEDULES[random.nextInt(SCHEDULES.length)] + "</spec>\n");
+            out.write("    </hudson.triggers.TimerTrigger>\n");
+            out.write("  </triggers>\n");
+            out.write("  <concurrentBuild>" + (random.nextInt(3) == 0) + "</concurrentBuild>\n");
+            out.write("  <builders>\n");
+            for (int i = 0; i < complexity; i++) {
+                out.write("    <hudson.tasks.Shell>\n");
+                out.write("      <command>./build.sh step" + i + " --profile p" + random.nextInt(3) + " &amp;&amp; echo done</command>\n");
+                out.write("    </hudson.tasks.Shell>\n");
+            }
+            out.write("  </builders>\n");
+            out.write("  <publishers>\n");
+            out.write("    <hudson.tasks.Mailer>\n");
+            out.write("      <recipients>" + RECIPIENTS[random.nextInt(RECIPIENTS.length)] + "</recipients>\n");
+            out.write("      <dontNotifyEveryUnstableBuild>false</dontNotifyEveryUnstableBuild>\n");
+            out.write("      <sendToIndividuals>" + random.nextBoolean() + "</sendToIndividuals>\n");
+            out.write("    </hudson.tasks.Mailer>\n");
+            out.write("    <hudson.plugins.emailext.ExtendedEmailPublisher>\n");
+            out.write("      <recipientList></recipientList>\n");
+            out.write("      <configuredTriggers>\n");
+            for (int i = 0; i < complexity; i++) {
+                String trigger = TRIGGERS[i % TRIGGERS.length];
+                out.write("        <hudson.plugins.emailext.plugins.trigger." + trigger + ">\n");
+                out.write("          <email>\n");
+                out.write("            <recipientList>" + RECIPIENTS[random.nextInt(RECIPIENTS.length)] + "</recipientList>\n");
+                out.write("            <subject>$PROJECT_DEFAULT_SUBJECT</subject>\n");
+                out.write("            <body>$PROJECT_DEFAULT_CONTENT</body>\n");
+                out.write("            <sendToDevelopers>" + random.nextBoolean() + "</sendToDevelopers>\n");
+                out.write("            <sendToRequester>false</sendToRequester>\n");
+                out.write("            <includeCulprits>true</includeCulprits>\n");
+                out.write("            <sendToRecipientList>true</sendToRecipientList>\n");
+                out.write("          </email>\n");
+                out.write("        </hudson.plugins.emailext.plugins.trigger." + trigger + ">\n");
+            }
+            out.write("      </configuredTriggers>\n");
+            out.write("      <contentType>default</contentType>\n");
+            out.write("      <defaultSubject>$DEFAULT_SUBJECT</defaultSubject>\n");
+            out.write("      <defaultContent>$DEFAULT_CONTENT</defaultContent>\n");
+            out.write("    </hudson.plugins.emailext.ExtendedEmailPublisher>\n");
+            out.write("  </publishers>\n");
+            out.write("  <buildWrappers/>\n");
+            out.write("</project>\n");
+        } finally {
+            out.close();
+        }
+    }
+}
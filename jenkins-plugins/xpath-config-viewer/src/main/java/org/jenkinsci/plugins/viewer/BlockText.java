@@ -0,0 +1,238 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The immutable text of an xml block. Texts are interned by the fingerprint of their block, so equivalent blocks of
+ * all jobs share one instance, and large texts are kept deflated until they are rendered.
+ *
+ * @author c031
+ *
+ */
+public final class BlockText {
+    /**
+     * default number of chars from which a text is kept deflated.
+     */
+    public static final int DEFAULT_COMPRESS_ABOVE = 16 * 1024;
+
+    /**
+     * number of chars from which a text is kept deflated, 0 to never deflate.
+     */
+    private static final int COMPRESS_ABOVE = Integer.getInteger(BlockText.class.getName() + ".compressAbove", DEFAULT_COMPRESS_ABOVE);
+
+    /**
+     * interned texts by fingerprint, dropped when no block refers to them anymore.
+     */
+    private static final Map< String, Ref > INTERNED = new HashMap< String, Ref >();
+
+    /**
+     * collected interned texts.
+     */
+    private static final ReferenceQueue< BlockText > COLLECTED = new ReferenceQueue< BlockText >();
+
+    /**
+     * the text, null if it is deflated.
+     */
+    private final String text;
+
+    /**
+     * the UTF-8 encoded, deflated text or null.
+     */
+    private final byte[] deflated;
+
+    /**
+     * number of chars of the text.
+     */
+    private final int length;
+
+    /**
+     * Constructor
+     *
+     * @param text
+     *            the text or null if it is deflated
+     * @param deflated
+     *            the deflated text or null
+     * @param length
+     *            number of chars of the text
+     */
+    private BlockText(String text, byte[] deflated, int length) {
+        this.text = text;
+        this.deflated = deflated;
+        this.length = length;
+    }
+
+    /**
+     * Returns the text of the given string, deflated if it is large.
+     *
+     * @param text
+     *            the text
+     * @return the block text
+     */
+    public static BlockText of(String text) {
+        if (COMPRESS_ABOVE <= 0 || text.length() < COMPRESS_ABOVE) {
+            return new BlockText(text, null, text.length());
+        }
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(text.length() / 4);
+            DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater);
+            out.write(text.getBytes("UTF-8"));
+            out.close();
+            return new BlockText(null, bytes.toByteArray(), text.length());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Returns the interned text of the block with the given fingerprint. The given text is only used if the block
+     * isn't interned yet.
+     *
+     * @param digest
+     *            the fingerprint of the block
+     * @param text
+     *            the text of the block
+     * @return the shared block text
+     */
+    public static BlockText intern(String digest, String text) {
+        synchronized (INTERNED) {
+            for (Ref ref = (Ref) COLLECTED.poll(); ref != null; ref = (Ref) COLLECTED.poll()) {
+                if (INTERNED.get(ref.digest) == ref) {
+                    INTERNED.remove(ref.digest);
+                }
+            }
+
+            Ref ref = INTERNED.get(digest);
+            BlockText blockText = ref == null ? null : ref.get();
+            if (blockText == null) {
+                blockText = of(text);
+                INTERNED.put(digest, new Ref(digest, blockText));
+            }
+            return blockText;
+        }
+    }
+
+    /**
+     * Returns the number of interned texts, including collected ones not yet removed.
+     *
+     * @return the number of interned texts
+     */
+    static int internedSize() {
+        synchronized (INTERNED) {
+            return INTERNED.size();
+        }
+    }
+
+    /**
+     * @return the number of chars of the text
+     */
+    public int length() {
+        return this.length;
+    }
+
+    /**
+     * @return true if the text is kept deflated
+     */
+    public boolean isDeflated() {
+        return this.deflated != null;
+    }
+
+    /**
+     * @return the estimated size of the text in memory
+     */
+    public long getSize() {
+        return this.deflated != null ? this.deflated.length : 2L * this.length;
+    }
+
+    /**
+     * Returns a reader of the text, inflating it while it's read. The reader has to be closed.
+     *
+     * @return the reader
+     */
+    public Reader openReader() {
+        if (this.deflated == null) {
+            return new StringReader(this.text);
+        }
+        try {
+            return new InputStreamReader(new InflaterInputStream(new ByteArrayInputStream(this.deflated)), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the text, inflating it if it's kept deflated.
+     *
+     * @return the text
+     */
+    @Override
+    public String toString() {
+        if (this.deflated == null) {
+            return this.text;
+        }
+
+        StringBuilder sb = new StringBuilder(this.length);
+        Reader reader = this.openReader();
+        try {
+            char[] buffer = new char[4096];
+            for (int n = reader.read(buffer); n >= 0; n = reader.read(buffer)) {
+                sb.append(buffer, 0, n);
+            }
+            reader.close();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Weak reference to an interned text, removed from the map when collected.
+     */
+    private static final class Ref extends WeakReference< BlockText > {
+        private final String digest;
+
+        private Ref(String digest, BlockText blockText) {
+            super(blockText, COLLECTED);
+            this.digest = digest;
+        }
+    }
+}
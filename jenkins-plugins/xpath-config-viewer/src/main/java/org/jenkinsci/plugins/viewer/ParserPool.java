@@ -0,0 +1,314 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.io.SAXReader;
+import org.jfree.util.Log;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Keeps a configured parser and a read buffer per thread, so that parsing a config.xml doesn't look up a parser
+ * factory, create and configure a parser and allocate buffers every time. The scanner threads and the request
+ * threads each parse one file after the other, a parser is never shared between threads.
+ *
+ * The parsers don't resolve external entities and don't load external DTDs, an entity declared with a system id is
+ * replaced by nothing. A config.xml is read into the buffer of the thread first and parsed from there, the buffer
+ * grows up to {@link #MAX_BUFFER} bytes. Larger files are read into a buffer of their own, which isn't kept. A parser
+ * that failed is replaced, a broken document doesn't affect the next one.
+ *
+ * @author c031
+ *
+ */
+public class ParserPool {
+    /**
+     * maximum number of bytes of the buffer kept per thread.
+     */
+    public static final int MAX_BUFFER = Integer.getInteger(ParserPool.class.getName() + ".maxBuffer", 1024 * 1024);
+
+    /**
+     * initial number of bytes of the buffer.
+     */
+    private static final int INITIAL_BUFFER = 16 * 1024;
+
+    /**
+     * the features disabled on every parser.
+     */
+    private static final String[] DISABLED_FEATURES = { "http://xml.org/sax/features/external-general-entities",
+            "http://xml.org/sax/features/external-parameter-entities", "http://apache.org/xml/features/nonvalidating/load-external-dtd" };
+
+    /**
+     * the parsers of all threads.
+     */
+    private static final ThreadLocal< ParserPool > POOL = new ThreadLocal< ParserPool >() {
+        @Override
+        protected ParserPool initialValue() {
+            return new ParserPool();
+        }
+    };
+
+    /**
+     * resolves every external entity to nothing.
+     */
+    private static final EntityResolver NO_ENTITIES = new EntityResolver() {
+        public InputSource resolveEntity(String publicId, String systemId) {
+            return new InputSource(new StringReader(""));
+        }
+    };
+
+    /**
+     * the parser of this thread, created on first use.
+     */
+    private SAXReader reader;
+
+    /**
+     * the buffer kept by this thread.
+     */
+    private byte[] buffer = new byte[INITIAL_BUFFER];
+
+    /**
+     * the stream the loaded bytes are parsed from.
+     */
+    private final LoadedInput input = new LoadedInput();
+
+    /**
+     * Returns the parser of the current thread.
+     *
+     * @return the parser pool of the current thread
+     */
+    public static ParserPool get() {
+        return POOL.get();
+    }
+
+    /**
+     * Parses the given file with the parser of the current thread.
+     *
+     * @param file
+     *            the config.xml
+     * @return the document
+     * @throws DocumentException
+     *             if the file can't be read or parsed
+     */
+    public static Document read(File file) throws DocumentException {
+        ParserPool pool = get();
+        try {
+            pool.load(file);
+        } catch (IOException e) {
+            throw new DocumentException(e.getMessage(), e);
+        }
+        return pool.parse(file.toURI().toString());
+    }
+
+    /**
+     * Parses the given file with the parser of the current thread, recording the time and size with the
+     * {@link ScanMetrics}.
+     *
+     * @param file
+     *            the config.xml
+     * @param job
+     *            the name of the job
+     * @return the document
+     * @throws DocumentException
+     *             if the file can't be read or parsed
+     */
+    public static Document read(File file, String job) throws DocumentException {
+        long start = System.nanoTime();
+        ParserPool pool = get();
+        int bytes;
+        try {
+            bytes = pool.load(file);
+        } catch (IOException e) {
+            throw new DocumentException(e.getMessage(), e);
+        }
+        long loaded = System.nanoTime();
+        try {
+            return pool.parse(file.toURI().toString());
+        } finally {
+            ScanMetrics.getInstance().recordFile(job, bytes, loaded - start, System.nanoTime() - loaded);
+        }
+    }
+
+    /**
+     * Reads the given file into the buffer of this thread, replacing what was loaded before.
+     *
+     * @param file
+     *            the config.xml
+     * @return the number of bytes read
+     * @throws IOException
+     *             if the file can't be read
+     */
+    public int load(File file) throws IOException {
+        // one byte more than the size, so the end of the file is seen without growing the buffer
+        long size = file.length() + 1;
+        byte[] bytes = size <= this.buffer.length ? this.buffer : new byte[(int) Math.min(size, Integer.MAX_VALUE - 8)];
+        int length = 0;
+
+        InputStream in = new FileInputStream(file);
+        try {
+            int n;
+            while ((n = in.read(bytes, length, bytes.length - length)) > 0) {
+                length += n;
+                if (length == bytes.length) {
+                    // the file grew since its size was taken
+                    byte[] grown = new byte[bytes.length * 2];
+                    System.arraycopy(bytes, 0, grown, 0, length);
+                    bytes = grown;
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        if (bytes != this.buffer && bytes.length <= MAX_BUFFER) {
+            this.buffer = bytes;
+        }
+        this.input.load(bytes, length);
+        return length;
+    }
+
+    /**
+     * Parses the bytes loaded by {@link #load(File)}.
+     *
+     * @param systemId
+     *            the system id of the document, relative references are resolved against it
+     * @return the document
+     * @throws DocumentException
+     *             if the bytes are not a well formed document
+     */
+    public Document parse(String systemId) throws DocumentException {
+        InputSource source = new InputSource(this.input);
+        source.setSystemId(systemId);
+        try {
+            return this.getReader().read(source);
+        } catch (DocumentException e) {
+            this.reader = null;
+            throw e;
+        } catch (RuntimeException e) {
+            this.reader = null;
+            throw e;
+        } finally {
+            // the loaded bytes of a large file are not kept
+            this.input.load(this.buffer, 0);
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the buffer kept by this thread.
+     *
+     * @return the buffer size
+     */
+    int getBufferSize() {
+        return this.buffer.length;
+    }
+
+    /**
+     * Returns the parser of this thread, creating it on first use.
+     *
+     * @return the parser
+     * @throws DocumentException
+     *             if no parser can be created
+     */
+    private SAXReader getReader() throws DocumentException {
+        if (this.reader == null) {
+            try {
+                this.reader = newReader();
+            } catch (SAXException e) {
+                throw new DocumentException(e.getMessage(), e);
+            } catch (ParserConfigurationException e) {
+                throw new DocumentException(e.getMessage(), e);
+            }
+        }
+        return this.reader;
+    }
+
+    /**
+     * Creates a parser that doesn't resolve external entities.
+     *
+     * @return the parser
+     * @throws SAXException
+     *             if no parser can be created
+     * @throws ParserConfigurationException
+     *             if no parser can be created
+     */
+    static SAXReader newReader() throws SAXException, ParserConfigurationException {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setValidating(false);
+        XMLReader xmlReader = factory.newSAXParser().getXMLReader();
+        for (String feature : DISABLED_FEATURES) {
+            try {
+                xmlReader.setFeature(feature, false);
+            } catch (SAXException e) {
+                Log.debug("Parser doesn't support " + feature, e);
+            }
+        }
+
+        SAXReader reader = new SAXReader(xmlReader);
+        reader.setEntityResolver(NO_ENTITIES);
+        return reader;
+    }
+
+    /**
+     * A stream over the loaded bytes, reused for every file.
+     */
+    private static final class LoadedInput extends ByteArrayInputStream {
+        private LoadedInput() {
+            super(new byte[0]);
+        }
+
+        /**
+         * Starts reading the given bytes.
+         *
+         * @param bytes
+         *            the buffer
+         * @param length
+         *            the number of bytes loaded into the buffer
+         */
+        private void load(byte[] bytes, int length) {
+            this.buf = bytes;
+            this.pos = 0;
+            this.mark = 0;
+            this.count = length;
+        }
+
+        @Override
+        public void close() {
+            // the parser closes its input, the stream is reused
+        }
+    }
+}
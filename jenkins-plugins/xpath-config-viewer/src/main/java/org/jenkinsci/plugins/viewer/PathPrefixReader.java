@@ -0,0 +1,494 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang.StringUtils;
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.dom4j.XPath;
+import org.jaxen.JaxenHandler;
+import org.jaxen.expr.BinaryExpr;
+import org.jaxen.expr.Expr;
+import org.jaxen.expr.FilterExpr;
+import org.jaxen.expr.FunctionCallExpr;
+import org.jaxen.expr.LocationPath;
+import org.jaxen.expr.NameStep;
+import org.jaxen.expr.PathExpr;
+import org.jaxen.expr.Predicate;
+import org.jaxen.expr.Step;
+import org.jaxen.expr.UnaryExpr;
+import org.jaxen.expr.VariableReferenceExpr;
+import org.jaxen.saxpath.Axis;
+import org.jaxen.saxpath.XPathReader;
+import org.jaxen.saxpath.helpers.XPathReaderFactory;
+import org.jfree.util.Log;
+
+/**
+ * Parses a config.xml into a pruned document holding only what an xpath expression can select. Many expressions can
+ * only match below a fixed element path, like /project/properties for /project/properties/*[@plugin]. Elements off
+ * that path are skipped without creating nodes, elements on it are kept without content, and the subtrees of the
+ * elements at its end are kept complete. The expression selects the same nodes from the pruned document as from the
+ * full one.
+ *
+ * An expression returning the first match of a location path is evaluated whenever a subtree at the end of the path
+ * is complete, and reading stops at the first subtree with a match, see {@link #canStopAtFirstMatch(String)}.
+ *
+ * The path is only derived if nothing in the expression looks outside those subtrees: steps below the path and
+ * predicates may only use the child, descendant, self and attribute axes, and predicates may not use absolute paths,
+ * variables or functions looking at other parts of the document. Documents outside the subset of
+ * {@link StreamingPathEvaluator} are not read, callers fall back to the document.
+ *
+ * @author c031
+ *
+ */
+public class PathPrefixReader {
+    /**
+     * functions that look outside the subtree of their context node.
+     */
+    private static final List< String > NON_LOCAL_FUNCTIONS = Arrays.asList("id", "lang", "document", "evaluate");
+
+    /**
+     * functions reading the context node if they are called without argument.
+     */
+    private static final List< String > CONTEXT_FUNCTIONS = Arrays.asList("string", "name", "local-name", "namespace-uri", "normalize-space", "string-length", "number");
+
+    /**
+     * Returns the element path every node selected by the given xpath expression lies below or on.
+     *
+     * @param xpath
+     *            the xpath expression
+     * @return the element names of the path or null if the expression may select nodes anywhere in the document
+     */
+    public static String[] getPrefix(String xpath) {
+        Expr root = parse(xpath);
+        if (root == null) {
+            return null;
+        }
+
+        List< LocationPath > paths = new ArrayList< LocationPath >();
+        if (!collectPaths(root, paths) || paths.isEmpty()) {
+            return null;
+        }
+
+        List< String > prefix = null;
+        for (LocationPath path : paths) {
+            List< String > names = getPrefix(path);
+            if (names == null) {
+                return null;
+            }
+            if (prefix == null) {
+                prefix = names;
+            } else {
+                int common = 0;
+                while (common < prefix.size() && common < names.size() && prefix.get(common).equals(names.get(common))) {
+                    common++;
+                }
+                prefix = prefix.subList(0, common);
+            }
+        }
+
+        return prefix.isEmpty() ? null : prefix.toArray(new String[prefix.size()]);
+    }
+
+    /**
+     * Returns true if the first node selected by the given xpath expression can be found by looking at one subtree at
+     * the end of its path at a time. True for absolute location paths, whose predicates only look inside the subtree.
+     *
+     * @param xpath
+     *            the xpath expression, see {@link #getPrefix(String)}
+     * @return true if reading can stop at the first subtree with a match
+     */
+    public static boolean canStopAtFirstMatch(String xpath) {
+        return parse(xpath) instanceof LocationPath;
+    }
+
+    /**
+     * Parses the given xpath expression.
+     *
+     * @param xpath
+     *            the xpath expression
+     * @return the simplified expression tree or null if it can't be parsed
+     */
+    private static Expr parse(String xpath) {
+        if (StringUtils.isBlank(xpath)) {
+            return null;
+        }
+        try {
+            JaxenHandler handler = new JaxenHandler();
+            XPathReader reader = XPathReaderFactory.createReader();
+            reader.setXPathHandler(handler);
+            reader.parse(xpath);
+            return handler.getXPathExpr(true).getRootExpr();
+        } catch (Exception e) {
+            Log.debug("Can't parse xpath expression: " + xpath, e);
+        }
+        return null;
+    }
+
+    /**
+     * Collects the location paths of a top level expression.
+     *
+     * @param expr
+     *            the expression evaluated against the document
+     * @param paths
+     *            receives the location paths
+     * @return false if the expression reads the document other than by absolute location paths
+     */
+    private static boolean collectPaths(Expr expr, List< LocationPath > paths) {
+        if (expr instanceof LocationPath) {
+            if (!((LocationPath) expr).isAbsolute()) {
+                return false;
+            }
+            paths.add((LocationPath) expr);
+            return true;
+        }
+        if (expr instanceof FunctionCallExpr) {
+            FunctionCallExpr call = (FunctionCallExpr) expr;
+            if (call.getParameters().isEmpty() && CONTEXT_FUNCTIONS.contains(call.getFunctionName())) {
+                return false;
+            }
+            if (StringUtils.isNotEmpty(call.getPrefix()) || NON_LOCAL_FUNCTIONS.contains(call.getFunctionName())) {
+                return false;
+            }
+            for (Object parameter : call.getParameters()) {
+                if (!collectPaths((Expr) parameter, paths)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (expr instanceof FilterExpr) {
+            FilterExpr filter = (FilterExpr) expr;
+            return isLocal(filter.getPredicates()) && collectPaths(filter.getExpr(), paths);
+        }
+        if (expr instanceof PathExpr) {
+            PathExpr path = (PathExpr) expr;
+            return path.getFilterExpr() != null && collectPaths(path.getFilterExpr(), paths)
+                    && (path.getLocationPath() == null || isLocal(path.getLocationPath()));
+        }
+        if (expr instanceof BinaryExpr) {
+            return collectPaths(((BinaryExpr) expr).getLHS(), paths) && collectPaths(((BinaryExpr) expr).getRHS(), paths);
+        }
+        if (expr instanceof UnaryExpr) {
+            return collectPaths(((UnaryExpr) expr).getExpr(), paths);
+        }
+        return !(expr instanceof VariableReferenceExpr);
+    }
+
+    /**
+     * Returns the leading element names of the given absolute location path, if the remaining steps only look below
+     * the last of them.
+     *
+     * @param path
+     *            the absolute location path
+     * @return the element names or null if the path may select nodes anywhere in the document
+     */
+    private static List< String > getPrefix(LocationPath path) {
+        List< String > names = new ArrayList< String >();
+        List< ? > steps = path.getSteps();
+        int i = 0;
+        for (; i < steps.size(); i++) {
+            Step step = (Step) steps.get(i);
+            if (!(step instanceof NameStep) || step.getAxis() != Axis.CHILD || !step.getPredicates().isEmpty()) {
+                break;
+            }
+            NameStep name = (NameStep) step;
+            if (StringUtils.isNotEmpty(name.getPrefix()) || "*".equals(name.getLocalName())) {
+                break;
+            }
+            names.add(name.getLocalName());
+        }
+        for (; i < steps.size(); i++) {
+            if (!isLocal((Step) steps.get(i))) {
+                return null;
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Returns true if the given step and its predicates only look below the context node.
+     *
+     * @param step
+     *            the step
+     * @return true if the step is local
+     */
+    private static boolean isLocal(Step step) {
+        switch (step.getAxis()) {
+        case Axis.CHILD:
+        case Axis.DESCENDANT:
+        case Axis.DESCENDANT_OR_SELF:
+        case Axis.SELF:
+        case Axis.ATTRIBUTE:
+            return isLocal(step.getPredicates());
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Returns true if the given predicates only look below the context node.
+     *
+     * @param predicates
+     *            the predicates
+     * @return true if the predicates are local
+     */
+    private static boolean isLocal(List< ? > predicates) {
+        for (Object predicate : predicates) {
+            if (!isLocal(((Predicate) predicate).getExpr())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the given expression of a predicate only looks below the context node.
+     *
+     * @param expr
+     *            the expression
+     * @return true if the expression is local
+     */
+    private static boolean isLocal(Expr expr) {
+        if (expr instanceof LocationPath) {
+            if (((LocationPath) expr).isAbsolute()) {
+                return false;
+            }
+            for (Object step : ((LocationPath) expr).getSteps()) {
+                if (!isLocal((Step) step)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (expr instanceof FunctionCallExpr) {
+            FunctionCallExpr call = (FunctionCallExpr) expr;
+            if (StringUtils.isNotEmpty(call.getPrefix()) || NON_LOCAL_FUNCTIONS.contains(call.getFunctionName())) {
+                return false;
+            }
+            for (Object parameter : call.getParameters()) {
+                if (!isLocal((Expr) parameter)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (expr instanceof FilterExpr) {
+            return isLocal(((FilterExpr) expr).getPredicates()) && isLocal(((FilterExpr) expr).getExpr());
+        }
+        if (expr instanceof PathExpr) {
+            PathExpr path = (PathExpr) expr;
+            return (path.getFilterExpr() == null || isLocal(path.getFilterExpr())) && (path.getLocationPath() == null || isLocal(path.getLocationPath()));
+        }
+        if (expr instanceof BinaryExpr) {
+            return isLocal(((BinaryExpr) expr).getLHS()) && isLocal(((BinaryExpr) expr).getRHS());
+        }
+        if (expr instanceof UnaryExpr) {
+            return isLocal(((UnaryExpr) expr).getExpr());
+        }
+        return !(expr instanceof VariableReferenceExpr);
+    }
+
+    /**
+     * Reads the pruned document of the given path from the given file, recording the time and size with the
+     * {@link ScanMetrics}. Only the bytes read up to an early stop are recorded.
+     *
+     * @param xmlFile
+     *            the config.xml
+     * @param job
+     *            the name of the job
+     * @param prefix
+     *            the element names of the path, see {@link #getPrefix(String)}
+     * @param firstMatch
+     *            the expression to stop reading at the first match of, null to read the whole file, see
+     *            {@link #read(InputStream, String[], XPath)}
+     * @return the pruned document or null if the document is outside the supported subset
+     * @throws IOException
+     *             if the file can't be read
+     * @throws XMLStreamException
+     *             if the file is not well formed
+     */
+    public static Document read(File xmlFile, String job, String[] prefix, XPath firstMatch) throws IOException, XMLStreamException {
+        long start = System.nanoTime();
+        ScanMetrics.MeteredInputStream in = new ScanMetrics.MeteredInputStream(new FileInputStream(xmlFile));
+        try {
+            return read(in, prefix, firstMatch);
+        } finally {
+            in.close();
+            in.record(job, start);
+        }
+    }
+
+    /**
+     * Reads the pruned document of the given path.
+     *
+     * @param in
+     *            the config.xml, not closed
+     * @param prefix
+     *            the element names of the path, see {@link #getPrefix(String)}
+     * @param firstMatch
+     *            the expression to stop reading at the first match of, null to read the whole file. Must be a location
+     *            path, see {@link #canStopAtFirstMatch(String)}
+     * @return the pruned document or null if the document is outside the supported subset. If reading stopped at a
+     *         match, the subtrees at the end of the path read before are dropped, they don't contain a match.
+     * @throws XMLStreamException
+     *             if the document is not well formed
+     */
+    public static Document read(InputStream in, String[] prefix, XPath firstMatch) throws XMLStreamException {
+        XMLStreamReader reader = StreamingPathEvaluator.FACTORY.createXMLStreamReader(in);
+        try {
+            return read(reader, prefix, firstMatch);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads the pruned document of the given path.
+     *
+     * @param reader
+     *            the pull parser positioned at the start of the document
+     * @param prefix
+     *            the element names of the path
+     * @param firstMatch
+     *            the expression to stop reading at the first match of, null to read the whole file
+     * @return the pruned document or null if the document is outside the supported subset
+     * @throws XMLStreamException
+     *             if the document is not well formed
+     */
+    static Document read(XMLStreamReader reader, String[] prefix, XPath firstMatch) throws XMLStreamException {
+        Document document = DocumentHelper.createDocument();
+        int depth = 0;
+        // depth of the skipped element, 0 if no element is skipped
+        int skipDepth = 0;
+
+        // the innermost kept element, its depth is depth while it is open
+        Element current = null;
+        StringBuilder cdata = null;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+
+            if (cdata != null && event != XMLStreamConstants.CDATA) {
+                current.addCDATA(cdata.toString());
+                cdata = null;
+            }
+
+            // content of a subtree at the end of the path or of an element on it
+            boolean captured = current != null && depth >= prefix.length;
+
+            switch (event) {
+            case XMLStreamConstants.START_ELEMENT:
+                depth++;
+                if (skipDepth > 0) {
+                    break;
+                }
+                String name = reader.getLocalName();
+                if (!captured && (depth > prefix.length || !prefix[depth - 1].equals(name))) {
+                    skipDepth = depth;
+                    break;
+                }
+                if (!StreamingPathEvaluator.isPlain(reader)) {
+                    return null;
+                }
+
+                Element element = current == null ? document.addElement(name) : current.addElement(name);
+                for (int a = 0; a < reader.getAttributeCount(); a++) {
+                    element.addAttribute(reader.getAttributeLocalName(a), reader.getAttributeValue(a));
+                }
+                current = element;
+                break;
+
+            case XMLStreamConstants.END_ELEMENT:
+                if (skipDepth > 0) {
+                    if (depth == skipDepth) {
+                        skipDepth = 0;
+                    }
+                } else {
+                    Element closed = current;
+                    current = current.getParent();
+                    if (depth == prefix.length && firstMatch != null) {
+                        if (firstMatch.selectSingleNode(document) != null) {
+                            return document;
+                        }
+                        closed.detach();
+                    }
+                }
+                depth--;
+                break;
+
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+                if (captured && skipDepth == 0 && reader.getTextLength() > 0) {
+                    current.addText(reader.getText());
+                }
+                break;
+
+            case XMLStreamConstants.CDATA:
+                if (captured && skipDepth == 0) {
+                    // the parser may split a section into several events, SAXReader creates a single node
+                    if (cdata == null) {
+                        cdata = new StringBuilder();
+                    }
+                    cdata.append(reader.getText());
+                }
+                break;
+
+            case XMLStreamConstants.COMMENT:
+                if (captured && skipDepth == 0) {
+                    current.addComment(reader.getText());
+                }
+                break;
+
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                if (captured && skipDepth == 0) {
+                    current.addProcessingInstruction(reader.getPITarget(), reader.getPIData());
+                }
+                break;
+
+            case XMLStreamConstants.DTD:
+            case XMLStreamConstants.ENTITY_REFERENCE:
+                return null;
+
+            default:
+                break;
+            }
+        }
+
+        return document;
+    }
+}
@@ -0,0 +1,679 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import hudson.Util;
+import hudson.model.AbstractProject;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * The xml blocks of every job for every xpath config, one row per job and one column per xpath config, so that the
+ * configuration of a job across all selectors is seen at once.
+ *
+ * The matrix is built from the grouped results of all xpath configs: the published {@link XPathResultSnapshot} where
+ * it has them, one lookup for all others, which reads each config.xml at most once, see {@link XPathResultIndex}. A
+ * cell holds the numbers of the xml blocks of its job instead of their text. The xml blocks of a column are numbered
+ * from 1 by the number of their jobs, so block 1 is the most common configuration. The exports write every distinct
+ * xml block once and the block numbers in the cells.
+ *
+ * @author c031
+ *
+ */
+public class PivotMatrix {
+    /**
+     * default number of jobs of a page.
+     */
+    public static final int DEFAULT_COUNT = 100;
+
+    /**
+     * block number of the cell of a job without xml block.
+     */
+    public static final int NOT_ASSIGNED = 0;
+
+    /**
+     * maximum number of characters of a block shown as tooltip.
+     */
+    private static final int MAX_TITLE = 500;
+
+    /**
+     * content type of the csv export.
+     */
+    public static final String CSV_CONTENT_TYPE = "text/csv;charset=UTF-8";
+
+    /**
+     * orders xml blocks by number of jobs, most first.
+     */
+    private static final Comparator< XmlBlock > MOST_JOBS_FIRST = new Comparator< XmlBlock >() {
+        public int compare(XmlBlock a, XmlBlock b) {
+            return b.getProjects().size() - a.getProjects().size();
+        }
+    };
+
+    /**
+     * the columns.
+     */
+    private final List< XPathConfig > configs;
+
+    /**
+     * the distinct xml blocks of every column, block n at index n - 1.
+     */
+    private final List< List< XmlBlock > > blocks = new ArrayList< List< XmlBlock > >();
+
+    /**
+     * the rows, in project order.
+     */
+    private final List< Row > rows = new ArrayList< Row >();
+
+    /**
+     * Constructor
+     *
+     * @param configs
+     *            the xpath configs, one column each
+     * @param projects
+     *            the projects, one row each
+     * @param results
+     *            the distinct xml blocks of every xpath config
+     */
+    @SuppressWarnings("rawtypes")
+    public PivotMatrix(List< XPathConfig > configs, List< AbstractProject > projects, Map< XPathConfig, List< XmlBlock > > results) {
+        this.configs = new ArrayList< XPathConfig >(configs);
+
+        Map< AbstractProject, Row > byProject = new IdentityHashMap< AbstractProject, Row >();
+        for (AbstractProject project : projects) {
+            Row row = new Row(project, configs.size());
+            this.rows.add(row);
+            byProject.put(project, row);
+        }
+
+        for (int column = 0; column < configs.size(); column++) {
+            List< XmlBlock > distinct = new ArrayList< XmlBlock >();
+            XmlBlock notAssigned = null;
+            List< XmlBlock > grouped = results.get(configs.get(column));
+            for (XmlBlock xmlBlock : grouped == null ? Collections.< XmlBlock > emptyList() : grouped) {
+                if (xmlBlock.getDigest() == null) {
+                    notAssigned = xmlBlock;
+                } else {
+                    distinct.add(xmlBlock);
+                }
+            }
+            Collections.sort(distinct, MOST_JOBS_FIRST);
+            this.blocks.add(distinct);
+
+            for (int i = 0; i < distinct.size(); i++) {
+                for (AbstractProject project : distinct.get(i).getProjects()) {
+                    Row row = byProject.get(project);
+                    if (row != null) {
+                        row.add(column, i + 1);
+                    }
+                }
+            }
+            if (notAssigned != null) {
+                for (AbstractProject project : notAssigned.getProjects()) {
+                    Row row = byProject.get(project);
+                    if (row != null) {
+                        row.add(column, NOT_ASSIGNED);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the matrix of the given xpath configs for the given projects.
+     *
+     * @param configs
+     *            the xpath configs
+     * @param projects
+     *            the projects
+     * @return the matrix
+     */
+    @SuppressWarnings("rawtypes")
+    public static PivotMatrix compute(List< XPathConfig > configs, List< AbstractProject > projects) {
+        if (projects == null) {
+            projects = Collections.emptyList();
+        }
+
+        Map< XPathConfig, List< XmlBlock > > results = new IdentityHashMap< XPathConfig, List< XmlBlock > >();
+        List< XPathConfig > missing = new ArrayList< XPathConfig >();
+        XPathResultSnapshot snapshot = XPathResultSnapshot.current();
+        for (XPathConfig config : configs) {
+            List< XmlBlock > published = snapshot == null ? null : snapshot.get(config);
+            if (published != null) {
+                results.put(config, published);
+            } else if (StringUtils.isNotBlank(config.getXpath())) {
+                missing.add(config);
+            }
+        }
+        if (!missing.isEmpty()) {
+            results.putAll(XPathResultIndex.lookup(missing, projects));
+        }
+
+        return new PivotMatrix(configs, projects, results);
+    }
+
+    /**
+     * @return the xpath configs, one column each
+     */
+    public List< XPathConfig > getConfigs() {
+        return this.configs;
+    }
+
+    /**
+     * @return all rows, in project order
+     */
+    public List< Row > getRows() {
+        return this.rows;
+    }
+
+    /**
+     * Returns the distinct xml blocks of the given column.
+     *
+     * @param column
+     *            the index of the column
+     * @return the xml blocks, block n at index n - 1
+     */
+    public List< XmlBlock > getBlocks(int column) {
+        return this.blocks.get(column);
+    }
+
+    /**
+     * Returns one page of the rows.
+     *
+     * @param sort
+     *            "job" to sort by job name, the id of an xpath config to sort by its block numbers, anything else for
+     *            project order
+     * @param filter
+     *            substring of the full name of the jobs to show, null or empty for all jobs
+     * @param start
+     *            index of the first row to show
+     * @param count
+     *            maximum number of rows to show
+     * @return the page
+     */
+    public Page getPage(String sort, String filter, int start, int count) {
+        return new Page(sort, filter, start, count);
+    }
+
+    /**
+     * Writes the matrix as CSV: the job and the block numbers of every xpath config. A job with several xml blocks
+     * gets their numbers separated by spaces, a job without xml block gets 0, a job not selected by the job filter of
+     * an xpath config gets nothing.
+     *
+     * @param out
+     *            receives the CSV
+     * @throws IOException
+     *             if the CSV can't be written
+     */
+    public void writeCsv(Writer out) throws IOException {
+        out.write("job");
+        for (XPathConfig config : this.configs) {
+            out.write(',');
+            out.write(csv(config.name));
+        }
+        out.write("\r\n");
+
+        for (Row row : this.rows) {
+            out.write(csv(row.getJob()));
+            for (Cell cell : row.cells) {
+                out.write(',');
+                if (cell != null) {
+                    out.write(cell.getRefs());
+                }
+            }
+            out.write("\r\n");
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the distinct xml blocks of all columns as CSV: the id of the xpath config, the block number, the digest,
+     * the number of jobs and the text.
+     *
+     * @param out
+     *            receives the CSV
+     * @throws IOException
+     *             if the CSV can't be written
+     */
+    public void writeBlocksCsv(Writer out) throws IOException {
+        out.write("selector,block,digest,jobs,xml\r\n");
+        for (int column = 0; column < this.configs.size(); column++) {
+            String id = csv(this.configs.get(column).id);
+            List< XmlBlock > distinct = this.blocks.get(column);
+            for (int i = 0; i < distinct.size(); i++) {
+                XmlBlock xmlBlock = distinct.get(i);
+                out.write(id + "," + (i + 1) + "," + xmlBlock.getDigest() + "," + xmlBlock.getProjects().size() + "," + csv(xmlBlock.getXmlblock())
+                        + "\r\n");
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the matrix as newline delimited JSON, one object per line:
+     * <ul>
+     * <li><code>{"type":"selector","id":"...","name":"...","xpath":"..."}</code> for every xpath config</li>
+     * <li><code>{"type":"block","selector":"...","block":n,"digest":"...","jobs":n,"xml":"..."}</code> for every
+     * distinct xml block</li>
+     * <li><code>{"type":"job","job":"...","cells":{"selector":[n,...],...}}</code> for every job, with an empty list
+     * for a job without xml block and without the xpath configs not selecting the job</li>
+     * <li><code>{"type":"end","jobs":n,"selectors":n,"blocks":n}</code> at the end</li>
+     * </ul>
+     *
+     * @param out
+     *            receives the records
+     * @throws IOException
+     *             if the records can't be written
+     */
+    public void writeNdjson(Writer out) throws IOException {
+        int total = 0;
+        for (int column = 0; column < this.configs.size(); column++) {
+            XPathConfig config = this.configs.get(column);
+            out.write("{\"type\":\"selector\",\"id\":" + XPathResultsApi.quote(config.id) + ",\"name\":" + XPathResultsApi.quote(StringUtils.defaultString(config.name))
+                    + ",\"xpath\":" + XPathResultsApi.quote(StringUtils.defaultString(config.getXpath())) + "}\n");
+            List< XmlBlock > distinct = this.blocks.get(column);
+            for (int i = 0; i < distinct.size(); i++) {
+                XmlBlock xmlBlock = distinct.get(i);
+                out.write("{\"type\":\"block\",\"selector\":" + XPathResultsApi.quote(config.id) + ",\"block\":" + (i + 1) + ",\"digest\":"
+                        + XPathResultsApi.quote(xmlBlock.getDigest()) + ",\"jobs\":" + xmlBlock.getProjects().size() + ",\"xml\":"
+                        + XPathResultsApi.quote(xmlBlock.getXmlblock()) + "}\n");
+            }
+            total += distinct.size();
+        }
+
+        for (Row row : this.rows) {
+            out.write("{\"type\":\"job\",\"job\":" + XPathResultsApi.quote(row.getJob()) + ",\"cells\":{");
+            boolean first = true;
+            for (int column = 0; column < this.configs.size(); column++) {
+                Cell cell = row.cells[column];
+                if (cell == null) {
+                    continue;
+                }
+                out.write((first ? "" : ",") + XPathResultsApi.quote(this.configs.get(column).id) + ":[");
+                int written = 0;
+                for (int ref : cell.refs) {
+                    if (ref != NOT_ASSIGNED) {
+                        out.write((written++ > 0 ? "," : "") + ref);
+                    }
+                }
+                out.write("]");
+                first = false;
+            }
+            out.write("}}\n");
+        }
+
+        out.write("{\"type\":\"end\",\"jobs\":" + this.rows.size() + ",\"selectors\":" + this.configs.size() + ",\"blocks\":" + total + "}\n");
+        out.flush();
+    }
+
+    /**
+     * Returns the given text as CSV field, quoted if necessary.
+     *
+     * @param text
+     *            the text
+     * @return the field
+     */
+    static String csv(String text) {
+        if (text == null) {
+            return "";
+        }
+        if (StringUtils.containsNone(text, ",\"\r\n")) {
+            return text;
+        }
+        return "\"" + text.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * The xml blocks of one job.
+     */
+    public final class Row {
+        @SuppressWarnings("rawtypes")
+        private final AbstractProject project;
+
+        private final String job;
+
+        private final Cell[] cells;
+
+        @SuppressWarnings("rawtypes")
+        private Row(AbstractProject project, int columns) {
+            this.project = project;
+            this.job = project.getFullName();
+            this.cells = new Cell[columns];
+        }
+
+        /**
+         * Adds an xml block to a cell.
+         *
+         * @param column
+         *            the index of the column
+         * @param ref
+         *            the number of the xml block
+         */
+        private void add(int column, int ref) {
+            if (this.cells[column] == null) {
+                this.cells[column] = new Cell(column);
+            }
+            this.cells[column].add(ref);
+        }
+
+        /**
+         * @return the project
+         */
+        @SuppressWarnings("rawtypes")
+        public AbstractProject getProject() {
+            return this.project;
+        }
+
+        /**
+         * @return the full name of the job
+         */
+        public String getJob() {
+            return this.job;
+        }
+
+        /**
+         * @return the cell of every column, null for the xpath configs not selecting the job
+         */
+        public List< Cell > getCells() {
+            List< Cell > result = new ArrayList< Cell >(this.cells.length);
+            Collections.addAll(result, this.cells);
+            return result;
+        }
+
+        /**
+         * Returns the lowest block number of the given column, for sorting.
+         *
+         * @param column
+         *            the index of the column
+         * @return the block number, {@link Integer#MAX_VALUE} for jobs without xml block or not selected
+         */
+        private int getSortKey(int column) {
+            Cell cell = this.cells[column];
+            if (cell == null) {
+                return Integer.MAX_VALUE;
+            }
+            int min = Integer.MAX_VALUE - 1;
+            for (int ref : cell.refs) {
+                if (ref != NOT_ASSIGNED && ref < min) {
+                    min = ref;
+                }
+            }
+            return min;
+        }
+    }
+
+    /**
+     * The xml blocks of one job for one xpath config.
+     */
+    public final class Cell {
+        private final int column;
+
+        private int[] refs = new int[0];
+
+        private Cell(int column) {
+            this.column = column;
+        }
+
+        /**
+         * Adds the given block number.
+         *
+         * @param ref
+         *            the block number
+         */
+        private void add(int ref) {
+            int[] added = new int[this.refs.length + 1];
+            System.arraycopy(this.refs, 0, added, 0, this.refs.length);
+            added[this.refs.length] = ref;
+            this.refs = added;
+        }
+
+        /**
+         * @return the block numbers separated by spaces, 0 for a job without xml block
+         */
+        public String getRefs() {
+            StringBuilder sb = new StringBuilder();
+            for (int ref : this.refs) {
+                sb.append(sb.length() > 0 ? " " : "").append(ref);
+            }
+            return sb.toString();
+        }
+
+        /**
+         * @return true if the job has no xml block
+         */
+        public boolean isNotAssigned() {
+            return this.refs.length == 1 && this.refs[0] == NOT_ASSIGNED;
+        }
+
+        /**
+         * Returns the HTML escaped label of the cell: the values of a scalar xpath expression, the block numbers
+         * otherwise.
+         *
+         * @return the escaped label
+         */
+        public String getEscapedLabel() {
+            if (this.isNotAssigned()) {
+                return "-";
+            }
+            boolean values = PivotMatrix.this.configs.get(this.column).isValueExpression();
+            StringBuilder sb = new StringBuilder();
+            for (int ref : this.refs) {
+                sb.append(sb.length() > 0 ? " " : "");
+                sb.append(values ? this.getBlock(ref).getXmlblock() : "#" + ref);
+            }
+            return Util.escape(sb.toString());
+        }
+
+        /**
+         * @return the start of the text of the xml blocks, shown as tooltip and escaped as attribute value
+         */
+        public String getTitle() {
+            StringBuilder sb = new StringBuilder();
+            for (int ref : this.refs) {
+                if (ref != NOT_ASSIGNED) {
+                    sb.append(sb.length() > 0 ? "\n" : "").append(this.getBlock(ref).getXmlblock());
+                }
+            }
+            return StringUtils.abbreviate(sb.toString(), MAX_TITLE);
+        }
+
+        /**
+         * Returns the xml block of the given number.
+         *
+         * @param ref
+         *            the block number
+         * @return the xml block
+         */
+        private XmlBlock getBlock(int ref) {
+            return PivotMatrix.this.blocks.get(this.column).get(ref - 1);
+        }
+    }
+
+    /**
+     * One page of the rows, sorted and filtered.
+     */
+    public final class Page {
+        private final List< Row > pageRows;
+
+        private final String sort;
+
+        private final String filter;
+
+        private final int start;
+
+        private final int count;
+
+        private final int total;
+
+        private Page(String sort, String filter, int start, int count) {
+            this.sort = StringUtils.defaultString(sort);
+            this.filter = StringUtils.trimToEmpty(filter);
+            this.count = count > 0 ? count : DEFAULT_COUNT;
+
+            String needle = this.filter.toLowerCase(Locale.ENGLISH);
+            List< Row > matching = new ArrayList< Row >();
+            for (Row row : PivotMatrix.this.rows) {
+                if (needle.length() == 0 || row.job.toLowerCase(Locale.ENGLISH).contains(needle)) {
+                    matching.add(row);
+                }
+            }
+            Comparator< Row > comparator = this.comparator();
+            if (comparator != null) {
+                Collections.sort(matching, comparator);
+            }
+
+            this.total = matching.size();
+            int first = Math.max(0, Math.min(start, this.total - 1));
+            this.start = this.total == 0 ? 0 : first - first % this.count;
+            this.pageRows = matching.subList(this.start, Math.min(this.start + this.count, this.total));
+        }
+
+        /**
+         * @return the order of the sort parameter, null for project order
+         */
+        private Comparator< Row > comparator() {
+            final Comparator< Row > byJob = new Comparator< Row >() {
+                public int compare(Row a, Row b) {
+                    return a.job.compareToIgnoreCase(b.job);
+                }
+            };
+            if ("job".equals(this.sort)) {
+                return byJob;
+            }
+            for (int i = 0; i < PivotMatrix.this.configs.size(); i++) {
+                if (this.sort.equals(PivotMatrix.this.configs.get(i).id)) {
+                    final int column = i;
+                    return new Comparator< Row >() {
+                        public int compare(Row a, Row b) {
+                            int x = a.getSortKey(column);
+                            int y = b.getSortKey(column);
+                            return x != y ? (x < y ? -1 : 1) : byJob.compare(a, b);
+                        }
+                    };
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return the rows of the page
+         */
+        public List< Row > getRows() {
+            return this.pageRows;
+        }
+
+        /**
+         * @return the sort parameter
+         */
+        public String getSort() {
+            return this.sort;
+        }
+
+        /**
+         * @return the job name filter, empty for all jobs
+         */
+        public String getFilter() {
+            return this.filter;
+        }
+
+        /**
+         * @return the index of the first row of the page
+         */
+        public int getStart() {
+            return this.start;
+        }
+
+        /**
+         * @return the index after the last row of the page
+         */
+        public int getEnd() {
+            return this.start + this.pageRows.size();
+        }
+
+        /**
+         * @return the number of rows passing the filter
+         */
+        public int getTotal() {
+            return this.total;
+        }
+
+        /**
+         * @return true if there is a page before this one
+         */
+        public boolean hasPrevious() {
+            return this.start > 0;
+        }
+
+        /**
+         * @return true if there is a page after this one
+         */
+        public boolean hasNext() {
+            return this.getEnd() < this.total;
+        }
+
+        /**
+         * Returns the query string of a page with the filter and page size of this one.
+         *
+         * @param first
+         *            the index of the first row
+         * @param order
+         *            the sort parameter
+         * @return the query string
+         */
+        public String getQuery(int first, String order) {
+            try {
+                return "start=" + first + "&count=" + this.count + "&sort=" + URLEncoder.encode(StringUtils.defaultString(order), "UTF-8") + "&filter="
+                        + URLEncoder.encode(this.filter, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * @return the query string of the previous page
+         */
+        public String getPreviousQuery() {
+            return this.getQuery(Math.max(0, this.start - this.count), this.sort);
+        }
+
+        /**
+         * @return the query string of the next page
+         */
+        public String getNextQuery() {
+            return this.getQuery(this.start + this.count, this.sort);
+        }
+    }
+}
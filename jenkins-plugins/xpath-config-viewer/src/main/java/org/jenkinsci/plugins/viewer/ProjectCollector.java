@@ -23,48 +23,150 @@
  */
 package org.jenkinsci.plugins.viewer;
 
+import hudson.Extension;
 import hudson.model.AbstractProject;
 import hudson.model.Hudson;
+import hudson.model.Item;
+import hudson.model.listeners.ItemListener;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Provides static methods to initialize the list of projects once per view and not for every xpath config. 
  * 
+ * The list holds every project of the instance, including the ones nested in folders. It is an immutable snapshot
+ * shared by all page views, taken on first use and dropped by item lifecycle events, so it's only rebuilt after jobs
+ * have been created, renamed or deleted.
+ * 
  * @author c031
  *
  */
 public class ProjectCollector {
     /**
-     * list of all projects.
+     * snapshot of all projects. An invalidated snapshot holds no projects, every invalidation installs a new one.
      */
-    @SuppressWarnings("rawtypes")
-    private static List< AbstractProject > projects;
+    private static final AtomicReference< Snapshot > PROJECTS = new AtomicReference< Snapshot >(new Snapshot(null));
     
     /**
-     * Initialize the list of all projects.
+     * Initialize the list of all projects and open the session of this render.
      */
     public static void init() {
-        Hudson instance = Hudson.getInstance();
+        getProjectsList();
         
-        if(instance != null) {
-           projects = Hudson.getInstance().getItems(AbstractProject.class);
+        RenderSession.open();
+    }
+    
+    /**
+     * Initialize the list of all projects and open the session of this render with the given xpath configs
+     * registered, so that they are looked up together on first access, see
+     * {@link RenderSession#register(java.util.Collection)}.
+     * 
+     * @param configs
+     *            the xpath configs of the render
+     */
+    public static void init(List< XPathConfig > configs) {
+        getProjectsList();
+        
+        RenderSession.open().register(configs);
+    }
+    
+    /**
+     * Releases the session opened by {@link #init()}. Called when the render is finished.
+     */
+    public static void release() {
+        release(null);
+    }
+    
+    /**
+     * Releases the session opened by {@link #init()} and records the time of the render with the
+     * {@link ScanMetrics}.
+     * 
+     * @param config
+     *            the xpath config rendered, null for the whole page
+     */
+    public static void release(XPathConfig config) {
+        RenderSession session = RenderSession.current();
+        if (session != null) {
+            ScanMetrics.getInstance().record(ScanMetrics.Stage.RENDER, config, System.nanoTime() - session.getOpened());
         }
+        RenderSession.close();
     }
     
     /**
-     * Returns the list of all projects. Needs to be initialized before.
-     * @return the list of all projects.
+     * Returns the list of all projects, taking a snapshot if there is none.
+     * @return the unmodifiable list of all projects or null if there is no Jenkins instance.
      */
     @SuppressWarnings("rawtypes")
     public static List< AbstractProject > getProjectsList() {
+        Snapshot snapshot = PROJECTS.get();
+        if (snapshot.projects != null) {
+            return snapshot.projects;
+        }
+        
+        Hudson instance = Hudson.getInstance();
+        if (instance == null) {
+            return null;
+        }
+        
+        List< AbstractProject > projects = Collections.unmodifiableList(new ArrayList< AbstractProject >(instance.getAllItems(AbstractProject.class)));
+        // not stored if invalidated meanwhile, the next call takes a new snapshot
+        PROJECTS.compareAndSet(snapshot, new Snapshot(projects));
         return projects;
     }
     
+    /**
+     * Drops the snapshot of all projects, the next call of {@link #getProjectsList()} takes a new one.
+     */
+    public static void invalidate() {
+        PROJECTS.set(new Snapshot(null));
+    }
+    
     /**
      * Set the projects list for unit tests
      */
+    @SuppressWarnings("rawtypes")
     public static void setProjectsListForTest(List< AbstractProject > testProjects) {
-        projects = testProjects;
+        PROJECTS.set(new Snapshot(testProjects == null ? null : Collections.unmodifiableList(new ArrayList< AbstractProject >(testProjects))));
+    }
+    
+    /**
+     * The list of all projects at one point in time.
+     */
+    @SuppressWarnings("rawtypes")
+    private static final class Snapshot {
+        private final List< AbstractProject > projects;
+
+        private Snapshot(List< AbstractProject > projects) {
+            this.projects = projects;
+        }
+    }
+    
+    /**
+     * Drops the snapshot of all projects when jobs or folders are created, renamed or deleted.
+     */
+    @Extension
+    public static class ItemListenerImpl extends ItemListener {
+        @Override
+        public void onCreated(Item item) {
+            invalidate();
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            invalidate();
+        }
+
+        @Override
+        public void onRenamed(Item item, String oldName, String newName) {
+            invalidate();
+        }
+
+        @Override
+        public void onLoaded() {
+            invalidate();
+        }
     }
 }
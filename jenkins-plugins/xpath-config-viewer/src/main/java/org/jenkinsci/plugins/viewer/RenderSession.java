@@ -0,0 +1,152 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import hudson.model.AbstractProject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds the xpath configs shown during one render of the viewer page. They are looked up together on first access,
+ * so a page showing several xpath configs reads the config.xml files once, see {@link XPathResultIndex} and
+ * {@link XPathScanner}.
+ *
+ * A session is bound to the thread handling a request. It is opened by {@link ProjectCollector#init(List)}, which
+ * registers the xpath configs of the request, and released by {@link ProjectCollector#release()} in a finally block of
+ * the same request.
+ *
+ * @author c031
+ *
+ */
+public class RenderSession {
+    /**
+     * the session of the current thread.
+     */
+    private static final ThreadLocal< RenderSession > CURRENT = new ThreadLocal< RenderSession >();
+
+    /**
+     * the xpath configs shown on the page.
+     */
+    private final List< XPathConfig > configs = new ArrayList< XPathConfig >();
+
+    /**
+     * the distinct xml blocks of all registered xpath configs, computed on first access.
+     */
+    private Map< XPathConfig, List< XmlBlock > > results;
+
+    /**
+     * time the session was opened at, see {@link System#nanoTime()}.
+     */
+    private final long opened = System.nanoTime();
+
+    /**
+     * Opens a new session for the current thread. A session left open by a previous render on this thread is
+     * replaced.
+     *
+     * @return the new session
+     */
+    public static RenderSession open() {
+        RenderSession session = new RenderSession();
+        CURRENT.set(session);
+        return session;
+    }
+
+    /**
+     * Returns the session of the current thread.
+     *
+     * @return the session or null if none is open
+     */
+    public static RenderSession current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Releases the session of the current thread and the results held by it.
+     */
+    public static void close() {
+        RenderSession session = CURRENT.get();
+        if (session != null) {
+            session.results = null;
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * Registers the xpath configs shown on the page. They are evaluated together on first access of
+     * {@link #getDistinctXmlBlocks(XPathConfig)}.
+     *
+     * @param xpathConfigs
+     *            the xpath configs
+     */
+    public void register(Collection< XPathConfig > xpathConfigs) {
+        this.configs.clear();
+        this.configs.addAll(xpathConfigs);
+        this.results = null;
+    }
+
+    /**
+     * Returns true if the given xpath config is registered with this session.
+     *
+     * @param config
+     *            the xpath config
+     * @return true if registered
+     */
+    public boolean isRegistered(XPathConfig config) {
+        for (XPathConfig registered : this.configs) {
+            if (registered == config) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the distinct xml blocks of the given registered xpath config. The first call looks up all registered
+     * xpath configs at once, see {@link XPathResultIndex}.
+     *
+     * @param config
+     *            a registered xpath config
+     * @return the distinct xml blocks
+     */
+    @SuppressWarnings("rawtypes")
+    public List< XmlBlock > getDistinctXmlBlocks(XPathConfig config) {
+        if (this.results == null) {
+            List< AbstractProject > projects = ProjectCollector.getProjectsList();
+            this.results = XPathResultIndex.lookup(this.configs, projects);
+        }
+        return this.results.get(config);
+    }
+
+    /**
+     * Returns the time this session was opened at, the start of the render it belongs to.
+     *
+     * @return the time, see {@link System#nanoTime()}
+     */
+    public long getOpened() {
+        return this.opened;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import hudson.model.AbstractProject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs identical lookups of xml blocks only once at a time. A lookup requested while the same lookup is running, for
+ * the same xpath configs in the same state and the same projects, waits for the running one and gets its result
+ * instead of reading the config.xml files again. Several admins opening the viewer page at once, or a reload of a slow
+ * page, cause a single scan. The read rate isn't part of what is looked up, a page view during a throttled background
+ * run waits for that run rather than reading all config.xml files a second time.
+ *
+ * Lookups run on a few daemon threads of their own, all requests only wait for them, including the one that started
+ * the lookup. A requester that stops waiting, because its request was aborted and its thread interrupted, leaves the
+ * lookup running for the others. Results are not kept once a lookup is finished, see {@link XPathResultIndex} for
+ * that.
+ *
+ * @author c031
+ *
+ */
+public class ScanCoalescer {
+    /**
+     * maximum number of lookups running at the same time, further lookups are queued.
+     */
+    public static final int THREADS = Math.max(Integer.getInteger(ScanCoalescer.class.getName() + ".threads", 2), 1);
+
+    /**
+     * the coalescer of all lookups.
+     */
+    private static final ScanCoalescer INSTANCE = new ScanCoalescer();
+
+    /**
+     * the running lookups by what they look up.
+     */
+    private final ConcurrentMap< Key, FutureTask< Map< XPathConfig, List< XmlBlock > > > > running = new ConcurrentHashMap< Key, FutureTask< Map< XPathConfig, List< XmlBlock > > > >();
+
+    /**
+     * runs the lookups, its idle threads terminate.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * number of lookups started.
+     */
+    private final AtomicLong started = new AtomicLong();
+
+    /**
+     * number of requests that waited for a lookup started by another one.
+     */
+    private final AtomicLong joined = new AtomicLong();
+
+    /**
+     * Constructor
+     */
+    public ScanCoalescer() {
+        this.executor = new ThreadPoolExecutor(THREADS, THREADS, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue< Runnable >(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "XPath config lookup " + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the coalescer of all lookups.
+     *
+     * @return the shared coalescer
+     */
+    public static ScanCoalescer getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the result of the given lookup, joining an identical lookup if one is running. Otherwise the lookup is
+     * started on a lookup thread, the calling thread waits for it.
+     *
+     * @param configs
+     *            the xpath configs looked up
+     * @param projects
+     *            the projects looked up
+     * @param lookup
+     *            computes the result if no identical lookup is running
+     * @return the distinct xml blocks by xpath config
+     * @throws CancellationException
+     *             if the calling thread is interrupted while waiting, the lookup keeps running
+     */
+    @SuppressWarnings("rawtypes")
+    public Map< XPathConfig, List< XmlBlock > > lookup(Collection< XPathConfig > configs, List< AbstractProject > projects,
+            final Callable< Map< XPathConfig, List< XmlBlock > > > lookup) {
+        final Key key = new Key(configs, projects);
+        final AtomicReference< FutureTask< Map< XPathConfig, List< XmlBlock > > > > self = new AtomicReference< FutureTask< Map< XPathConfig, List< XmlBlock > > > >();
+        FutureTask< Map< XPathConfig, List< XmlBlock > > > task = new FutureTask< Map< XPathConfig, List< XmlBlock > > >(new Callable< Map< XPathConfig, List< XmlBlock > > >() {
+            public Map< XPathConfig, List< XmlBlock > > call() throws Exception {
+                try {
+                    return lookup.call();
+                } finally {
+                    // removed before the result is handed out, a request seeing it running gets the result
+                    ScanCoalescer.this.running.remove(key, self.get());
+                }
+            }
+        });
+        self.set(task);
+
+        FutureTask< Map< XPathConfig, List< XmlBlock > > > current = this.running.putIfAbsent(key, task);
+        if (current == null) {
+            this.started.incrementAndGet();
+            this.executor.execute(task);
+            current = task;
+        } else {
+            this.joined.incrementAndGet();
+        }
+
+        try {
+            return current.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for the xpath config lookup");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * @return the number of lookups started
+     */
+    public long getStarted() {
+        return this.started.get();
+    }
+
+    /**
+     * @return the number of requests that waited for a lookup started by another one
+     */
+    public long getJoined() {
+        return this.joined.get();
+    }
+
+    /**
+     * @return the number of lookups running
+     */
+    public int getRunning() {
+        return this.running.size();
+    }
+
+    /**
+     * What a lookup looks up. Xpath configs and projects are compared by identity, the results are keyed by the
+     * xpath config instances. The signature of each xpath config is part of the key, so a lookup started before a
+     * config was changed isn't joined after.
+     */
+    private static final class Key {
+        private final List< Object > configs = new ArrayList< Object >();
+
+        private final List< String > signatures = new ArrayList< String >();
+
+        private final Object projects;
+
+        private Key(Collection< XPathConfig > configs, Object projects) {
+            for (XPathConfig config : configs) {
+                this.configs.add(config);
+                this.signatures.add(config.id + "\n" + config.getSignature());
+            }
+            this.projects = projects;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            if (this.projects != other.projects || this.configs.size() != other.configs.size()) {
+                return false;
+            }
+            for (int i = 0; i < this.configs.size(); i++) {
+                if (this.configs.get(i) != other.configs.get(i)) {
+                    return false;
+                }
+            }
+            return this.signatures.equals(other.signatures);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = System.identityHashCode(this.projects);
+            for (Object config : this.configs) {
+                hash = hash * 31 + System.identityHashCode(config);
+            }
+            return hash * 31 + this.signatures.hashCode();
+        }
+    }
+}
@@ -0,0 +1,543 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+
+/**
+ * Collects where the time of the viewer goes, so that pathological selectors and giant config.xml files can be found.
+ * The counters cover all scans and renders since startup or the last {@link #reset()}, they are shown on the plugin
+ * page and served as JSON by /xpathviewer/metrics.
+ *
+ * Time is recorded per {@link Stage} and, for evaluation, serialization and rendering, per xpath config. The readers
+ * of config.xml files, {@link ParserPool}, {@link StreamingPathEvaluator} and {@link PathPrefixReader}, record each
+ * file with {@link #recordFile(String, long, long, long)}, splitting the time spent waiting for the file from the time
+ * spent parsing it, see {@link MeteredInputStream}. The jobs that took longest are kept. A streamed file is evaluated
+ * while it is parsed, its evaluation counts as parsing.
+ *
+ * Rendering covers a page or fragment from {@link ProjectCollector#init()} to {@link ProjectCollector#release()},
+ * including scans it triggers.
+ *
+ * @author c031
+ *
+ */
+public class ScanMetrics {
+    /**
+     * number of slowest jobs kept.
+     */
+    public static final int SLOWEST_JOBS = Integer.getInteger(ScanMetrics.class.getName() + ".slowestJobs", 10);
+
+    /**
+     * the metrics of all scans.
+     */
+    private static final ScanMetrics INSTANCE = new ScanMetrics(SLOWEST_JOBS);
+
+    /**
+     * orders timings by total time, slowest first.
+     */
+    private static final Comparator< Timing > SLOWEST_FIRST = new Comparator< Timing >() {
+        public int compare(Timing a, Timing b) {
+            long x = a.getNanos();
+            long y = b.getNanos();
+            return x > y ? -1 : (x < y ? 1 : 0);
+        }
+    };
+
+    /**
+     * The stages of a scan and render.
+     */
+    public enum Stage {
+        /** reading config.xml files from disk. */
+        IO("file I/O"),
+        /** building documents or streaming config.xml files. */
+        PARSE("parsing"),
+        /** evaluating xpath expressions against documents. */
+        EVALUATE("xpath evaluation"),
+        /** serializing and fingerprinting the selected results. */
+        SERIALIZE("serialization"),
+        /** rendering the page and its fragments. */
+        RENDER("rendering");
+
+        private final String displayName;
+
+        private Stage(String displayName) {
+            this.displayName = displayName;
+        }
+
+        /**
+         * @return the name shown on the plugin page
+         */
+        public String getDisplayName() {
+            return this.displayName;
+        }
+    }
+
+    /**
+     * number of slowest jobs kept.
+     */
+    private final int maxSlowestJobs;
+
+    /**
+     * the timing of every stage, in stage order.
+     */
+    private final Timing[] stages = new Timing[Stage.values().length];
+
+    /**
+     * the timings of every xpath config by stage and config id.
+     */
+    private final ConcurrentMap< String, Timing > selectors = new ConcurrentHashMap< String, Timing >();
+
+    /**
+     * number of config.xml files read.
+     */
+    private final AtomicLong filesRead = new AtomicLong();
+
+    /**
+     * number of bytes read from config.xml files.
+     */
+    private final AtomicLong bytesParsed = new AtomicLong();
+
+    /**
+     * the jobs whose config.xml took longest to read, slowest first.
+     */
+    private final List< Timing > slowestJobs = new ArrayList< Timing >();
+
+    /**
+     * time the counters were started at.
+     */
+    private volatile long since;
+
+    /**
+     * Constructor
+     *
+     * @param maxSlowestJobs
+     *            number of slowest jobs kept
+     */
+    public ScanMetrics(int maxSlowestJobs) {
+        this.maxSlowestJobs = maxSlowestJobs;
+        this.reset();
+    }
+
+    /**
+     * Returns the metrics of all scans.
+     *
+     * @return the shared metrics
+     */
+    public static ScanMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Resets all counters.
+     */
+    public synchronized void reset() {
+        for (Stage stage : Stage.values()) {
+            this.stages[stage.ordinal()] = new Timing(stage.name(), stage.getDisplayName());
+        }
+        this.selectors.clear();
+        this.filesRead.set(0);
+        this.bytesParsed.set(0);
+        this.slowestJobs.clear();
+        this.since = System.currentTimeMillis();
+    }
+
+    /**
+     * Records the time of a stage.
+     *
+     * @param stage
+     *            the stage
+     * @param config
+     *            the xpath config the time was spent for, null if not spent for a single one
+     * @param nanos
+     *            the time in nanoseconds
+     */
+    public void record(Stage stage, XPathConfig config, long nanos) {
+        this.stages[stage.ordinal()].add(nanos);
+        if (config != null) {
+            String key = stage.name() + "\n" + config.id;
+            Timing timing = this.selectors.get(key);
+            if (timing == null) {
+                Timing created = new Timing(config.id, config.name);
+                timing = this.selectors.putIfAbsent(key, created);
+                if (timing == null) {
+                    timing = created;
+                }
+            }
+            timing.add(nanos);
+        }
+    }
+
+    /**
+     * Records a config.xml file read.
+     *
+     * @param job
+     *            the name of the job
+     * @param bytes
+     *            the number of bytes read
+     * @param ioNanos
+     *            the time waited for the file
+     * @param parseNanos
+     *            the time spent parsing
+     */
+    public void recordFile(String job, long bytes, long ioNanos, long parseNanos) {
+        this.stages[Stage.IO.ordinal()].add(ioNanos);
+        this.stages[Stage.PARSE.ordinal()].add(parseNanos);
+        this.filesRead.incrementAndGet();
+        this.bytesParsed.addAndGet(bytes);
+
+        long nanos = ioNanos + parseNanos;
+        synchronized (this) {
+            int size = this.slowestJobs.size();
+            if (size >= this.maxSlowestJobs && (size == 0 || this.slowestJobs.get(size - 1).getNanos() >= nanos)) {
+                return;
+            }
+            Timing timing = new Timing(job, job + " (" + bytes + " bytes)");
+            timing.add(nanos);
+            int i = size;
+            while (i > 0 && this.slowestJobs.get(i - 1).getNanos() < nanos) {
+                i--;
+            }
+            this.slowestJobs.add(i, timing);
+            if (this.slowestJobs.size() > this.maxSlowestJobs) {
+                this.slowestJobs.remove(this.slowestJobs.size() - 1);
+            }
+        }
+    }
+
+    /**
+     * @return the timing of every stage, in stage order
+     */
+    public List< Timing > getStages() {
+        List< Timing > result = new ArrayList< Timing >();
+        Collections.addAll(result, this.stages);
+        return result;
+    }
+
+    /**
+     * Returns the timings of the xpath configs in the given stage.
+     *
+     * @param stage
+     *            the stage
+     * @return the timings by config, slowest first
+     */
+    public List< Timing > getSelectors(Stage stage) {
+        List< Timing > result = new ArrayList< Timing >();
+        String prefix = stage.name() + "\n";
+        for (Map.Entry< String, Timing > entry : this.selectors.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                result.add(entry.getValue());
+            }
+        }
+        Collections.sort(result, SLOWEST_FIRST);
+        return result;
+    }
+
+    /**
+     * @return the timings of the xpath configs in the evaluation stage, slowest first
+     */
+    public List< Timing > getEvaluations() {
+        return this.getSelectors(Stage.EVALUATE);
+    }
+
+    /**
+     * @return the jobs whose config.xml took longest to read, slowest first
+     */
+    public synchronized List< Timing > getSlowestJobs() {
+        return new ArrayList< Timing >(this.slowestJobs);
+    }
+
+    /**
+     * @return the number of config.xml files read
+     */
+    public long getFilesRead() {
+        return this.filesRead.get();
+    }
+
+    /**
+     * @return the number of bytes read from config.xml files
+     */
+    public long getBytesParsed() {
+        return this.bytesParsed.get();
+    }
+
+    /**
+     * @return the share of xml block cache lookups answered from the cache in percent, formatted with one decimal
+     */
+    public String getCacheHitRatio() {
+        XmlBlockCache cache = XmlBlockCache.getInstance();
+        long lookups = cache.getHits() + cache.getMisses();
+        return String.format(Locale.ENGLISH, "%.1f", lookups == 0 ? 0.0 : 100.0 * cache.getHits() / lookups);
+    }
+
+    /**
+     * @return the time the counters were started at
+     */
+    public long getSince() {
+        return this.since;
+    }
+
+    /**
+     * @return the time the counters were started at
+     */
+    public Date getSinceDate() {
+        return new Date(this.since);
+    }
+
+    /**
+     * Returns all counters as JSON, served by /xpathviewer/metrics.
+     *
+     * @return the counters
+     */
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("since", this.since);
+        json.put("filesRead", this.getFilesRead());
+        json.put("bytesParsed", this.getBytesParsed());
+
+        XmlBlockCache cache = XmlBlockCache.getInstance();
+        JSONObject blockCache = new JSONObject();
+        blockCache.put("hits", cache.getHits());
+        blockCache.put("misses", cache.getMisses());
+        blockCache.put("hitRatio", this.getCacheHitRatio());
+        json.put("blockCache", blockCache);
+
+        JSONObject stageJson = new JSONObject();
+        JSONObject selectorJson = new JSONObject();
+        for (Stage stage : Stage.values()) {
+            stageJson.put(stage.name().toLowerCase(Locale.ENGLISH), this.stages[stage.ordinal()].toJSON());
+            JSONArray timings = new JSONArray();
+            for (Timing timing : this.getSelectors(stage)) {
+                timings.add(timing.toJSON());
+            }
+            if (!timings.isEmpty()) {
+                selectorJson.put(stage.name().toLowerCase(Locale.ENGLISH), timings);
+            }
+        }
+        json.put("stages", stageJson);
+        json.put("selectors", selectorJson);
+
+        JSONArray jobs = new JSONArray();
+        for (Timing timing : this.getSlowestJobs()) {
+            jobs.add(timing.toJSON());
+        }
+        json.put("slowestJobs", jobs);
+        return json;
+    }
+
+    /**
+     * Number of occurrences and time spent for a stage, xpath config or job.
+     */
+    public static final class Timing {
+        /**
+         * the stage name, config id or job name.
+         */
+        private final String id;
+
+        /**
+         * the name shown on the plugin page.
+         */
+        private final String name;
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong nanos = new AtomicLong();
+
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        /**
+         * Constructor
+         *
+         * @param id
+         *            the stage name, config id or job name
+         * @param name
+         *            the name shown on the plugin page
+         */
+        private Timing(String id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        /**
+         * Adds an occurrence.
+         *
+         * @param time
+         *            the time in nanoseconds
+         */
+        private void add(long time) {
+            this.count.incrementAndGet();
+            this.nanos.addAndGet(time);
+            long max = this.maxNanos.get();
+            while (time > max && !this.maxNanos.compareAndSet(max, time)) {
+                max = this.maxNanos.get();
+            }
+        }
+
+        /**
+         * @return the stage name, config id or job name
+         */
+        public String getId() {
+            return this.id;
+        }
+
+        /**
+         * @return the name shown on the plugin page
+         */
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * @return the number of occurrences
+         */
+        public long getCount() {
+            return this.count.get();
+        }
+
+        /**
+         * @return the total time in nanoseconds
+         */
+        public long getNanos() {
+            return this.nanos.get();
+        }
+
+        /**
+         * @return the total time in milliseconds
+         */
+        public long getMillis() {
+            return this.nanos.get() / 1000000L;
+        }
+
+        /**
+         * @return the average time in milliseconds, formatted with three decimals
+         */
+        public String getAverageMillis() {
+            long n = this.count.get();
+            return String.format(Locale.ENGLISH, "%.3f", n == 0 ? 0.0 : this.nanos.get() / 1e6 / n);
+        }
+
+        /**
+         * @return the longest occurrence in milliseconds, formatted with three decimals
+         */
+        public String getMaxMillis() {
+            return String.format(Locale.ENGLISH, "%.3f", this.maxNanos.get() / 1e6);
+        }
+
+        /**
+         * @return the timing as JSON
+         */
+        private JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("id", this.id);
+            json.put("name", this.name);
+            json.put("count", this.getCount());
+            json.put("nanos", this.getNanos());
+            json.put("maxNanos", this.maxNanos.get());
+            return json;
+        }
+    }
+
+    /**
+     * Counts the bytes read and the time spent waiting for them.
+     */
+    public static final class MeteredInputStream extends FilterInputStream {
+        private long bytes;
+
+        private long nanos;
+
+        /**
+         * Constructor
+         *
+         * @param in
+         *            the stream to count
+         */
+        public MeteredInputStream(InputStream in) {
+            super(in);
+        }
+
+        /**
+         * @return the number of bytes read
+         */
+        public long getBytes() {
+            return this.bytes;
+        }
+
+        /**
+         * @return the time spent waiting for the bytes in nanoseconds
+         */
+        public long getNanos() {
+            return this.nanos;
+        }
+
+        /**
+         * Records the file read through this stream with the shared metrics. The time since the given start not spent
+         * waiting for bytes counts as parsing.
+         *
+         * @param job
+         *            the name of the job
+         * @param start
+         *            the time reading started at, see {@link System#nanoTime()}
+         */
+        public void record(String job, long start) {
+            INSTANCE.recordFile(job, this.bytes, this.nanos, System.nanoTime() - start - this.nanos);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            this.nanos += System.nanoTime() - start;
+            if (b >= 0) {
+                this.bytes++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            int n = super.read(b, off, len);
+            this.nanos += System.nanoTime() - start;
+            if (n > 0) {
+                this.bytes += n;
+            }
+            return n;
+        }
+    }
+}
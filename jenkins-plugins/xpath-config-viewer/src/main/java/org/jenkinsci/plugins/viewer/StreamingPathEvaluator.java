@@ -0,0 +1,315 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang.StringUtils;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+
+/**
+ * Evaluates simple absolute xpath expressions like /project/scm/branches with a pull parser, without building a
+ * document of the whole config.xml.
+ *
+ * Only the first element matched by each path is materialized, and reading stops as soon as all of them are complete.
+ * The materialized element has the same content as the one selected from a SAXReader document. Documents outside the
+ * supported subset (a DTD, namespaces in a matched element) are not evaluated, callers fall back to the document.
+ *
+ * @author c031
+ *
+ */
+public class StreamingPathEvaluator {
+    /**
+     * absolute path of element names without predicates, wildcards or axes.
+     */
+    private static final Pattern SIMPLE_PATH = Pattern.compile("(/[A-Za-z_][A-Za-z0-9_.\\-]*)+");
+
+    /**
+     * the pull parser factory, configured once.
+     */
+    static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+    /**
+     * property of the JDK pull parser to report CDATA sections instead of plain characters.
+     */
+    private static final String REPORT_CDATA = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+    static {
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        if (FACTORY.isPropertySupported(REPORT_CDATA)) {
+            FACTORY.setProperty(REPORT_CDATA, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Returns the element names of the given xpath expression if it is a simple absolute path.
+     *
+     * @param xpath
+     *            the xpath expression
+     * @return the element names or null if the expression can't be evaluated by streaming
+     */
+    public static String[] getSteps(String xpath) {
+        if (StringUtils.isBlank(xpath)) {
+            return null;
+        }
+        String path = xpath.trim();
+        if (!SIMPLE_PATH.matcher(path).matches()) {
+            return null;
+        }
+        return path.substring(1).split("/");
+    }
+
+    /**
+     * Returns the first element matched by each of the given paths.
+     *
+     * @param xmlFile
+     *            the config.xml file
+     * @param paths
+     *            the element names of each path, see {@link #getSteps(String)}
+     * @return the first matched element of each path, null for paths without match. Returns null if the document is
+     *         outside the supported subset.
+     * @throws IOException
+     *             if the file can't be read
+     * @throws XMLStreamException
+     *             if the file is not well formed
+     */
+    public static Element[] evaluate(File xmlFile, String[][] paths) throws IOException, XMLStreamException {
+        InputStream in = new FileInputStream(xmlFile);
+        try {
+            return evaluate(in, paths);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the first element matched by each of the given paths, recording the time and size with the
+     * {@link ScanMetrics}.
+     *
+     * @param xmlFile
+     *            the config.xml file
+     * @param job
+     *            the name of the job
+     * @param paths
+     *            the element names of each path, see {@link #getSteps(String)}
+     * @return the first matched element of each path, null for paths without match. Returns null if the document is
+     *         outside the supported subset.
+     * @throws IOException
+     *             if the file can't be read
+     * @throws XMLStreamException
+     *             if the file is not well formed
+     */
+    public static Element[] evaluate(File xmlFile, String job, String[][] paths) throws IOException, XMLStreamException {
+        long start = System.nanoTime();
+        ScanMetrics.MeteredInputStream in = new ScanMetrics.MeteredInputStream(new FileInputStream(xmlFile));
+        try {
+            return evaluate(in, paths);
+        } finally {
+            in.close();
+            in.record(job, start);
+        }
+    }
+
+    /**
+     * Returns the first element matched by each of the given paths in the given document.
+     *
+     * @param in
+     *            the document, not closed
+     * @param paths
+     *            the element names of each path, see {@link #getSteps(String)}
+     * @return the first matched element of each path, null for paths without match. Returns null if the document is
+     *         outside the supported subset.
+     * @throws XMLStreamException
+     *             if the document is not well formed
+     */
+    public static Element[] evaluate(InputStream in, String[][] paths) throws XMLStreamException {
+        XMLStreamReader reader = FACTORY.createXMLStreamReader(in);
+        try {
+            return evaluate(reader, paths);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Returns the first element matched by each of the given paths.
+     *
+     * @param reader
+     *            the pull parser positioned at the start of the document
+     * @param paths
+     *            the element names of each path
+     * @return the first matched element of each path or null if the document is outside the supported subset
+     * @throws XMLStreamException
+     *             if the document is not well formed
+     */
+    static Element[] evaluate(XMLStreamReader reader, String[][] paths) throws XMLStreamException {
+        Element[] result = new Element[paths.length];
+        // number of leading steps of each path matched by the open elements
+        int[] matched = new int[paths.length];
+        int remaining = paths.length;
+        int depth = 0;
+
+        // element being materialized and the depth of the outermost materialized element
+        Element current = null;
+        int captureDepth = 0;
+        StringBuilder cdata = null;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+
+            if (cdata != null && event != XMLStreamConstants.CDATA) {
+                current.addCDATA(cdata.toString());
+                cdata = null;
+            }
+
+            switch (event) {
+            case XMLStreamConstants.START_ELEMENT:
+                depth++;
+                boolean plain = isPlain(reader);
+                String name = reader.getLocalName();
+
+                boolean onPath = false;
+                boolean capture = false;
+                for (int i = 0; i < paths.length; i++) {
+                    if (result[i] == null && matched[i] == depth - 1 && paths[i][depth - 1].equals(name)) {
+                        matched[i] = depth;
+                        onPath = true;
+                        capture |= depth == paths[i].length;
+                    }
+                }
+
+                if (!plain && (onPath || current != null)) {
+                    return null;
+                }
+                if (current == null && !capture) {
+                    break;
+                }
+
+                Element element = current == null ? DocumentHelper.createElement(name) : current.addElement(name);
+                for (int a = 0; a < reader.getAttributeCount(); a++) {
+                    element.addAttribute(reader.getAttributeLocalName(a), reader.getAttributeValue(a));
+                }
+                if (current == null) {
+                    captureDepth = depth;
+                }
+                current = element;
+
+                for (int i = 0; i < paths.length; i++) {
+                    if (result[i] == null && matched[i] == depth && depth == paths[i].length) {
+                        result[i] = element;
+                        remaining--;
+                    }
+                }
+                break;
+
+            case XMLStreamConstants.END_ELEMENT:
+                for (int i = 0; i < paths.length; i++) {
+                    if (matched[i] == depth) {
+                        matched[i] = depth - 1;
+                    }
+                }
+                if (current != null) {
+                    if (depth == captureDepth) {
+                        current = null;
+                        if (remaining == 0) {
+                            return result;
+                        }
+                    } else {
+                        current = current.getParent();
+                    }
+                }
+                depth--;
+                break;
+
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+                if (current != null && reader.getTextLength() > 0) {
+                    current.addText(reader.getText());
+                }
+                break;
+
+            case XMLStreamConstants.CDATA:
+                if (current != null) {
+                    // the parser may split a section into several events, SAXReader creates a single node
+                    if (cdata == null) {
+                        cdata = new StringBuilder();
+                    }
+                    cdata.append(reader.getText());
+                }
+                break;
+
+            case XMLStreamConstants.COMMENT:
+                if (current != null) {
+                    current.addComment(reader.getText());
+                }
+                break;
+
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                if (current != null) {
+                    current.addProcessingInstruction(reader.getPITarget(), reader.getPIData());
+                }
+                break;
+
+            case XMLStreamConstants.DTD:
+            case XMLStreamConstants.ENTITY_REFERENCE:
+                return null;
+
+            default:
+                break;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns true if the current element and its attributes use no namespaces.
+     *
+     * @param reader
+     *            the pull parser positioned at a start element
+     * @return true if no namespaces are used
+     */
+    static boolean isPlain(XMLStreamReader reader) {
+        if (reader.getNamespaceCount() > 0 || StringUtils.isNotEmpty(reader.getNamespaceURI()) || StringUtils.isNotEmpty(reader.getPrefix())) {
+            return false;
+        }
+        for (int a = 0; a < reader.getAttributeCount(); a++) {
+            if (StringUtils.isNotEmpty(reader.getAttributeNamespace(a)) || StringUtils.isNotEmpty(reader.getAttributePrefix(a))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import hudson.Util;
+import hudson.model.AbstractProject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Histogram of the values an xpath config selects from the jobs, built from its distinct xml blocks. Every bin holds
+ * a value, the jobs it was selected from and their share of all selected jobs. Bins are ordered by count, most
+ * frequent value first, jobs without value last.
+ *
+ * @author c031
+ *
+ */
+public class ValueHistogram {
+    /**
+     * orders bins by count, jobs without value last.
+     */
+    private static final Comparator< Bin > BIN_ORDER = new Comparator< Bin >() {
+        public int compare(Bin a, Bin b) {
+            if (a.notAssigned != b.notAssigned) {
+                return a.notAssigned ? 1 : -1;
+            }
+            return b.getCount() - a.getCount();
+        }
+    };
+
+    /**
+     * the bins, most frequent value first.
+     */
+    private final List< Bin > bins = new ArrayList< Bin >();
+
+    /**
+     * number of distinct selected jobs.
+     */
+    private final int total;
+
+    /**
+     * Constructor
+     *
+     * @param xmlBlocks
+     *            the distinct xml blocks of an xpath config
+     */
+    @SuppressWarnings("rawtypes")
+    public ValueHistogram(List< XmlBlock > xmlBlocks) {
+        // a job has several values if all matches are grouped, it is counted once for the total
+        Map< AbstractProject, Boolean > jobs = new IdentityHashMap< AbstractProject, Boolean >();
+        for (XmlBlock xmlBlock : xmlBlocks) {
+            for (AbstractProject project : xmlBlock.getProjects()) {
+                jobs.put(project, Boolean.TRUE);
+            }
+        }
+        this.total = jobs.size();
+
+        for (XmlBlock xmlBlock : xmlBlocks) {
+            this.bins.add(new Bin(xmlBlock, this.total));
+        }
+        Collections.sort(this.bins, BIN_ORDER);
+    }
+
+    /**
+     * @return the bins, most frequent value first
+     */
+    public List< Bin > getBins() {
+        return this.bins;
+    }
+
+    /**
+     * @return the number of distinct selected jobs
+     */
+    public int getTotal() {
+        return this.total;
+    }
+
+    /**
+     * A value and the jobs it was selected from.
+     */
+    public static final class Bin {
+        /**
+         * the xml block holding the value and the jobs.
+         */
+        private final XmlBlock xmlBlock;
+
+        /**
+         * true for the jobs without value.
+         */
+        private final boolean notAssigned;
+
+        /**
+         * number of distinct selected jobs.
+         */
+        private final int total;
+
+        /**
+         * Constructor
+         *
+         * @param xmlBlock
+         *            the xml block holding the value and the jobs
+         * @param total
+         *            number of distinct selected jobs
+         */
+        private Bin(XmlBlock xmlBlock, int total) {
+            this.xmlBlock = xmlBlock;
+            this.notAssigned = xmlBlock.getDigest() == null;
+            this.total = total;
+        }
+
+        /**
+         * @return the value, {@link XPathConfig#NOT_ASSIGNED} for the jobs without value
+         */
+        public String getValue() {
+            return this.xmlBlock.getXmlblock();
+        }
+
+        /**
+         * @return the value escaped for html
+         */
+        public String getEscapedValue() {
+            return Util.escape(this.getValue());
+        }
+
+        /**
+         * @return true for the jobs without value
+         */
+        public boolean isNotAssigned() {
+            return this.notAssigned;
+        }
+
+        /**
+         * @return the number of jobs
+         */
+        public int getCount() {
+            return this.xmlBlock.getProjects().size();
+        }
+
+        /**
+         * @return the share of all selected jobs in percent, formatted with one decimal
+         */
+        public String getPercentage() {
+            return String.format(Locale.ENGLISH, "%.1f", this.total == 0 ? 0.0 : 100.0 * this.getCount() / this.total);
+        }
+
+        /**
+         * @return the jobs
+         */
+        @SuppressWarnings("rawtypes")
+        public List< AbstractProject > getProjects() {
+            return this.xmlBlock.getProjects();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.dom4j.DocumentHelper;
+import org.dom4j.InvalidXPathException;
+import org.dom4j.XPath;
+import org.jaxen.XPathFunctionContext;
+
+/**
+ * Bounded cache of compiled xpath expressions keyed by the expression text.
+ *
+ * The namespace and function context of a compiled expression are set once when it is compiled. Otherwise dom4j binds
+ * the namespace context to the first document the expression is evaluated against. After that a compiled expression
+ * keeps no state between evaluations and can be shared by all threads.
+ *
+ * @author c031
+ *
+ */
+public class XPathCache {
+    /**
+     * default maximum number of cached expressions.
+     */
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    /**
+     * maximum number of cached expressions.
+     */
+    private static final int MAX_SIZE = Integer.getInteger(XPathCache.class.getName() + ".maxSize", DEFAULT_MAX_SIZE);
+
+    /**
+     * compiled expressions by expression text, least recently used first.
+     */
+    @SuppressWarnings("serial")
+    private static final Map< String, XPath > CACHE = new LinkedHashMap< String, XPath >(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry< String, XPath > eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    /**
+     * Returns the compiled xpath of the given expression, compiling it on first use.
+     *
+     * @param expression
+     *            the xpath expression
+     * @return the compiled xpath
+     * @throws InvalidXPathException
+     *             if the expression is not a valid xpath
+     */
+    public static XPath compile(String expression) throws InvalidXPathException {
+        synchronized (CACHE) {
+            XPath xpath = CACHE.get(expression);
+            if (xpath == null) {
+                xpath = DocumentHelper.createXPath(expression);
+                xpath.setNamespaceURIs(Collections.EMPTY_MAP);
+                xpath.setFunctionContext(XPathFunctionContext.getInstance());
+                CACHE.put(expression, xpath);
+            }
+            return xpath;
+        }
+    }
+
+    /**
+     * Returns the number of cached expressions.
+     *
+     * @return the number of cached expressions
+     */
+    public static int size() {
+        synchronized (CACHE) {
+            return CACHE.size();
+        }
+    }
+}
@@ -23,10 +23,12 @@
  */
 package org.jenkinsci.plugins.viewer;
 
+import hudson.Util;
 import hudson.model.AbstractProject;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -34,8 +36,11 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.apache.commons.lang.StringUtils;
 import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
-import org.dom4j.io.SAXReader;
+import org.dom4j.InvalidXPathException;
+import org.dom4j.Node;
+import org.dom4j.XPath;
 import org.jenkinsci.lib.configprovider.model.Config;
 import org.jfree.util.Log;
 import org.kohsuke.stapler.DataBoundConstructor;
@@ -49,6 +54,16 @@ import org.kohsuke.stapler.DataBoundConstructor;
 public class XPathConfig extends Config {
     public static final String NOT_ASSIGNED = "<!-- not assigned -->";
 
+    /**
+     * separates the components of the text of an xml block selected by a composite config, see {@link #isComposite()}.
+     */
+    public static final String COMPONENT_SEPARATOR = "\u001e";
+
+    /**
+     * fingerprint of a component of a composite config that matched nothing.
+     */
+    private static final String NO_COMPONENT = "-";
+
     /**
      * serial.
      */
@@ -64,6 +79,72 @@ public class XPathConfig extends Config {
      */
     private Pattern jobNameFilterPattern;
 
+    /**
+     * normalize whitespace when xml blocks are compared.
+     */
+    private boolean ignoreWhitespace;
+
+    /**
+     * ignore the order of child nodes when xml blocks are compared.
+     */
+    private boolean ignoreOrder;
+
+    /**
+     * group on all nodes matched by the xpath expression instead of the first one.
+     */
+    private boolean allMatches;
+
+    /**
+     * the compiled xpath expression, shared through the {@link XPathCache}.
+     */
+    private transient XPath compiledXpath;
+
+    /**
+     * the error compiling the xpath expression, null if it is valid or not compiled yet.
+     */
+    private transient InvalidXPathException invalidXpath;
+
+    /**
+     * the expressions of the lines of the xpath field, null if not yet determined.
+     */
+    private transient String[] expressions;
+
+    /**
+     * the compiled expressions of a composite config, null if not yet compiled.
+     */
+    private transient XPath[] compiledComponents;
+
+    /**
+     * computes the fingerprints xml blocks are grouped by.
+     */
+    private transient XmlFingerprint fingerprint;
+
+    /**
+     * true if the xpath expression returns a string, number or boolean, null if not yet determined.
+     */
+    private transient Boolean valueExpression;
+
+    /**
+     * the element path everything selected by the xpath expression lies on or below, empty if there is none, null if
+     * not yet determined.
+     */
+    private transient String[] pathPrefix;
+
+    /**
+     * Constructor
+     * 
+     * @param id
+     *            Config ID, automatcally created.
+     * @param name
+     *            Config name, what config part to show.
+     * @param comment
+     *            comment, what the config means.
+     * @param content
+     *            holds the xpath expression.
+     */
+    public XPathConfig(String id, String name, String comment, String content) {
+        this(id, name, comment, content, false, false);
+    }
 
     /**
      * Constructor
@@ -76,14 +157,43 @@ public class XPathConfig extends Config {
      *            comment, what the config means.
      * @param content
      *            holds the xpath expression.
+     * @param ignoreWhitespace
+     *            normalize whitespace when xml blocks are compared.
+     * @param ignoreOrder
+     *            ignore the order of child nodes when xml blocks are compared.
+     */
+    public XPathConfig(String id, String name, String comment, String content, boolean ignoreWhitespace, boolean ignoreOrder) {
+        this(id, name, comment, content, ignoreWhitespace, ignoreOrder, false);
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param id
+     *            Config ID, automatcally created.
+     * @param name
+     *            Config name, what config part to show.
+     * @param comment
+     *            comment, what the config means.
+     * @param content
+     *            holds the xpath expression.
+     * @param ignoreWhitespace
+     *            normalize whitespace when xml blocks are compared.
+     * @param ignoreOrder
+     *            ignore the order of child nodes when xml blocks are compared.
+     * @param allMatches
+     *            group on all nodes matched by the xpath expression instead of the first one.
      */
-    @SuppressWarnings("rawtypes")
     @DataBoundConstructor
-    public XPathConfig(String id, String name, String comment, String content) {
+    public XPathConfig(String id, String name, String comment, String content, boolean ignoreWhitespace, boolean ignoreOrder, boolean allMatches) {
         super(id, name, comment, content);
         
         this.xpath = content;  
         this.jobNameFilterPattern = StringUtils.isBlank(comment) ? null : Pattern.compile(comment);
+        this.ignoreWhitespace = ignoreWhitespace;
+        this.ignoreOrder = ignoreOrder;
+        this.allMatches = allMatches;
+        this.compileXpath();
     }
 
     /**
@@ -101,96 +211,561 @@ public class XPathConfig extends Config {
      */
     public void setXpath(String xpath) {
         this.xpath = xpath;
+        this.valueExpression = null;
+        this.pathPrefix = null;
+        this.expressions = null;
+        this.compileXpath();
+    }
+
+    /**
+     * Returns the xpath expressions of this config. Every non-blank line of the xpath field is an expression of its
+     * own.
+     * 
+     * @return the expressions, a single one unless this is a composite config
+     */
+    public List< String > getExpressions() {
+        if (this.expressions == null) {
+            List< String > lines = new ArrayList< String >();
+            for (String line : StringUtils.split(StringUtils.defaultString(this.xpath), "\r\n")) {
+                if (StringUtils.isNotBlank(line)) {
+                    lines.add(line.trim());
+                }
+            }
+            this.expressions = lines.size() > 1 ? lines.toArray(new String[lines.size()]) : new String[] { this.xpath };
+        }
+        return Arrays.asList(this.expressions);
+    }
+
+    /**
+     * @return the expressions of this config escaped for html, the column headers of a composite config
+     */
+    public List< String > getEscapedExpressions() {
+        List< String > escaped = new ArrayList< String >();
+        for (String expression : this.getExpressions()) {
+            escaped.add(Util.escape(expression));
+        }
+        return escaped;
+    }
+
+    /**
+     * Returns true if the xpath field holds several expressions, one per line. Jobs are grouped by the combination of
+     * their results then, see {@link #selectTuple(Document)}, and the xml blocks are shown as one table with a
+     * column per expression.
+     * 
+     * @return true if this config groups by several expressions
+     */
+    public boolean isComposite() {
+        return this.getExpressions().size() > 1;
+    }
+
+    /**
+     * Splits the text of an xml block selected by a composite config into the results of its expressions.
+     * 
+     * @param text
+     *            the text of the xml block
+     * @return the results, a result is {@link #NOT_ASSIGNED} if its expression matched nothing
+     */
+    public static List< String > getComponents(String text) {
+        return Arrays.asList(StringUtils.splitPreserveAllTokens(StringUtils.defaultString(text), COMPONENT_SEPARATOR));
+    }
+
+    /**
+     * @return true if whitespace is normalized when xml blocks are compared
+     */
+    public boolean isIgnoreWhitespace() {
+        return this.ignoreWhitespace;
+    }
+
+    /**
+     * @return true if the order of child nodes is ignored when xml blocks are compared
+     */
+    public boolean isIgnoreOrder() {
+        return this.ignoreOrder;
+    }
+
+    /**
+     * @return true if a job contributes an xml block for every matched node instead of the first one only
+     */
+    public boolean isAllMatches() {
+        return this.allMatches;
+    }
+
+    /**
+     * Returns the fingerprint of the given xml block. Equivalent xml blocks have the same fingerprint, see
+     * {@link XmlFingerprint}.
+     * 
+     * @param xmlBlock
+     *            the xml block selected by this config
+     * @return the hex encoded fingerprint
+     */
+    public String fingerprint(Element xmlBlock) {
+        return this.getFingerprint().fingerprint(xmlBlock);
+    }
+
+    /**
+     * Returns the fingerprint of the given value selected by this config.
+     * 
+     * @param value
+     *            the string value of a scalar result or a node other than an element
+     * @return the hex encoded fingerprint
+     */
+    public String fingerprint(String value) {
+        return this.getFingerprint().fingerprint(value);
+    }
+
+    /**
+     * @return the fingerprint of this config's options
+     */
+    XmlFingerprint getFingerprint() {
+        if (this.fingerprint == null) {
+            this.fingerprint = new XmlFingerprint(this.ignoreWhitespace, this.ignoreOrder);
+        }
+        return this.fingerprint;
+    }
+
+    /**
+     * Returns true if the xpath expression returns a string, number or boolean, like <code>count(//builders/*)</code>
+     * or <code>string(/project/jdk)</code>. Jobs are grouped by value then and shown as histogram. The type is
+     * determined once by evaluating the expression against an empty document.
+     * 
+     * @return true if the xpath expression returns a scalar value
+     */
+    public boolean isValueExpression() {
+        if (this.valueExpression == null) {
+            boolean scalar = false;
+            if (!this.isComposite() && this.isValidXpath()) {
+                try {
+                    Object result = this.getCompiledXpath().evaluate(DocumentHelper.createDocument());
+                    scalar = result != null && !(result instanceof List) && !(result instanceof Node);
+                } catch (Exception e) {
+                    Log.debug("Can't determine the result type of xpath expression: " + this.xpath, e);
+                }
+            }
+            this.valueExpression = scalar;
+        }
+        return this.valueExpression;
+    }
+
+    /**
+     * Returns the element path everything selected by the xpath expression lies on or below, so that config.xml files
+     * can be read without the rest, see {@link PathPrefixReader}.
+     * 
+     * @return the element names of the path or null if the expression may select nodes anywhere in the document
+     */
+    public String[] getPathPrefix() {
+        if (this.pathPrefix == null) {
+            String[] prefix = null;
+            if (this.isValidXpath()) {
+                // the common start of the paths of all expressions
+                for (String expression : this.getExpressions()) {
+                    String[] component = PathPrefixReader.getPrefix(expression);
+                    if (component == null) {
+                        prefix = null;
+                        break;
+                    }
+                    if (prefix == null) {
+                        prefix = component;
+                        continue;
+                    }
+                    int length = 0;
+                    while (length < prefix.length && length < component.length && prefix[length].equals(component[length])) {
+                        length++;
+                    }
+                    if (length == 0) {
+                        prefix = null;
+                        break;
+                    }
+                    prefix = Arrays.copyOf(prefix, length);
+                }
+            }
+            this.pathPrefix = prefix == null ? new String[0] : prefix;
+        }
+        return this.pathPrefix.length == 0 ? null : this.pathPrefix;
+    }
+
+    /**
+     * Returns the histogram of the values selected from all jobs.
+     * 
+     * @return the histogram of {@link #getDistinctXmlBlocks()}
+     */
+    public ValueHistogram getHistogram() {
+        return new ValueHistogram(this.getDistinctXmlBlocks());
+    }
+
+    /**
+     * Returns one page of the distinct xml blocks, see {@link XmlBlockWindow}.
+     * 
+     * @param sort
+     *            the name of the order, see {@link XmlBlockWindow.Sort}
+     * @param filter
+     *            substring of the full name of the jobs to show, null or empty for all jobs
+     * @param start
+     *            index of the first xml block
+     * @param count
+     *            maximum number of xml blocks
+     * @return the window of {@link #getDistinctXmlBlocks()}
+     */
+    public XmlBlockWindow getXmlBlockWindow(String sort, String filter, int start, int count) {
+        return new XmlBlockWindow(this.getDistinctXmlBlocks(), XmlBlockWindow.Sort.of(sort), filter, start, count, XmlBlockWindow.DEFAULT_JOBS);
+    }
+
+    /**
+     * Returns the key of the xml blocks selected by this config and their fingerprints. Configs with the same key
+     * select the same xml blocks with the same fingerprints.
+     * 
+     * @return the xpath expression, the match mode and the fingerprint options
+     */
+    public String getBlockKey() {
+        return this.xpath + (this.allMatches ? "\n+all" : "") + (this.ignoreWhitespace ? "\n+ws" : "") + (this.ignoreOrder ? "\n+order" : "");
+    }
+
+    /**
+     * Returns the signature of the results of this config. Results computed for another signature are outdated.
+     * 
+     * @return the block key and the job filter
+     */
+    public String getSignature() {
+        return this.getBlockKey() + "\n" + StringUtils.defaultString(this.comment);
+    }
+
+    /**
+     * Returns the compiled xpath expression. All expressions of a composite config are compiled, the first one is
+     * returned. An invalid expression is logged when it is compiled, later calls throw the same error without
+     * compiling or logging again.
+     * 
+     * @return the compiled xpath expression or null if the expression is blank
+     * @throws InvalidXPathException
+     *             if the expression is not a valid xpath
+     */
+    public XPath getCompiledXpath() throws InvalidXPathException {
+        if (this.invalidXpath != null) {
+            throw this.invalidXpath;
+        }
+        if (this.compiledXpath == null && StringUtils.isNotBlank(this.xpath)) {
+            try {
+                this.compiledXpath = this.isComposite() ? this.getCompiledComponents()[0] : XPathCache.compile(this.xpath);
+            } catch (InvalidXPathException e) {
+                this.invalidXpath = e;
+                Log.error("Invalid xpath expression: " + this.xpath, e);
+                throw e;
+            }
+        }
+        return this.compiledXpath;
+    }
+
+    /**
+     * Returns the compiled expressions of a composite config.
+     * 
+     * @return the compiled expressions, in the order of the lines
+     * @throws InvalidXPathException
+     *             if one of the expressions is not a valid xpath
+     */
+    private XPath[] getCompiledComponents() throws InvalidXPathException {
+        if (this.compiledComponents == null) {
+            List< String > components = this.getExpressions();
+            XPath[] compiled = new XPath[components.size()];
+            for (int i = 0; i < compiled.length; i++) {
+                compiled[i] = XPathCache.compile(components.get(i));
+            }
+            this.compiledComponents = compiled;
+        }
+        return this.compiledComponents;
+    }
+
+    /**
+     * Returns true if the xpath expression is set and valid. An invalid expression is logged once, when it is
+     * compiled, see {@link #getCompiledXpath()}.
+     * 
+     * @return true if the xpath expression can be evaluated
+     */
+    public boolean isValidXpath() {
+        try {
+            return this.getCompiledXpath() != null;
+        } catch (InvalidXPathException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Compiles the xpath expression. An invalid expression leaves the compiled xpath unset and is remembered, it is
+     * reported by {@link #getCompiledXpath()}.
+     */
+    private void compileXpath() {
+        this.compiledXpath = null;
+        this.compiledComponents = null;
+        this.invalidXpath = null;
+        try {
+            this.getCompiledXpath();
+        } catch (InvalidXPathException e) {
+            // remembered, see getCompiledXpath
+        }
     }
 
     /**
      * Returns the map of different xml blocks with corresponding config.xml files selected by the given xpath
      * expression.
      * 
+     * Results computed in the background are taken from the current {@link XPathResultSnapshot}. Configs added or
+     * changed since are evaluated: within a page render all of them in a single pass over the projects, see
+     * {@link RenderSession#getDistinctXmlBlocks(XPathConfig)}. Results are kept in the {@link XPathResultIndex}.
+     * 
      * @return the map of different xml blocks
      */
-    @SuppressWarnings("rawtypes")
     public List< XmlBlock > getDistinctXmlBlocks() {
 
         if (StringUtils.isBlank(this.getXpath()) || ProjectCollector.getProjectsList() == null) {
             return Collections.emptyList();
         }
 
-        List< XmlBlock > xmlBlocks = new ArrayList< XmlBlock >();
-        
-        List<AbstractProject> notAssignedList = new ArrayList<AbstractProject>();
-        notAssignedList.addAll(ProjectCollector.getProjectsList());
-
-        for (AbstractProject project : ProjectCollector.getProjectsList()) {
-            if(this.jobNameFilterPattern != null) {
-                Matcher m = this.jobNameFilterPattern.matcher(project.getName());
-                if(!m.find()) {
-                    notAssignedList.remove(project);
-                    continue;
-                }
-            }
-            
-            Element xmlBlockElement = this.getXmlBlock(project.getConfigFile().getFile());
-            
-            if(xmlBlockElement != null) {
-                if(notAssignedList.contains(project)) {
-                    notAssignedList.remove(project);
-                }
-                
-                String xmlBlockStr = xmlBlockElement.asXML();
-                
-                XmlBlock testBlock = new XmlBlock();
-                testBlock.setXmlblock(xmlBlockStr);
-                
-                if (xmlBlocks.contains(testBlock)) {
-                    XmlBlock xmlBlock = xmlBlocks.get(xmlBlocks.indexOf(testBlock));
-                    xmlBlock.getProjects().add(project);
-                } else {
-                    XmlBlock xmlBlock = new XmlBlock();
-                    xmlBlock.setXmlblock(xmlBlockStr);
-                    List< AbstractProject > projects = new ArrayList< AbstractProject >();
-                    projects.add(project);
-                    xmlBlock.setProjects(projects);
-                    xmlBlocks.add(xmlBlock);
-                    
-                    
-                }
-            }              
+        XPathResultSnapshot snapshot = XPathResultSnapshot.current();
+        List< XmlBlock > published = snapshot == null ? null : snapshot.get(this);
+        if (published != null) {
+            return published;
         }
-        
-        if(notAssignedList.size() > 0) {
-            XmlBlock notAssignedBlock = new XmlBlock();
-            notAssignedBlock.setXmlblock(NOT_ASSIGNED);
-            notAssignedBlock.setProjects(notAssignedList);
-            xmlBlocks.add(notAssignedBlock);
+
+        RenderSession session = RenderSession.current();
+        if (session != null && session.isRegistered(this)) {
+            return session.getDistinctXmlBlocks(this);
         }
-        
-        return xmlBlocks;
+
+        return XPathResultIndex.lookup(Collections.singletonList(this), ProjectCollector.getProjectsList()).get(this);
+    }
+
+    /**
+     * Returns true if the given project is selected by the job name filter.
+     * 
+     * @param project
+     *            the project
+     * @return true if there is no filter or the filter matches the job name
+     */
+    @SuppressWarnings("rawtypes")
+    public boolean isSelected(AbstractProject project) {
+        if (this.jobNameFilterPattern == null) {
+            return true;
+        }
+        Matcher m = this.jobNameFilterPattern.matcher(project.getName());
+        return m.find();
     }
 
     /**
      * Returns the xml block from the given file using the given xpath expression.
      * 
+     * Simple absolute paths are evaluated by streaming the file, see {@link StreamingPathEvaluator}. Expressions that
+     * only look below a fixed element path are evaluated against the document pruned to that path, see
+     * {@link PathPrefixReader}. Other expressions, or documents neither supports, are evaluated against the parsed
+     * document.
+     * 
      * @return the xml block
      */
-    @SuppressWarnings("rawtypes")
     public Element getXmlBlock(File xmlFile) {
         if (StringUtils.isEmpty(this.getXpath())) {
             return null;
         }
 
+        String[] steps = this.isComposite() ? null : StreamingPathEvaluator.getSteps(this.getXpath());
+        if (steps != null && xmlFile != null) {
+            try {
+                Element[] blocks = StreamingPathEvaluator.evaluate(xmlFile, jobName(xmlFile), new String[][] { steps });
+                if (blocks != null) {
+                    return blocks[0];
+                }
+            } catch (Exception e) {
+                Log.debug("Streaming evaluation failed, reading document: " + xmlFile, e);
+            }
+        }
+
+        String[] prefix = this.getPathPrefix();
+        if (prefix != null && xmlFile != null) {
+            try {
+                XPath firstMatch = !this.isComposite() && PathPrefixReader.canStopAtFirstMatch(this.getXpath()) ? this.getCompiledXpath() : null;
+                Document pruned = PathPrefixReader.read(xmlFile, jobName(xmlFile), prefix, firstMatch);
+                if (pruned != null) {
+                    return this.selectXmlBlock(pruned);
+                }
+            } catch (Exception e) {
+                Log.debug("Pruned evaluation failed, reading document: " + xmlFile, e);
+            }
+        }
+
         try {
-            Document dom = new SAXReader().read(xmlFile);
+            return this.selectXmlBlock(ParserPool.read(xmlFile, jobName(xmlFile)));
+        } catch (Exception e) {
+            Log.error("Exception getting xml block from config.xml: ", e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the xml block from the given document using the given xpath expression.
+     * 
+     * @param dom
+     *            the parsed config.xml
+     * @return the xml block
+     */
+    @SuppressWarnings("rawtypes")
+    public Element selectXmlBlock(Document dom) {
+        if (StringUtils.isEmpty(this.getXpath()) || dom == null) {
+            return null;
+        }
 
-            List nodes = dom.selectNodes(this.xpath);
+        long start = System.nanoTime();
+        try {
+            List nodes = this.getCompiledXpath().selectNodes(dom);
 
-            if (nodes.size() > 0) {
+            if (nodes.size() > 0 && nodes.get(0) instanceof Element) {
                 return (Element) nodes.get(0);
             }
         } catch (Exception e) {
             Log.error("Exception getting xml block from config.xml: ", e);
+        } finally {
+            ScanMetrics.getInstance().record(ScanMetrics.Stage.EVALUATE, this, System.nanoTime() - start);
         }
 
         return null;
     }
+
+    /**
+     * Returns the name of the job the given config.xml belongs to, for the metrics.
+     * 
+     * @param xmlFile
+     *            the config.xml of a job
+     * @return the name of the job folder
+     */
+    static String jobName(File xmlFile) {
+        File dir = xmlFile.getParentFile();
+        return dir == null ? xmlFile.getPath() : dir.getName();
+    }
+
+    /**
+     * Returns the results of the given xpath expression from the given document. Matched elements are returned as
+     * elements. Scalar results and other matched nodes, like attributes, are returned as string value, so they are
+     * grouped without serializing any xml. Only the first match is returned unless all matches are grouped, see
+     * {@link #isAllMatches()}. A composite config returns the xml block of the combination of its results, see
+     * {@link #selectTuple(Document)}.
+     * 
+     * @param dom
+     *            the parsed config.xml
+     * @return elements, string values and xml blocks in document order, empty if nothing matched
+     */
+    @SuppressWarnings("rawtypes")
+    public List< Object > select(Document dom) {
+        if (StringUtils.isEmpty(this.getXpath()) || dom == null) {
+            return Collections.emptyList();
+        }
+
+        List< Object > results = new ArrayList< Object >();
+        if (this.isComposite()) {
+            XmlBlock tuple = this.selectTuple(dom);
+            if (tuple != null) {
+                results.add(tuple);
+            }
+            return results;
+        }
+
+        long start = System.nanoTime();
+        try {
+            XPath compiled = this.getCompiledXpath();
+            if (this.isValueExpression()) {
+                results.add(valueOf(compiled.evaluate(dom)));
+                return results;
+            }
+
+            for (Object node : (List) compiled.selectNodes(dom)) {
+                results.add(node instanceof Element ? node : valueOf(node));
+                if (!this.allMatches) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            Log.error("Exception getting xml blocks from config.xml: ", e);
+        } finally {
+            ScanMetrics.getInstance().record(ScanMetrics.Stage.EVALUATE, this, System.nanoTime() - start);
+        }
+
+        return results;
+    }
+
+    /**
+     * Evaluates every expression of a composite config against the given document and returns the combination of their
+     * results as one xml block. Every expression contributes its first matched node or its value. The results are
+     * fingerprinted one by one and the fingerprint of the combination is taken over theirs, so a large result is
+     * hashed once no matter how many combinations it is part of.
+     * 
+     * @param dom
+     *            the parsed config.xml
+     * @return the xml block with text and fingerprint, without projects, or null if none of the expressions matched
+     */
+    @SuppressWarnings("rawtypes")
+    public XmlBlock selectTuple(Document dom) {
+        if (StringUtils.isEmpty(this.getXpath()) || dom == null) {
+            return null;
+        }
+
+        XPath[] compiled = this.getCompiledComponents();
+        StringBuilder text = new StringBuilder();
+        StringBuilder digests = new StringBuilder();
+        boolean matched = false;
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < compiled.length; i++) {
+                Object result = compiled[i].evaluate(dom);
+                if (result instanceof List) {
+                    List nodes = (List) result;
+                    result = nodes.isEmpty() ? null : nodes.get(0);
+                }
+
+                String component;
+                String digest;
+                if (result == null) {
+                    component = NOT_ASSIGNED;
+                    digest = NO_COMPONENT;
+                } else if (result instanceof Element) {
+                    component = ((Element) result).asXML();
+                    digest = this.fingerprint((Element) result);
+                    matched = true;
+                } else {
+                    component = valueOf(result);
+                    digest = this.fingerprint(component);
+                    matched = true;
+                }
+                text.append(i > 0 ? COMPONENT_SEPARATOR : "").append(component);
+                digests.append(i > 0 ? " " : "").append(digest);
+            }
+        } catch (Exception e) {
+            Log.error("Exception getting xml blocks from config.xml: ", e);
+            return null;
+        } finally {
+            ScanMetrics.getInstance().record(ScanMetrics.Stage.EVALUATE, this, System.nanoTime() - start);
+        }
+
+        if (!matched) {
+            return null;
+        }
+        String digest = this.fingerprint(digests.toString());
+        XmlBlock xmlBlock = new XmlBlock();
+        xmlBlock.setText(BlockText.intern(digest, text.toString()));
+        xmlBlock.setDigest(digest);
+        return xmlBlock;
+    }
+
+    /**
+     * Returns the string value of the given xpath result, numbers are formatted without fraction if they are integral.
+     * 
+     * @param result
+     *            a string, number, boolean or node
+     * @return the string value
+     */
+    static String valueOf(Object result) {
+        if (result instanceof Node) {
+            return ((Node) result).getStringValue();
+        }
+        if (result instanceof Number) {
+            double d = ((Number) result).doubleValue();
+            if (d == Math.rint(d) && Math.abs(d) < 1e15) {
+                return String.valueOf((long) d);
+            }
+        }
+        return String.valueOf(result);
+    }
 }
@@ -23,8 +23,6 @@
  */
 package org.jenkinsci.plugins.viewer;
 
-import java.util.Collection;
-
 import hudson.Extension;
 
 import org.jenkinsci.lib.configprovider.AbstractConfigProvider;
@@ -73,13 +71,4 @@ public class XPathConfigProvider extends AbstractConfigProvider {
         return new XPathConfig(id, "config.xml block", "", "/project");
     }
 
-    /* (non-Javadoc)
-     * @see org.jenkinsci.lib.configprovider.AbstractConfigProvider#getAllConfigs()
-     */
-    @Override
-    public Collection< Config > getAllConfigs() {
-        ProjectCollector.init();
-        return super.getAllConfigs();
-    }
-
 }
@@ -24,10 +24,15 @@
 package org.jenkinsci.plugins.viewer;
 
 import hudson.Extension;
+import hudson.model.Failure;
 import hudson.model.ManagementLink;
 import hudson.model.Hudson;
 
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.servlet.ServletException;
@@ -35,6 +40,8 @@ import javax.servlet.ServletException;
 import net.sf.json.JSONObject;
 
 import org.acegisecurity.AccessDeniedException;
+import org.apache.commons.lang.StringUtils;
+import org.dom4j.InvalidXPathException;
 import org.jenkinsci.lib.configprovider.ConfigProvider;
 import org.jenkinsci.lib.configprovider.model.Config;
 import org.kohsuke.stapler.HttpRedirect;
@@ -120,6 +127,51 @@ public class XPathConfigViewerPlugin extends ManagementLink {
         return ConfigProvider.all();
     }
 
+    /**
+     * Returns the cache of xml blocks read from config.xml files, its counters are shown on the plugin page.
+     * 
+     * @return the xml block cache
+     */
+    public XmlBlockCache getBlockCache() {
+        return XmlBlockCache.getInstance();
+    }
+
+    /**
+     * Returns the results last computed in the background, their timestamp is shown on the plugin page.
+     * 
+     * @return the current snapshot or null if none has been computed yet
+     */
+    public XPathResultSnapshot getSnapshot() {
+        return XPathResultSnapshot.current();
+    }
+
+    /**
+     * Returns the timings of scans and renders, shown in the diagnostics section of the plugin page.
+     * 
+     * @return the scan metrics
+     */
+    public ScanMetrics getMetrics() {
+        return ScanMetrics.getInstance();
+    }
+
+    /**
+     * Returns the coalescer of lookups, shown in the diagnostics section of the plugin page.
+     * 
+     * @return the scan coalescer
+     */
+    public ScanCoalescer getCoalescer() {
+        return ScanCoalescer.getInstance();
+    }
+
+    /**
+     * Returns the REST api streaming the results of a config, bound to /xpathviewer/api.
+     * 
+     * @return the results api
+     */
+    public XPathResultsApi getApi() {
+        return new XPathResultsApi(this.xPathConfigProvider);
+    }
+
     /**
      * Requests a new config object from provider (defined by the given id) and forwards the request to "edit.jelly".
      * 
@@ -168,12 +220,243 @@ public class XPathConfigViewerPlugin extends ManagementLink {
         }
     }
 
+    /**
+     * Renders one page of the distinct xml blocks of the config defined by the given id as table rows. The index page
+     * only renders the config headers and fetches the blocks of a config from here when it is expanded, so they are
+     * computed on demand. See {@link XmlBlockWindow} for the paging parameters.
+     * 
+     * @param req
+     *            request
+     * @param rsp
+     *            response
+     * @param configId
+     *            the id of the config to be rendered
+     * @param sort
+     *            the order of the xml blocks: count, text or job
+     * @param filter
+     *            substring of the full name of the jobs to show
+     * @param start
+     *            index of the first xml block to show
+     * @param count
+     *            number of xml blocks to show
+     * @throws IOException
+     * @throws ServletException
+     */
+    public void doBlocks(StaplerRequest req, StaplerResponse rsp, @QueryParameter("id") String configId, @QueryParameter("sort") String sort,
+            @QueryParameter("filter") String filter, @QueryParameter("start") String start, @QueryParameter("count") String count) throws IOException,
+            ServletException {
+        checkAdminPermission();
+
+        Config config = this.xPathConfigProvider.getConfigById(configId);
+        if (!(config instanceof XPathConfig)) {
+            rsp.sendError(StaplerResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        ProjectCollector.init(this.getXPathConfigs());
+        try {
+            req.setAttribute("window", ((XPathConfig) config).getXmlBlockWindow(sort, filter, toInt(start, 0), toInt(count, XmlBlockWindow.DEFAULT_COUNT)));
+            req.getView(config, "blocks.jelly").forward(req, rsp);
+        } finally {
+            ProjectCollector.release((XPathConfig) config);
+        }
+    }
+
+    /**
+     * Renders the next page of the jobs of an xml block, fetched by the "more" link of a row rendered by
+     * {@link #doBlocks(StaplerRequest, StaplerResponse, String, String, String, String, String)}.
+     * 
+     * @param req
+     *            request
+     * @param rsp
+     *            response
+     * @param configId
+     *            the id of the config
+     * @param digest
+     *            the digest of the xml block, empty for the jobs without xml block
+     * @param filter
+     *            substring of the full name of the jobs to show
+     * @param start
+     *            index of the first job to show
+     * @throws IOException
+     * @throws ServletException
+     */
+    public void doJobs(StaplerRequest req, StaplerResponse rsp, @QueryParameter("id") String configId, @QueryParameter("digest") String digest,
+            @QueryParameter("filter") String filter, @QueryParameter("start") String start) throws IOException, ServletException {
+        checkAdminPermission();
+
+        Config config = this.xPathConfigProvider.getConfigById(configId);
+        if (!(config instanceof XPathConfig)) {
+            rsp.sendError(StaplerResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        ProjectCollector.init(this.getXPathConfigs());
+        try {
+            XmlBlock xmlBlock = XmlBlockWindow.find(((XPathConfig) config).getDistinctXmlBlocks(), digest);
+            if (xmlBlock == null) {
+                rsp.sendError(StaplerResponse.SC_NOT_FOUND);
+                return;
+            }
+
+            int first = toInt(start, 0);
+            List< ? > projects = XmlBlockWindow.getProjects(xmlBlock, filter, first, XmlBlockWindow.DEFAULT_JOBS);
+            int next = first + projects.size();
+            req.setAttribute("projects", projects);
+            req.setAttribute("digest", StringUtils.defaultString(digest));
+            req.setAttribute("encodedFilter", URLEncoder.encode(StringUtils.defaultString(filter), "UTF-8"));
+            req.setAttribute("next", XmlBlockWindow.getProjects(xmlBlock, filter, next, 1).isEmpty() ? -1 : next);
+            req.getView(config, "jobs.jelly").forward(req, rsp);
+        } finally {
+            ProjectCollector.release((XPathConfig) config);
+        }
+    }
+
+    /**
+     * Renders the differences of an xml block from the xml block shared by most jobs of the config, fetched by the
+     * "diff" link of a row rendered by {@link #doBlocks(StaplerRequest, StaplerResponse, String, String, String, String, String)}.
+     * See {@link XmlBlockDiff}.
+     * 
+     * @param req
+     *            request
+     * @param rsp
+     *            response
+     * @param configId
+     *            the id of the config
+     * @param digest
+     *            the digest of the xml block
+     * @throws IOException
+     * @throws ServletException
+     */
+    public void doDiff(StaplerRequest req, StaplerResponse rsp, @QueryParameter("id") String configId, @QueryParameter("digest") String digest)
+            throws IOException, ServletException {
+        checkAdminPermission();
+
+        Config config = this.xPathConfigProvider.getConfigById(configId);
+        if (!(config instanceof XPathConfig) || StringUtils.isEmpty(digest)) {
+            rsp.sendError(StaplerResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        ProjectCollector.init(this.getXPathConfigs());
+        try {
+            List< XmlBlock > xmlBlocks = ((XPathConfig) config).getDistinctXmlBlocks();
+            XmlBlock baseline = XmlBlockDiff.getBaseline(xmlBlocks);
+            XmlBlock xmlBlock = XmlBlockWindow.find(xmlBlocks, digest);
+            if (baseline == null || xmlBlock == null) {
+                rsp.sendError(StaplerResponse.SC_NOT_FOUND);
+                return;
+            }
+
+            req.setAttribute("diff", XmlBlockDiff.of((XPathConfig) config, baseline, xmlBlock));
+            req.setAttribute("baselineJobs", baseline.getProjects().size());
+            req.getView(config, "diff.jelly").forward(req, rsp);
+        } finally {
+            ProjectCollector.release((XPathConfig) config);
+        }
+    }
+
+    /**
+     * Renders the xml blocks of every job for every xpath config as one table, see {@link PivotMatrix}.
+     * 
+     * @param req
+     *            request
+     * @param rsp
+     *            response
+     * @param sort
+     *            "job" to sort by job name or the id of an xpath config to sort by its xml blocks
+     * @param filter
+     *            substring of the full name of the jobs to show
+     * @param start
+     *            index of the first job to show
+     * @param count
+     *            number of jobs to show
+     * @throws IOException
+     * @throws ServletException
+     */
+    public void doPivot(StaplerRequest req, StaplerResponse rsp, @QueryParameter("sort") String sort, @QueryParameter("filter") String filter,
+            @QueryParameter("start") String start, @QueryParameter("count") String count) throws IOException, ServletException {
+        checkAdminPermission();
+
+        ProjectCollector.init();
+        try {
+            PivotMatrix matrix = PivotMatrix.compute(this.getXPathConfigs(), ProjectCollector.getProjectsList());
+            req.setAttribute("matrix", matrix);
+            req.setAttribute("page", matrix.getPage(sort, filter, toInt(start, 0), toInt(count, PivotMatrix.DEFAULT_COUNT)));
+            req.getView(this, "pivot.jelly").forward(req, rsp);
+        } finally {
+            ProjectCollector.release();
+        }
+    }
+
+    /**
+     * Writes the xml blocks of every job for every xpath config as CSV or newline delimited JSON, see
+     * {@link PivotMatrix}.
+     * 
+     * @param req
+     *            request
+     * @param rsp
+     *            response
+     * @param format
+     *            "csv" or "ndjson"
+     * @param table
+     *            "blocks" for the distinct xml blocks instead of the matrix, csv only
+     * @throws IOException
+     */
+    public void doPivotExport(StaplerRequest req, StaplerResponse rsp, @QueryParameter("format") String format, @QueryParameter("table") String table)
+            throws IOException {
+        checkAdminPermission();
+
+        boolean csv = "csv".equals(format);
+        if (!csv && !"ndjson".equals(format)) {
+            rsp.sendError(StaplerResponse.SC_BAD_REQUEST, "format must be csv or ndjson");
+            return;
+        }
+
+        ProjectCollector.init();
+        try {
+            PivotMatrix matrix = PivotMatrix.compute(this.getXPathConfigs(), ProjectCollector.getProjectsList());
+            rsp.setContentType(csv ? PivotMatrix.CSV_CONTENT_TYPE : XPathResultsApi.CONTENT_TYPE);
+            Writer out = new OutputStreamWriter(rsp.getOutputStream(), "UTF-8");
+            try {
+                if (!csv) {
+                    matrix.writeNdjson(out);
+                } else if ("blocks".equals(table)) {
+                    matrix.writeBlocksCsv(out);
+                } else {
+                    matrix.writeCsv(out);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            ProjectCollector.release();
+        }
+    }
+
+    /**
+     * Returns the xpath configs of the xpath config provider.
+     * 
+     * @return the xpath configs
+     */
+    private List< XPathConfig > getXPathConfigs() {
+        List< XPathConfig > configs = new ArrayList< XPathConfig >();
+        for (Config config : this.xPathConfigProvider.getAllConfigs()) {
+            if (config instanceof XPathConfig) {
+                configs.add((XPathConfig) config);
+            }
+        }
+        return configs;
+    }
+
     /**
      * Returns the http response to redirect to /index after save.
      * 
      * @param req
      *            Request containing the xpathconfig form data.
      * @return the http response
+     * @throws Failure
+     *             if the submitted xpath expression is not valid
      */
     public HttpResponse doSaveXPath(StaplerRequest req) {
 
@@ -181,6 +464,12 @@ public class XPathConfigViewerPlugin extends ManagementLink {
             JSONObject json = req.getSubmittedForm().getJSONObject("xpathconfig");
             XPathConfig config = req.bindJSON(XPathConfig.class, json);
 
+            try {
+                config.getCompiledXpath();
+            } catch (InvalidXPathException e) {
+                throw new Failure("Invalid XPath expression '" + config.getXpath() + "': " + e.getMessage());
+            }
+
             this.xPathConfigProvider.save(config);
 
         } catch (ServletException e) {
@@ -189,6 +478,52 @@ public class XPathConfigViewerPlugin extends ManagementLink {
         return new HttpRedirect("index");
     }
     
+    /**
+     * Starts computing the results of all xpath configs in the background, regardless of the load.
+     * 
+     * @return forward to 'index'
+     */
+    public HttpResponse doRefresh() {
+        checkAdminPermission();
+        XPathPrecomputation precomputation = XPathPrecomputation.getInstance();
+        if (precomputation != null) {
+            precomputation.refresh();
+        }
+        return new HttpRedirect("index");
+    }
+
+    /**
+     * Writes the timings of scans and renders as JSON.
+     * 
+     * @param req
+     *            request
+     * @param rsp
+     *            response
+     * @throws IOException
+     */
+    public void doMetrics(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        checkAdminPermission();
+
+        rsp.setContentType("application/json;charset=UTF-8");
+        Writer out = new OutputStreamWriter(rsp.getOutputStream(), "UTF-8");
+        try {
+            out.write(ScanMetrics.getInstance().toJSON().toString(2));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Resets the timings of scans and renders.
+     * 
+     * @return forward to 'index'
+     */
+    public HttpResponse doResetMetrics() {
+        checkAdminPermission();
+        ScanMetrics.getInstance().reset();
+        return new HttpRedirect("index");
+    }
+
     /**
      * Removes a script from the config and filesystem.
      * 
@@ -204,10 +539,32 @@ public class XPathConfigViewerPlugin extends ManagementLink {
     public HttpResponse doDelConfig(StaplerRequest res, StaplerResponse rsp, @QueryParameter("id") String configId) throws IOException {
         checkAdminPermission();
         this.xPathConfigProvider.remove(configId);
+
+        XPathResultIndex index = XPathResultIndex.getInstance();
+        if (index != null) {
+            index.remove(configId);
+        }
          
         return new HttpRedirect("index");
     }
 
+    /**
+     * Parses the given query parameter.
+     * 
+     * @param value
+     *            the parameter value
+     * @param defaultValue
+     *            returned if the parameter is missing or not a number
+     * @return the number
+     */
+    private static int toInt(String value, int defaultValue) {
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
     /**
      * Throws an AccessDeniedException if a non admin users tries to access the common config viewer plugin.
      *
@@ -0,0 +1,264 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.PeriodicWork;
+import hudson.model.TaskListener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jenkinsci.lib.configprovider.ConfigProvider;
+import org.jenkinsci.lib.configprovider.model.Config;
+import org.jfree.util.Log;
+
+/**
+ * Recomputes the results of all xpath configs in the background and publishes them as {@link XPathResultSnapshot},
+ * so that viewing the page never triggers a scan of all jobs.
+ *
+ * A periodic run is skipped while more than {@link #MAX_LOAD} percent of the executors are busy, unless the current
+ * snapshot is older than {@link #MAX_AGE} hours. Config.xml files are read with at most {@link #MAX_READS_PER_SECOND}
+ * files per second. Only jobs changed since the last run are read, see {@link XPathResultIndex}. Every run, skipped or
+ * not, stores the changes of the index.
+ *
+ * @author c031
+ *
+ */
+@Extension
+public class XPathPrecomputation extends AsyncPeriodicWork {
+    /**
+     * minutes between two runs.
+     */
+    public static final int PERIOD = Integer.getInteger(XPathPrecomputation.class.getName() + ".period", 60);
+
+    /**
+     * percentage of busy executors above which a periodic run is skipped.
+     */
+    public static final int MAX_LOAD = Integer.getInteger(XPathPrecomputation.class.getName() + ".maxLoad", 50);
+
+    /**
+     * hours after which a snapshot is recomputed regardless of the load.
+     */
+    public static final int MAX_AGE = Integer.getInteger(XPathPrecomputation.class.getName() + ".maxAge", 24);
+
+    /**
+     * maximum number of config.xml files read per second, 0 for no limit.
+     */
+    public static final int MAX_READS_PER_SECOND = Integer.getInteger(XPathPrecomputation.class.getName() + ".maxReadsPerSecond", 200);
+
+    /**
+     * true while results are computed, by a periodic run or by {@link #refresh()}.
+     */
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * runs the refreshes on a daemon thread, which terminates when idle.
+     */
+    private final ThreadPoolExecutor refresher;
+
+    /**
+     * Constructor
+     */
+    public XPathPrecomputation() {
+        super("XPath config precomputation");
+        final String threadName = this.name + " refresh";
+        this.refresher = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue< Runnable >(), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, threadName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.refresher.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the instance registered with Jenkins.
+     *
+     * @return the registered instance or null if Jenkins isn't running
+     */
+    public static XPathPrecomputation getInstance() {
+        return PeriodicWork.all().get(XPathPrecomputation.class);
+    }
+
+    /**
+     * @return the milliseconds between two runs
+     */
+    @Override
+    public long getRecurrencePeriod() {
+        return Math.max(PERIOD, 1) * MIN;
+    }
+
+    /**
+     * @return the milliseconds after startup before the first run
+     */
+    @Override
+    public long getInitialDelay() {
+        return MIN;
+    }
+
+    /**
+     * Starts a run now on the daemon refresh thread, regardless of the load. Does nothing if a run is already in
+     * progress.
+     */
+    public void refresh() {
+        if (!this.running.compareAndSet(false, true)) {
+            return;
+        }
+
+        this.refresher.execute(new Runnable() {
+            public void run() {
+                try {
+                    Log.info(precompute(true));
+                } catch (RuntimeException e) {
+                    Log.error("Failed to compute xpath config results: ", e);
+                } finally {
+                    XPathPrecomputation.this.running.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Computes and publishes the results of all xpath configs, unless the executors are busy and the current snapshot
+     * isn't outdated yet, or a run started by {@link #refresh()} is in progress.
+     *
+     * @param listener
+     *            receives the log of the run
+     */
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        if (!this.running.compareAndSet(false, true)) {
+            listener.getLogger().println("Xpath config results are already being computed");
+            return;
+        }
+
+        try {
+            listener.getLogger().println(precompute(false));
+        } finally {
+            this.running.set(false);
+        }
+    }
+
+    /**
+     * Computes and publishes the results of all xpath configs, unless the run isn't forced, the executors are busy and
+     * the current snapshot isn't outdated yet. Stores the changes of the {@link XPathResultIndex} in any case,
+     * including those of page lookups since the last run.
+     *
+     * @param force
+     *            true to ignore the load
+     * @return the message to log
+     */
+    static String precompute(boolean force) {
+        try {
+            XPathResultSnapshot current = XPathResultSnapshot.current();
+            if (!force && current != null && !isOutdated(current, System.currentTimeMillis()) && !isIdle()) {
+                return "Executors are busy, xpath config results are computed later";
+            }
+
+            List< XPathConfig > configs = getConfigs();
+            XPathResultSnapshot snapshot = compute(configs);
+            XPathResultSnapshot.publish(snapshot);
+            return "Computed the results of " + configs.size() + " xpath configs in " + snapshot.getDuration() + " ms";
+        } finally {
+            XPathResultIndex.saveLoaded();
+        }
+    }
+
+    /**
+     * Computes the results of the given xpath configs for all jobs.
+     *
+     * @param configs
+     *            the xpath configs
+     * @return the snapshot of the results
+     */
+    @SuppressWarnings("rawtypes")
+    static XPathResultSnapshot compute(List< XPathConfig > configs) {
+        List< AbstractProject > projects = ProjectCollector.getProjectsList();
+        return XPathResultSnapshot.compute(configs, projects, MAX_READS_PER_SECOND);
+    }
+
+    /**
+     * Returns true if the given snapshot is older than {@link #MAX_AGE} hours.
+     *
+     * @param snapshot
+     *            the snapshot
+     * @param now
+     *            the current time
+     * @return true if the snapshot has to be recomputed regardless of the load
+     */
+    static boolean isOutdated(XPathResultSnapshot snapshot, long now) {
+        return now - snapshot.getTimestamp() >= MAX_AGE * HOUR;
+    }
+
+    /**
+     * Returns true if at most {@link #MAX_LOAD} percent of the executors are busy.
+     *
+     * @return true if a scan doesn't compete with builds
+     */
+    static boolean isIdle() {
+        Hudson hudson = Hudson.getInstance();
+        if (hudson == null) {
+            return true;
+        }
+
+        int busy = 0;
+        int executors = 0;
+        for (Computer computer : hudson.getComputers()) {
+            busy += computer.countBusy();
+            executors += computer.countExecutors();
+        }
+        return busy * 100 <= MAX_LOAD * executors;
+    }
+
+    /**
+     * Returns the xpath configs of the xpath config provider.
+     *
+     * @return the xpath configs
+     */
+    private static List< XPathConfig > getConfigs() {
+        List< XPathConfig > configs = new ArrayList< XPathConfig >();
+        for (ConfigProvider provider : ConfigProvider.all()) {
+            if (provider.getProviderId().equals("XPathConfigProvider.")) {
+                for (Config config : provider.getAllConfigs()) {
+                    if (config instanceof XPathConfig) {
+                        configs.add((XPathConfig) config);
+                    }
+                }
+            }
+        }
+        return configs;
+    }
+}
@@ -0,0 +1,819 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.AbstractProject;
+import hudson.model.Hudson;
+import hudson.model.Item;
+import hudson.model.Saveable;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.SaveableListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.commons.lang.StringUtils;
+import org.jfree.util.Log;
+
+/**
+ * Persistent index of the xml block selected by every xpath config from every job, so the viewer page doesn't read
+ * all config.xml files on every view.
+ *
+ * The index maps (xpath config, job) to the digests of the selected xml blocks and each digest to the block text. Jobs
+ * are invalidated by item and saveable listeners when they are created, renamed, deleted or saved, and only those are
+ * evaluated again on the next lookup. An xpath config is evaluated again for all jobs when its expression or job
+ * filter changes. The index is stored in {@value #FILE_NAME} next to xpath-config-selectors.xml. The size and last
+ * modification of each config.xml are stored with its results and compared once after loading, which catches
+ * changes made while Jenkins was not running.
+ *
+ * Lookups don't write the index. Changes are stored in a batch by the periodic {@link XPathPrecomputation}, from a
+ * copy taken under the monitor and written without holding it, so page lookups don't wait for the disk. Results not
+ * stored yet when Jenkins stops are read again after the restart.
+ *
+ * @author c031
+ *
+ */
+public class XPathResultIndex {
+    /**
+     * name of the index file in the Jenkins root directory.
+     */
+    public static final String FILE_NAME = "xpath-config-index.xml";
+
+    /**
+     * version of the stored digests, an index stored with another version is rebuilt.
+     */
+    private static final int VERSION = 4;
+
+    /**
+     * digest stored for jobs without matching xml block.
+     */
+    private static final String NOT_ASSIGNED = "";
+
+    /**
+     * separates the digests of a job if an xpath config groups on all matches.
+     */
+    private static final String SEPARATOR = " ";
+
+    /**
+     * serializes the writes of the index file, so a newer copy is never overwritten by an older one.
+     */
+    private static final Object WRITING = new Object();
+
+    /**
+     * the index of this Jenkins instance, loaded on first use.
+     */
+    private static XPathResultIndex instance;
+
+    /**
+     * version of the stored digests, see {@link XmlFingerprint}.
+     */
+    private int version = VERSION;
+
+    /**
+     * expression and job filter of every indexed xpath config by id.
+     */
+    private Map< String, String > selectors = new HashMap< String, String >();
+
+    /**
+     * indexed results by job full name.
+     */
+    private Map< String, JobEntry > jobs = new HashMap< String, JobEntry >();
+
+    /**
+     * xml block text by digest.
+     */
+    private Map< String, String > blocks = new HashMap< String, String >();
+
+    /**
+     * the file the index is stored in.
+     */
+    private transient XmlFile xmlFile;
+
+    /**
+     * jobs whose config.xml was compared with the stored size and modification since loading.
+     */
+    private transient Set< String > verified;
+
+    /**
+     * jobs invalidated by listeners, applied on the next lookup. Listeners don't wait for a running lookup.
+     */
+    private transient Queue< String > invalidated;
+
+    /**
+     * true if the index changed since it was stored.
+     */
+    private transient boolean dirty;
+
+    /**
+     * Constructor
+     *
+     * @param xmlFile
+     *            the file the index is stored in, null to keep it in memory only.
+     */
+    public XPathResultIndex(XmlFile xmlFile) {
+        this.xmlFile = xmlFile;
+        this.readResolve();
+    }
+
+    /**
+     * Copy constructor, copies the stored state of the given index.
+     *
+     * @param other
+     *            the index to copy
+     */
+    private XPathResultIndex(XPathResultIndex other) {
+        this.selectors = new HashMap< String, String >(other.selectors);
+        this.jobs = new HashMap< String, JobEntry >();
+        for (Map.Entry< String, JobEntry > e : other.jobs.entrySet()) {
+            this.jobs.put(e.getKey(), new JobEntry(e.getValue()));
+        }
+        this.blocks = new HashMap< String, String >(other.blocks);
+    }
+
+    /**
+     * Initializes the transient fields after loading.
+     *
+     * @return this index
+     */
+    private Object readResolve() {
+        if (this.selectors == null) {
+            this.selectors = new HashMap< String, String >();
+        }
+        if (this.jobs == null) {
+            this.jobs = new HashMap< String, JobEntry >();
+        }
+        if (this.blocks == null) {
+            this.blocks = new HashMap< String, String >();
+        }
+        this.verified = new HashSet< String >();
+        this.invalidated = new ConcurrentLinkedQueue< String >();
+        return this;
+    }
+
+    /**
+     * Returns the index of this Jenkins instance, loading it on first use.
+     *
+     * @return the index or null if Jenkins is not running
+     */
+    public static synchronized XPathResultIndex getInstance() {
+        if (instance == null) {
+            Hudson hudson = Hudson.getInstance();
+            if (hudson == null) {
+                return null;
+            }
+            instance = load(new XmlFile(new File(hudson.getRootDir(), FILE_NAME)));
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the index if it is already loaded.
+     *
+     * @return the index or null
+     */
+    private static synchronized XPathResultIndex getLoadedInstance() {
+        return instance;
+    }
+
+    /**
+     * Stores the index of this Jenkins instance if it is loaded and changed since it was stored, see {@link #save()}.
+     */
+    public static void saveLoaded() {
+        XPathResultIndex index = getLoadedInstance();
+        if (index != null) {
+            index.save();
+        }
+    }
+
+    /**
+     * Loads the index from the given file.
+     *
+     * @param xmlFile
+     *            the index file
+     * @return the loaded index or an empty one if the file doesn't exist, can't be read or is outdated
+     */
+    public static XPathResultIndex load(XmlFile xmlFile) {
+        if (xmlFile.exists()) {
+            try {
+                XPathResultIndex index = (XPathResultIndex) xmlFile.read();
+                if (index.version == VERSION) {
+                    index.xmlFile = xmlFile;
+                    return index;
+                }
+                Log.info("Xpath result index has been stored by another version, rebuilding it");
+            } catch (IOException e) {
+                Log.warn("Failed to load xpath result index, rebuilding it: ", e);
+            } catch (ClassCastException e) {
+                Log.warn("Failed to load xpath result index, rebuilding it: ", e);
+            }
+        }
+        return new XPathResultIndex(xmlFile);
+    }
+
+    /**
+     * Returns the distinct xml blocks of the given xpath configs, using the index of this Jenkins instance if it is
+     * running and scanning the projects otherwise.
+     *
+     * @param configs
+     *            the xpath configs
+     * @param projects
+     *            the projects
+     * @return the distinct xml blocks by xpath config
+     */
+    @SuppressWarnings("rawtypes")
+    public static Map< XPathConfig, List< XmlBlock > > lookup(Collection< XPathConfig > configs, List< AbstractProject > projects) {
+        return lookup(configs, projects, 0);
+    }
+
+    /**
+     * Returns the distinct xml blocks of the given xpath configs, using the index of this Jenkins instance if it is
+     * running and scanning the projects otherwise. Config.xml files are read with the given maximum rate. A request
+     * arriving while the same lookup is running waits for its result, whatever rate that lookup reads with, see
+     * {@link ScanCoalescer}.
+     *
+     * @param configs
+     *            the xpath configs
+     * @param projects
+     *            the projects
+     * @param maxReadsPerSecond
+     *            maximum number of config.xml files read per second, 0 for no limit
+     * @return the distinct xml blocks by xpath config
+     */
+    @SuppressWarnings("rawtypes")
+    public static Map< XPathConfig, List< XmlBlock > > lookup(final Collection< XPathConfig > configs, final List< AbstractProject > projects,
+            final int maxReadsPerSecond) {
+        return ScanCoalescer.getInstance().lookup(configs, projects, new Callable< Map< XPathConfig, List< XmlBlock > > >() {
+            public Map< XPathConfig, List< XmlBlock > > call() {
+                return lookupNow(configs, projects, maxReadsPerSecond);
+            }
+        });
+    }
+
+    /**
+     * Returns the distinct xml blocks of the given xpath configs in the calling thread, see
+     * {@link #lookup(Collection, List, int)}.
+     *
+     * @param configs
+     *            the xpath configs
+     * @param projects
+     *            the projects
+     * @param maxReadsPerSecond
+     *            maximum number of config.xml files read per second, 0 for no limit
+     * @return the distinct xml blocks by xpath config
+     */
+    @SuppressWarnings("rawtypes")
+    static Map< XPathConfig, List< XmlBlock > > lookupNow(Collection< XPathConfig > configs, List< AbstractProject > projects, int maxReadsPerSecond) {
+        XPathResultIndex index = getInstance();
+        if (index != null) {
+            return index.getDistinctXmlBlocks(configs, projects, maxReadsPerSecond);
+        }
+        XPathScanner scanner = new XPathScanner(configs);
+        scanner.setMaxReadsPerSecond(maxReadsPerSecond);
+        return scanner.scan(projects);
+    }
+
+    /**
+     * Returns the distinct xml blocks of the given xpath configs. Only jobs without indexed results are read, the
+     * others are grouped from the index.
+     *
+     * @param configs
+     *            the xpath configs
+     * @param projects
+     *            the projects
+     * @return the distinct xml blocks by xpath config
+     */
+    @SuppressWarnings("rawtypes")
+    public Map< XPathConfig, List< XmlBlock > > getDistinctXmlBlocks(Collection< XPathConfig > configs, List< AbstractProject > projects) {
+        return this.getDistinctXmlBlocks(configs, projects, 0);
+    }
+
+    /**
+     * Returns the distinct xml blocks of the given xpath configs. Only jobs without indexed results are read, with the
+     * given maximum rate, the others are grouped from the index. The jobs are read without holding the monitor of the
+     * index, it's only taken to find the jobs to read and to merge and group the results.
+     *
+     * @param configs
+     *            the xpath configs
+     * @param projects
+     *            the projects
+     * @param maxReadsPerSecond
+     *            maximum number of config.xml files read per second, 0 for no limit
+     * @return the distinct xml blocks by xpath config
+     */
+    @SuppressWarnings("rawtypes")
+    public Map< XPathConfig, List< XmlBlock > > getDistinctXmlBlocks(Collection< XPathConfig > configs, List< AbstractProject > projects, int maxReadsPerSecond) {
+        List< XPathConfig > valid = new ArrayList< XPathConfig >();
+        Map< String, String > signatures = new HashMap< String, String >();
+        List< AbstractProject > missing = new ArrayList< AbstractProject >();
+        synchronized (this) {
+            this.applyInvalidations(null);
+
+            for (XPathConfig config : configs) {
+                if (config.isValidXpath()) {
+                    valid.add(config);
+                    this.updateSelector(config);
+                    signatures.put(key(config), this.selectors.get(key(config)));
+                }
+            }
+
+            if (projects != null && !valid.isEmpty()) {
+                for (AbstractProject project : projects) {
+                    if (!this.isIndexed(project, valid)) {
+                        missing.add(project);
+                    }
+                }
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            Map< String, String > texts = new HashMap< String, String >();
+            Map< String, JobEntry > fresh = scan(valid, missing, maxReadsPerSecond, texts);
+            synchronized (this) {
+                this.merge(fresh, texts, signatures);
+            }
+        }
+
+        synchronized (this) {
+            return this.group(configs, valid, projects);
+        }
+    }
+
+    /**
+     * Groups the indexed results of the given xpath configs.
+     *
+     * @param configs
+     *            the xpath configs
+     * @param valid
+     *            the xpath configs with a valid expression
+     * @param projects
+     *            the projects
+     * @return the distinct xml blocks by xpath config
+     */
+    @SuppressWarnings("rawtypes")
+    private Map< XPathConfig, List< XmlBlock > > group(Collection< XPathConfig > configs, List< XPathConfig > valid, List< AbstractProject > projects) {
+        Map< XPathConfig, List< XmlBlock > > result = new IdentityHashMap< XPathConfig, List< XmlBlock > >();
+        for (XPathConfig config : configs) {
+            if (projects == null || !valid.contains(config)) {
+                result.put(config, Collections.< XmlBlock > emptyList());
+                continue;
+            }
+
+            String id = key(config);
+            XmlBlockCollector collector = new XmlBlockCollector(projects);
+            int position = -1;
+            for (AbstractProject project : projects) {
+                position++;
+                if (!config.isSelected(project)) {
+                    continue;
+                }
+                JobEntry entry = this.jobs.get(project.getFullName());
+                String digests = entry == null ? null : entry.digests.get(id);
+                if (digests == null || NOT_ASSIGNED.equals(digests)) {
+                    collector.add(position, null, null);
+                    continue;
+                }
+                for (String digest : StringUtils.split(digests, SEPARATOR)) {
+                    // digests without text are not indexed, see isIndexed
+                    String text = this.blocks.get(digest);
+                    collector.add(position, text == null ? null : BlockText.intern(digest, text), text == null ? null : digest);
+                }
+            }
+            result.put(config, collector.getXmlBlocks());
+        }
+
+        return result;
+    }
+
+    /**
+     * Invalidates the indexed results of the given job, or of all jobs within the given folder. The results are
+     * dropped on the next lookup, without waiting for a running one.
+     *
+     * @param fullName
+     *            the full name of the job or folder
+     */
+    public void invalidate(String fullName) {
+        if (fullName != null) {
+            this.invalidated.add(fullName);
+        }
+    }
+
+    /**
+     * Forgets which config.xml files were verified, so they are compared with the stored size and modification again
+     * on the next lookup.
+     */
+    public synchronized void reverify() {
+        this.verified.clear();
+    }
+
+    /**
+     * Drops the results of the xpath config defined by the given id, when the config is removed. They are dropped from
+     * the file by the next {@link #save()}.
+     *
+     * @param configId
+     *            the id of the xpath config
+     */
+    public synchronized void remove(String configId) {
+        if (this.selectors.remove(configId) != null) {
+            this.dirty = true;
+        }
+    }
+
+    /**
+     * Stores the index if it changed since it was stored. A copy is taken under the monitor and written without
+     * holding it.
+     */
+    public void save() {
+        if (this.xmlFile == null) {
+            return;
+        }
+
+        synchronized (WRITING) {
+            XPathResultIndex copy;
+            synchronized (this) {
+                if (!this.dirty) {
+                    return;
+                }
+                this.prune();
+                copy = new XPathResultIndex(this);
+                this.dirty = false;
+            }
+
+            try {
+                this.xmlFile.write(copy);
+            } catch (IOException e) {
+                Log.error("Failed to save xpath result index: ", e);
+                synchronized (this) {
+                    this.dirty = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the results of xpath configs no longer in the index, jobs without results, xpath configs without results
+     * and xml blocks no longer referenced by any job.
+     */
+    private void prune() {
+        Set< String > used = new HashSet< String >();
+        Set< String > selected = new HashSet< String >();
+        for (Iterator< JobEntry > it = this.jobs.values().iterator(); it.hasNext();) {
+            JobEntry entry = it.next();
+            entry.digests.keySet().retainAll(this.selectors.keySet());
+            if (entry.digests.isEmpty()) {
+                it.remove();
+                continue;
+            }
+            selected.addAll(entry.digests.keySet());
+            for (String digests : entry.digests.values()) {
+                used.addAll(Arrays.asList(StringUtils.split(digests, SEPARATOR)));
+            }
+        }
+        this.selectors.keySet().retainAll(selected);
+        this.blocks.keySet().retainAll(used);
+    }
+
+    /**
+     * Returns the number of indexed jobs.
+     *
+     * @return the number of indexed jobs
+     */
+    public synchronized int size() {
+        this.applyInvalidations(null);
+        return this.jobs.size();
+    }
+
+    /**
+     * Drops the results of the jobs invalidated by listeners.
+     *
+     * @param fresh
+     *            results read before the invalidation and not merged yet, invalidated jobs are dropped from them too.
+     *            May be null.
+     */
+    private void applyInvalidations(Map< String, JobEntry > fresh) {
+        String fullName;
+        while ((fullName = this.invalidated.poll()) != null) {
+            String prefix = fullName + "/";
+            for (Iterator< String > it = this.jobs.keySet().iterator(); it.hasNext();) {
+                String name = it.next();
+                if (name.equals(fullName) || name.startsWith(prefix)) {
+                    it.remove();
+                    this.verified.remove(name);
+                    this.dirty = true;
+                }
+            }
+            if (fresh != null) {
+                for (Iterator< String > it = fresh.keySet().iterator(); it.hasNext();) {
+                    String name = it.next();
+                    if (name.equals(fullName) || name.startsWith(prefix)) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the results of the given xpath config if its expression, fingerprint options or job filter changed.
+     *
+     * @param config
+     *            the xpath config
+     */
+    private void updateSelector(XPathConfig config) {
+        String id = key(config);
+        String signature = config.getSignature();
+
+        if (!signature.equals(this.selectors.get(id))) {
+            this.selectors.put(id, signature);
+            for (JobEntry entry : this.jobs.values()) {
+                entry.digests.remove(id);
+            }
+            this.dirty = true;
+        }
+    }
+
+    /**
+     * Returns true if the index holds results of the given project for all xpath configs selecting it.
+     *
+     * @param project
+     *            the project
+     * @param configs
+     *            the xpath configs
+     * @return true if nothing needs to be read
+     */
+    @SuppressWarnings("rawtypes")
+    private boolean isIndexed(AbstractProject project, List< XPathConfig > configs) {
+        List< XPathConfig > selecting = new ArrayList< XPathConfig >();
+        for (XPathConfig config : configs) {
+            if (config.isSelected(project)) {
+                selecting.add(config);
+            }
+        }
+        if (selecting.isEmpty()) {
+            return true;
+        }
+
+        String name = project.getFullName();
+        JobEntry entry = this.jobs.get(name);
+        if (entry == null) {
+            return false;
+        }
+
+        if (!this.verified.contains(name)) {
+            File file = project.getConfigFile().getFile();
+            if (file.lastModified() != entry.lastModified || file.length() != entry.length) {
+                this.jobs.remove(name);
+                this.dirty = true;
+                return false;
+            }
+            this.verified.add(name);
+        }
+
+        for (XPathConfig config : selecting) {
+            String digests = entry.digests.get(key(config));
+            if (digests == null) {
+                return false;
+            }
+            for (String digest : StringUtils.split(digests, SEPARATOR)) {
+                if (!NOT_ASSIGNED.equals(digest) && !this.blocks.containsKey(digest)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Evaluates the given xpath configs for the given projects. Doesn't touch the index, the results are stored by
+     * {@link #merge(Map, Map, Map)}.
+     *
+     * @param configs
+     *            the xpath configs
+     * @param projects
+     *            the projects to read
+     * @param maxReadsPerSecond
+     *            maximum number of config.xml files read per second, 0 for no limit
+     * @param texts
+     *            receives the xml block text by digest
+     * @return the results by job full name
+     */
+    @SuppressWarnings("rawtypes")
+    private static Map< String, JobEntry > scan(List< XPathConfig > configs, List< AbstractProject > projects, int maxReadsPerSecond, Map< String, String > texts) {
+        // size and modification are taken before reading, a change during the scan is detected by the next check
+        Map< String, JobEntry > fresh = new LinkedHashMap< String, JobEntry >();
+        for (AbstractProject project : projects) {
+            File file = project.getConfigFile().getFile();
+            JobEntry entry = new JobEntry();
+            entry.lastModified = file.lastModified();
+            entry.length = file.length();
+            fresh.put(project.getFullName(), entry);
+        }
+
+        XPathScanner scanner = new XPathScanner(configs);
+        scanner.setMaxReadsPerSecond(maxReadsPerSecond);
+        Map< XPathConfig, List< XmlBlock > > scanned = scanner.scan(projects);
+
+        for (XPathConfig config : configs) {
+            String id = key(config);
+            for (XmlBlock block : scanned.get(config)) {
+                String digest = block.getDigest();
+                if (digest == null) {
+                    digest = NOT_ASSIGNED;
+                } else {
+                    texts.put(digest, block.getXmlblock());
+                }
+                for (AbstractProject project : block.getProjects()) {
+                    Map< String, String > digests = fresh.get(project.getFullName()).digests;
+                    String previous = digests.get(id);
+                    digests.put(id, previous == null ? digest : previous + SEPARATOR + digest);
+                }
+            }
+        }
+        return fresh;
+    }
+
+    /**
+     * Stores the results of {@link #scan(List, List, int, Map)}. Results of jobs invalidated and of xpath configs
+     * changed during the scan are dropped.
+     *
+     * @param fresh
+     *            the results by job full name
+     * @param texts
+     *            the xml block text by digest
+     * @param signatures
+     *            the signature of every scanned xpath config when the scan started
+     */
+    private void merge(Map< String, JobEntry > fresh, Map< String, String > texts, Map< String, String > signatures) {
+        this.applyInvalidations(fresh);
+
+        Set< String > changed = new HashSet< String >();
+        for (Map.Entry< String, String > e : signatures.entrySet()) {
+            String signature = this.selectors.get(e.getKey());
+            if (signature == null) {
+                // dropped by a save while no job referenced it yet
+                this.selectors.put(e.getKey(), e.getValue());
+            } else if (!signature.equals(e.getValue())) {
+                changed.add(e.getKey());
+            }
+        }
+
+        this.blocks.putAll(texts);
+        for (Map.Entry< String, JobEntry > e : fresh.entrySet()) {
+            e.getValue().digests.keySet().removeAll(changed);
+            // results of other xpath configs are kept as long as the config.xml is unchanged
+            JobEntry entry = this.jobs.get(e.getKey());
+            if (entry != null && entry.lastModified == e.getValue().lastModified && entry.length == e.getValue().length) {
+                entry.digests.putAll(e.getValue().digests);
+            } else {
+                this.jobs.put(e.getKey(), e.getValue());
+            }
+        }
+        this.verified.addAll(fresh.keySet());
+        this.dirty = true;
+    }
+
+    /**
+     * Returns the key of the given xpath config in the index.
+     *
+     * @param config
+     *            the xpath config
+     * @return the key
+     */
+    private static String key(XPathConfig config) {
+        return String.valueOf(config.id);
+    }
+
+    /**
+     * Indexed results of one job.
+     */
+    public static final class JobEntry {
+        /**
+         * last modification of the config.xml when it was read.
+         */
+        private long lastModified;
+
+        /**
+         * size of the config.xml when it was read.
+         */
+        private long length;
+
+        /**
+         * digests of the selected xml blocks by xpath config id, separated by {@value XPathResultIndex#SEPARATOR}.
+         */
+        private Map< String, String > digests = new HashMap< String, String >();
+
+        /**
+         * Constructor
+         */
+        private JobEntry() {
+        }
+
+        /**
+         * Copy constructor
+         *
+         * @param other
+         *            the entry to copy
+         */
+        private JobEntry(JobEntry other) {
+            this.lastModified = other.lastModified;
+            this.length = other.length;
+            this.digests = new HashMap< String, String >(other.digests);
+        }
+    }
+
+    /**
+     * Invalidates jobs when they are created, renamed or deleted.
+     */
+    @Extension
+    public static class ItemListenerImpl extends ItemListener {
+        @Override
+        public void onCreated(Item item) {
+            invalidateLoaded(item.getFullName());
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            invalidateLoaded(item.getFullName());
+        }
+
+        @Override
+        public void onRenamed(Item item, String oldName, String newName) {
+            String parent = item.getParent().getFullName();
+            invalidateLoaded(StringUtils.isEmpty(parent) ? oldName : parent + "/" + oldName);
+            invalidateLoaded(item.getFullName());
+        }
+
+        @Override
+        public void onLoaded() {
+            XPathResultIndex index = getLoadedInstance();
+            if (index != null) {
+                index.reverify();
+            }
+        }
+    }
+
+    /**
+     * Invalidates jobs when their config.xml is saved.
+     */
+    @Extension
+    public static class SaveableListenerImpl extends SaveableListener {
+        @SuppressWarnings("rawtypes")
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof AbstractProject) {
+                invalidateLoaded(((AbstractProject) o).getFullName());
+            }
+        }
+    }
+
+    /**
+     * Invalidates the given job in the index if it is loaded. An index loaded later compares sizes and modifications
+     * anyway.
+     *
+     * @param fullName
+     *            the full name of the job or folder
+     */
+    private static void invalidateLoaded(String fullName) {
+        XPathResultIndex index = getLoadedInstance();
+        if (index != null) {
+            index.invalidate(fullName);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import hudson.model.AbstractProject;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The results of all xpath configs, computed in the background by {@link XPathPrecomputation}. A snapshot is never
+ * modified, a new one is published by swapping the current one, so page views always see a complete set of results
+ * and never wait for a scan.
+ *
+ * Results are stored by config id together with the signature of the config, see {@link XPathConfig#getSignature()}.
+ * A config changed after the snapshot was computed isn't answered from it.
+ *
+ * @author c031
+ *
+ */
+public final class XPathResultSnapshot {
+    /**
+     * the published snapshot, null until the first computation.
+     */
+    private static final AtomicReference< XPathResultSnapshot > CURRENT = new AtomicReference< XPathResultSnapshot >();
+
+    /**
+     * the distinct xml blocks by config id and signature.
+     */
+    private final Map< String, List< XmlBlock > > results;
+
+    /**
+     * time the computation started at.
+     */
+    private final long timestamp;
+
+    /**
+     * milliseconds the computation took.
+     */
+    private final long duration;
+
+    /**
+     * Constructor
+     *
+     * @param results
+     *            the distinct xml blocks by config id and signature
+     * @param timestamp
+     *            time the computation started at
+     * @param duration
+     *            milliseconds the computation took
+     */
+    private XPathResultSnapshot(Map< String, List< XmlBlock > > results, long timestamp, long duration) {
+        this.results = results;
+        this.timestamp = timestamp;
+        this.duration = duration;
+    }
+
+    /**
+     * Computes the results of the given xpath configs.
+     *
+     * @param configs
+     *            the xpath configs
+     * @param projects
+     *            the projects to scan
+     * @param maxReadsPerSecond
+     *            maximum number of config.xml files read per second, 0 for no limit
+     * @return the snapshot of the results
+     */
+    @SuppressWarnings("rawtypes")
+    public static XPathResultSnapshot compute(Collection< XPathConfig > configs, List< AbstractProject > projects, int maxReadsPerSecond) {
+        long timestamp = System.currentTimeMillis();
+        Map< XPathConfig, List< XmlBlock > > computed = XPathResultIndex.lookup(configs, projects, maxReadsPerSecond);
+
+        Map< String, List< XmlBlock > > results = new HashMap< String, List< XmlBlock > >();
+        for (Map.Entry< XPathConfig, List< XmlBlock > > entry : computed.entrySet()) {
+            results.put(key(entry.getKey()), Collections.unmodifiableList(entry.getValue()));
+        }
+        return new XPathResultSnapshot(results, timestamp, System.currentTimeMillis() - timestamp);
+    }
+
+    /**
+     * Returns the published snapshot.
+     *
+     * @return the snapshot or null if none has been computed yet
+     */
+    public static XPathResultSnapshot current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Publishes the given snapshot, replacing the current one.
+     *
+     * @param snapshot
+     *            the snapshot, null to drop the current one
+     */
+    static void publish(XPathResultSnapshot snapshot) {
+        CURRENT.set(snapshot);
+    }
+
+    /**
+     * Returns the distinct xml blocks of the given xpath config.
+     *
+     * @param config
+     *            the xpath config
+     * @return the distinct xml blocks or null if the config was added or changed after the snapshot was computed
+     */
+    public List< XmlBlock > get(XPathConfig config) {
+        return this.results.get(key(config));
+    }
+
+    /**
+     * @return the number of xpath configs in the snapshot
+     */
+    public int size() {
+        return this.results.size();
+    }
+
+    /**
+     * @return the time the computation started at
+     */
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * @return the time the computation started at
+     */
+    public Date getDate() {
+        return new Date(this.timestamp);
+    }
+
+    /**
+     * @return the milliseconds the computation took
+     */
+    public long getDuration() {
+        return this.duration;
+    }
+
+    /**
+     * Returns the key of the results of the given xpath config.
+     *
+     * @param config
+     *            the xpath config
+     * @return the id and the signature
+     */
+    private static String key(XPathConfig config) {
+        return config.id + "\n" + config.getSignature();
+    }
+}
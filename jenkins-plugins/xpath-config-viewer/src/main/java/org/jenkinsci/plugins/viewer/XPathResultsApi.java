@@ -0,0 +1,209 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import hudson.model.AbstractProject;
+import hudson.model.Hudson;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+import org.jenkinsci.lib.configprovider.ConfigProvider;
+import org.jenkinsci.lib.configprovider.model.Config;
+import org.jfree.util.Log;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Streams the results of an xpath config as newline delimited JSON, bound to /xpathviewer/api.
+ *
+ * Records are written while the projects are scanned, one JSON object per line:
+ * <ul>
+ * <li><code>{"type":"block","digest":"...","xml":"..."}</code> when a distinct xml block occurs first</li>
+ * <li><code>{"type":"job","job":"...","digest":"..."}</code> for every job with an xml block, once per distinct xml
+ * block if the config groups on all matches</li>
+ * <li><code>{"type":"notAssigned","job":"..."}</code> for every job without an xml block</li>
+ * <li><code>{"type":"end","jobs":n,"blocks":n,"notAssigned":n}</code> after the last job</li>
+ * </ul>
+ * Only the digests of the distinct xml blocks are kept while streaming, so memory doesn't grow with the number of jobs.
+ * A client groups the jobs by digest.
+ *
+ * @author c031
+ *
+ */
+public class XPathResultsApi {
+    /**
+     * content type of newline delimited JSON.
+     */
+    public static final String CONTENT_TYPE = "application/x-ndjson;charset=UTF-8";
+
+    /**
+     * the xpath config provider.
+     */
+    private final ConfigProvider xPathConfigProvider;
+
+    /**
+     * Constructor
+     *
+     * @param xPathConfigProvider
+     *            the xpath config provider
+     */
+    public XPathResultsApi(ConfigProvider xPathConfigProvider) {
+        this.xPathConfigProvider = xPathConfigProvider;
+    }
+
+    /**
+     * Streams the results of the config defined by the given id. The scan is cancelled if the client goes away.
+     *
+     * @param req
+     *            request
+     * @param rsp
+     *            response
+     * @param configId
+     *            the id of the config
+     * @throws IOException
+     */
+    public void doResults(StaplerRequest req, StaplerResponse rsp, @QueryParameter("id") String configId) throws IOException {
+        Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+
+        Config config = this.xPathConfigProvider.getConfigById(configId);
+        if (!(config instanceof XPathConfig)) {
+            rsp.sendError(StaplerResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        rsp.setContentType(CONTENT_TYPE);
+        Writer out = new OutputStreamWriter(rsp.getOutputStream(), "UTF-8");
+
+        ProjectCollector.init();
+        try {
+            write((XPathConfig) config, ProjectCollector.getProjectsList(), out);
+        } finally {
+            ProjectCollector.release((XPathConfig) config);
+        }
+    }
+
+    /**
+     * Scans the given projects and writes the records of the given xpath config.
+     *
+     * @param config
+     *            the xpath config
+     * @param projects
+     *            the projects to scan
+     * @param out
+     *            receives the records, flushed after every distinct xml block and at the end
+     * @throws IOException
+     *             if a record can't be written, the scan is cancelled then
+     */
+    @SuppressWarnings("rawtypes")
+    public static void write(XPathConfig config, List< AbstractProject > projects, final Writer out) throws IOException {
+        final XPathScanner scanner = new XPathScanner(Collections.singletonList(config));
+        final Set< String > digests = new HashSet< String >();
+        final IOException[] failure = new IOException[1];
+        final int[] counts = new int[2];
+        final int[] lastPosition = { -1 };
+
+        try {
+            scanner.scan(projects, new XPathScanner.Listener() {
+                public void onXmlBlock(XPathConfig config, int position, AbstractProject project, XmlBlock xmlBlock) {
+                    try {
+                        if (xmlBlock == null) {
+                            counts[1]++;
+                            out.write("{\"type\":\"notAssigned\",\"job\":" + quote(project.getFullName()) + "}\n");
+                            return;
+                        }
+                        if (position != lastPosition[0]) {
+                            lastPosition[0] = position;
+                            counts[0]++;
+                        }
+                        String digest = xmlBlock.getDigest();
+                        if (digests.add(digest)) {
+                            out.write("{\"type\":\"block\",\"digest\":" + quote(digest) + ",\"xml\":" + quote(xmlBlock.getXmlblock()) + "}\n");
+                            out.flush();
+                        }
+                        out.write("{\"type\":\"job\",\"job\":" + quote(project.getFullName()) + ",\"digest\":" + quote(digest) + "}\n");
+                    } catch (IOException e) {
+                        failure[0] = e;
+                        scanner.cancel();
+                    }
+                }
+            });
+        } catch (CancellationException e) {
+            if (failure[0] != null) {
+                Log.debug("Client went away, xpath config scan cancelled", failure[0]);
+                throw failure[0];
+            }
+            throw e;
+        }
+
+        out.write("{\"type\":\"end\",\"jobs\":" + (counts[0] + counts[1]) + ",\"blocks\":" + digests.size() + ",\"notAssigned\":" + counts[1] + "}\n");
+        out.flush();
+    }
+
+    /**
+     * Returns the given text as JSON string literal.
+     *
+     * @param text
+     *            the text
+     * @return the quoted and escaped text
+     */
+    static String quote(String text) {
+        StringBuilder sb = new StringBuilder(text.length() + 16);
+        sb.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            default:
+                if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                    sb.append(String.format("\\u%04x", (int) c));
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
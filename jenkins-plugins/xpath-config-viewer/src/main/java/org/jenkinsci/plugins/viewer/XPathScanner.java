@@ -0,0 +1,623 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import hudson.model.AbstractProject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.dom4j.XPath;
+import org.jfree.util.Log;
+
+/**
+ * Evaluates several xpath configs in a single pass over the projects. Every config.xml is read once and all xpath
+ * configs are evaluated against its document while it is open. If all xpath configs selecting a project are simple
+ * absolute paths, its config.xml is streamed instead of parsed into a document. If they all only look below a common
+ * element path, only that part of the document is built, see {@link PathPrefixReader}.
+ *
+ * An xpath config grouping on all matches passes one xml block per distinct matched node of a project, so a project can
+ * be part of several groups. These configs are evaluated against the document, the streaming evaluator only
+ * materializes the first match. Expressions returning a string, number or boolean are grouped by value, see
+ * {@link XPathConfig#isValueExpression()}. A composite config evaluates all its expressions against the same document
+ * and passes one xml block for their combination, see {@link XPathConfig#selectTuple(Document)}.
+ *
+ * With an executor the projects are read and evaluated in parallel. Results are merged in project order, so the
+ * distinct xml blocks are the same as in a sequential scan. The number of projects in flight is bounded, which bounds
+ * the number of documents held at the same time.
+ *
+ * The xml blocks read from a config.xml are kept in the {@link XmlBlockCache}, unchanged files aren't read again by
+ * later scans. Reads can be throttled to a maximum rate, see {@link #setMaxReadsPerSecond(int)}.
+ *
+ * @author c031
+ *
+ */
+public class XPathScanner {
+    /**
+     * number of threads reading config.xml files in parallel, 0 to scan sequentially.
+     */
+    public static final int THREADS = Integer.getInteger(XPathScanner.class.getName() + ".threads", 0);
+
+    /**
+     * maximum number of projects read but not yet merged.
+     */
+    public static final int MAX_IN_FLIGHT = Integer.getInteger(XPathScanner.class.getName() + ".maxInFlight", Math.max(THREADS, 1) * 4);
+
+    /**
+     * the executor shared by all parallel scans.
+     */
+    private static ExecutorService sharedExecutor;
+
+    /**
+     * the xpath configs to evaluate.
+     */
+    private final List< XPathConfig > configs;
+
+    /**
+     * the executor reading config.xml files, null to scan sequentially.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * maximum number of projects read but not yet merged.
+     */
+    private final int maxInFlight;
+
+    /**
+     * the xml blocks kept from previous scans.
+     */
+    private final XmlBlockCache cache = XmlBlockCache.getInstance();
+
+    /**
+     * set when the scan is cancelled.
+     */
+    private volatile boolean cancelled;
+
+    /**
+     * minimum nanoseconds between two config.xml reads, 0 to read as fast as possible.
+     */
+    private long readInterval;
+
+    /**
+     * earliest time of the next config.xml read, see {@link System#nanoTime()}.
+     */
+    private long nextRead;
+
+    /**
+     * Constructor
+     *
+     * @param configs
+     *            the xpath configs to evaluate.
+     */
+    public XPathScanner(Collection< XPathConfig > configs) {
+        this(configs, getSharedExecutor(), MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param configs
+     *            the xpath configs to evaluate.
+     * @param executor
+     *            the executor reading config.xml files, null to scan sequentially.
+     * @param maxInFlight
+     *            maximum number of projects read but not yet merged.
+     */
+    public XPathScanner(Collection< XPathConfig > configs, ExecutorService executor, int maxInFlight) {
+        this.configs = new ArrayList< XPathConfig >(configs);
+        this.executor = executor;
+        this.maxInFlight = Math.max(maxInFlight, 1);
+    }
+
+    /**
+     * Returns the executor shared by all parallel scans.
+     *
+     * @return the executor or null if parallel scanning is disabled
+     */
+    private static synchronized ExecutorService getSharedExecutor() {
+        if (THREADS > 0 && sharedExecutor == null) {
+            sharedExecutor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "XPath config scanner " + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sharedExecutor;
+    }
+
+    /**
+     * Limits the rate config.xml files are read with, so a background scan doesn't saturate the disk. Files answered
+     * from the cache don't count.
+     *
+     * @param maxReadsPerSecond
+     *            maximum number of files read per second, 0 for no limit
+     */
+    public void setMaxReadsPerSecond(int maxReadsPerSecond) {
+        synchronized (this) {
+            this.readInterval = maxReadsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / maxReadsPerSecond : 0L;
+            this.nextRead = System.nanoTime();
+        }
+    }
+
+    /**
+     * Waits until the next config.xml may be read. An interrupt while waiting cancels the scan.
+     */
+    private void throttle() {
+        long wait;
+        synchronized (this) {
+            if (this.readInterval <= 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            long slot = this.nextRead - now > 0 ? this.nextRead : now;
+            this.nextRead = slot + this.readInterval;
+            wait = slot - now;
+        }
+
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.cancelled = true;
+            }
+        }
+    }
+
+    /**
+     * Cancels the scan. A running {@link #scan(List)} stops reading further projects and throws a
+     * {@link CancellationException}.
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    /**
+     * Scans the given projects and returns the distinct xml blocks of every xpath config.
+     *
+     * @param projects
+     *            the projects to scan
+     * @return the distinct xml blocks by xpath config
+     * @throws CancellationException
+     *             if the scan is cancelled or the calling thread is interrupted
+     */
+    @SuppressWarnings("rawtypes")
+    public Map< XPathConfig, List< XmlBlock > > scan(List< AbstractProject > projects) throws CancellationException {
+        final Map< XPathConfig, XmlBlockCollector > collectors = new IdentityHashMap< XPathConfig, XmlBlockCollector >();
+        for (XPathConfig config : this.configs) {
+            if (config.isValidXpath()) {
+                collectors.put(config, new XmlBlockCollector(projects));
+            }
+        }
+
+        this.scan(projects, new Listener() {
+            public void onXmlBlock(XPathConfig config, int position, AbstractProject project, XmlBlock xmlBlock) {
+                if (xmlBlock == null) {
+                    collectors.get(config).add(position, null, null);
+                } else {
+                    collectors.get(config).add(position, xmlBlock.getText(), xmlBlock.getDigest());
+                }
+            }
+        });
+
+        Map< XPathConfig, List< XmlBlock > > result = new IdentityHashMap< XPathConfig, List< XmlBlock > >();
+        for (XPathConfig config : this.configs) {
+            XmlBlockCollector collector = collectors.get(config);
+            if (collector != null) {
+                result.put(config, collector.getXmlBlocks());
+            } else {
+                result.put(config, Collections.< XmlBlock > emptyList());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Scans the given projects and passes the xml blocks of every selecting xpath config to the given listener, in
+     * project order, as soon as a project is evaluated. Nothing is kept by the scanner, so callers can stream the
+     * results.
+     *
+     * @param projects
+     *            the projects to scan
+     * @param listener
+     *            receives the xml blocks
+     * @throws CancellationException
+     *             if the scan is cancelled or the calling thread is interrupted
+     */
+    @SuppressWarnings("rawtypes")
+    public void scan(List< AbstractProject > projects, Listener listener) throws CancellationException {
+        List< XPathConfig > valid = new ArrayList< XPathConfig >();
+        for (XPathConfig config : this.configs) {
+            if (config.isValidXpath()) {
+                valid.add(config);
+            }
+        }
+
+        if (projects != null && !valid.isEmpty()) {
+            final Map< XPathConfig, String[] > steps = new IdentityHashMap< XPathConfig, String[] >();
+            for (XPathConfig config : valid) {
+                steps.put(config, config.isAllMatches() || config.isComposite() ? null : StreamingPathEvaluator.getSteps(config.getXpath()));
+            }
+
+            LinkedList< PendingProject > pending = new LinkedList< PendingProject >();
+            int position = -1;
+            try {
+                for (final AbstractProject project : projects) {
+                    position++;
+                    this.checkCancelled();
+
+                    final List< XPathConfig > selecting = new ArrayList< XPathConfig >();
+                    for (XPathConfig config : valid) {
+                        if (config.isSelected(project)) {
+                            selecting.add(config);
+                        }
+                    }
+
+                    if (selecting.isEmpty()) {
+                        continue;
+                    }
+
+                    if (this.executor == null) {
+                        merge(listener, position, project, selecting, this.evaluate(project, selecting, steps));
+                        continue;
+                    }
+
+                    if (pending.size() >= this.maxInFlight) {
+                        this.mergeFirst(listener, pending);
+                    }
+                    pending.add(new PendingProject(position, project, selecting, this.executor.submit(new Callable< XmlBlock[][] >() {
+                        public XmlBlock[][] call() {
+                            return XPathScanner.this.cancelled ? null : XPathScanner.this.evaluate(project, selecting, steps);
+                        }
+                    })));
+                }
+
+                while (!pending.isEmpty()) {
+                    this.mergeFirst(listener, pending);
+                }
+            } finally {
+                for (PendingProject p : pending) {
+                    p.future.cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Throws a CancellationException if the scan is cancelled or the calling thread is interrupted.
+     */
+    private void checkCancelled() {
+        if (this.cancelled || Thread.currentThread().isInterrupted()) {
+            this.cancelled = true;
+            throw new CancellationException("xpath config scan cancelled");
+        }
+    }
+
+    /**
+     * Waits for the first pending project and merges its xml blocks.
+     *
+     * @param listener
+     *            receives the xml blocks
+     * @param pending
+     *            the pending projects in project order
+     */
+    private void mergeFirst(Listener listener, LinkedList< PendingProject > pending) {
+        PendingProject first = pending.getFirst();
+        XmlBlock[][] blocks;
+        try {
+            blocks = first.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.cancelled = true;
+            throw new CancellationException("xpath config scan interrupted");
+        } catch (ExecutionException e) {
+            Log.error("Exception evaluating config.xml: ", e);
+            blocks = noMatch(first.selecting.size());
+        }
+        pending.removeFirst();
+        this.checkCancelled();
+        merge(listener, first.position, first.project, first.selecting, blocks);
+    }
+
+    /**
+     * Passes the xml blocks of the given project to the listener.
+     *
+     * @param listener
+     *            receives the xml blocks
+     * @param position
+     *            the position of the project in the scanned projects
+     * @param project
+     *            the project
+     * @param selecting
+     *            the evaluated xpath configs
+     * @param blocks
+     *            the xml blocks of each xpath config, empty if nothing matched
+     */
+    @SuppressWarnings("rawtypes")
+    private static void merge(Listener listener, int position, AbstractProject project, List< XPathConfig > selecting, XmlBlock[][] blocks) {
+        for (int i = 0; i < blocks.length; i++) {
+            if (blocks[i].length == 0) {
+                listener.onXmlBlock(selecting.get(i), position, project, null);
+            }
+            for (XmlBlock block : blocks[i]) {
+                listener.onXmlBlock(selecting.get(i), position, project, block);
+            }
+        }
+    }
+
+    /**
+     * Returns the result of a project none of the given number of xpath configs matched.
+     *
+     * @param size
+     *            the number of xpath configs
+     * @return an empty array of xml blocks for each xpath config
+     */
+    private static XmlBlock[][] noMatch(int size) {
+        XmlBlock[][] blocks = new XmlBlock[size][];
+        for (int i = 0; i < size; i++) {
+            blocks[i] = new XmlBlock[0];
+        }
+        return blocks;
+    }
+
+    /**
+     * Reads the config.xml of the given project once and evaluates the given xpath configs. Blocks of an unchanged
+     * config.xml are taken from the cache.
+     *
+     * @param project
+     *            the project
+     * @param selecting
+     *            the xpath configs to evaluate
+     * @param steps
+     *            the path steps by xpath config, null for expressions that can't be streamed
+     * @return the distinct xml blocks of each xpath config with text and fingerprint, empty if nothing matched
+     */
+    @SuppressWarnings("rawtypes")
+    private XmlBlock[][] evaluate(AbstractProject project, List< XPathConfig > selecting, Map< XPathConfig, String[] > steps) {
+        File file = project.getConfigFile().getFile();
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        List< String > keys = new ArrayList< String >(selecting.size());
+        for (XPathConfig config : selecting) {
+            keys.add(config.getBlockKey());
+        }
+
+        XmlBlock[][] cached = this.cache.get(file, lastModified, length, keys);
+        if (cached != null) {
+            return cached;
+        }
+
+        this.throttle();
+
+        List< List< ? > > results = new ArrayList< List< ? > >(selecting.size());
+        Element[] streamed = this.stream(file, project, selecting, steps);
+        if (streamed != null) {
+            for (Element element : streamed) {
+                results.add(element == null ? Collections.emptyList() : Collections.singletonList(element));
+            }
+        } else {
+            Document dom = this.read(file, project, selecting);
+            if (dom == null) {
+                return noMatch(selecting.size());
+            }
+            for (XPathConfig config : selecting) {
+                results.add(config.select(dom));
+            }
+        }
+
+        XmlBlock[][] blocks = new XmlBlock[results.size()][];
+        for (int i = 0; i < blocks.length; i++) {
+            long start = System.nanoTime();
+            XPathConfig config = selecting.get(i);
+            Map< String, XmlBlock > distinct = new LinkedHashMap< String, XmlBlock >();
+            for (Object result : results.get(i)) {
+                if (result instanceof XmlBlock) {
+                    // the combination of the results of a composite config
+                    distinct.put(((XmlBlock) result).getDigest(), (XmlBlock) result);
+                    continue;
+                }
+                // values are grouped as they are, only elements are serialized
+                boolean element = result instanceof Element;
+                String digest = element ? config.fingerprint((Element) result) : config.fingerprint((String) result);
+                if (!distinct.containsKey(digest)) {
+                    XmlBlock block = new XmlBlock();
+                    block.setText(BlockText.intern(digest, element ? ((Element) result).asXML() : (String) result));
+                    block.setDigest(digest);
+                    distinct.put(digest, block);
+                }
+            }
+            blocks[i] = distinct.values().toArray(new XmlBlock[distinct.size()]);
+            ScanMetrics.getInstance().record(ScanMetrics.Stage.SERIALIZE, config, System.nanoTime() - start);
+        }
+        this.cache.put(file, lastModified, length, keys, blocks);
+        return blocks;
+    }
+
+    /**
+     * Evaluates the given xpath configs by streaming the config.xml of the given project. Only possible if all of them
+     * are simple absolute paths, see {@link StreamingPathEvaluator}.
+     * 
+     * @param file
+     *            the config.xml of the project
+     * @param project
+     *            the project
+     * @param selecting
+     *            the xpath configs to evaluate
+     * @param steps
+     *            the path steps by xpath config, null for expressions that can't be streamed
+     * @return the xml block of each xpath config or null if the document has to be read
+     */
+    @SuppressWarnings("rawtypes")
+    private Element[] stream(File file, AbstractProject project, List< XPathConfig > selecting, Map< XPathConfig, String[] > steps) {
+        String[][] paths = new String[selecting.size()][];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = steps.get(selecting.get(i));
+            if (paths[i] == null) {
+                return null;
+            }
+        }
+
+        try {
+            return StreamingPathEvaluator.evaluate(file, project.getFullName(), paths);
+        } catch (Exception e) {
+            Log.debug("Streaming evaluation failed, reading document: " + project.getName(), e);
+        }
+        return null;
+    }
+
+    /**
+     * Reads the given config.xml. If all given xpath configs only look below a common element path, the document is
+     * pruned to that path, see {@link PathPrefixReader}. A single xpath config grouping on the first matched node
+     * stops reading at its match.
+     *
+     * @param file
+     *            the config.xml of a project
+     * @param project
+     *            the project
+     * @param selecting
+     *            the xpath configs to evaluate
+     * @return the document or null if it can't be read
+     */
+    @SuppressWarnings("rawtypes")
+    private Document read(File file, AbstractProject project, List< XPathConfig > selecting) {
+        String[] prefix = getPathPrefix(selecting);
+        if (prefix != null) {
+            try {
+                XPathConfig config = selecting.get(0);
+                XPath firstMatch = null;
+                if (selecting.size() == 1 && !config.isAllMatches() && !config.isValueExpression() && !config.isComposite()
+                        && PathPrefixReader.canStopAtFirstMatch(config.getXpath())) {
+                    firstMatch = config.getCompiledXpath();
+                }
+                Document pruned = PathPrefixReader.read(file, project.getFullName(), prefix, firstMatch);
+                if (pruned != null) {
+                    return pruned;
+                }
+            } catch (Exception e) {
+                Log.debug("Pruned read failed, reading document: " + project.getName(), e);
+            }
+        }
+
+        try {
+            return ParserPool.read(file, project.getFullName());
+        } catch (Exception e) {
+            Log.error("Exception reading config.xml: ", e);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the element path everything selected by the given xpath configs lies on or below.
+     *
+     * @param selecting
+     *            the xpath configs
+     * @return the common start of their paths or null if one of them may select nodes anywhere in the document
+     */
+    private static String[] getPathPrefix(List< XPathConfig > selecting) {
+        String[] common = null;
+        for (XPathConfig config : selecting) {
+            String[] prefix = config.getPathPrefix();
+            if (prefix == null) {
+                return null;
+            }
+            if (common == null) {
+                common = prefix;
+            } else {
+                int length = 0;
+                while (length < common.length && length < prefix.length && common[length].equals(prefix[length])) {
+                    length++;
+                }
+                if (length == 0) {
+                    return null;
+                }
+                common = Arrays.copyOf(common, length);
+            }
+        }
+        return common;
+    }
+
+    /**
+     * Receives the xml blocks of a scan.
+     */
+    public interface Listener {
+        /**
+         * Called for every project and xpath config selecting it, in project order. Called once for every distinct
+         * xml block of the project if the xpath config groups on all matches.
+         *
+         * @param config
+         *            the xpath config
+         * @param position
+         *            the position of the project in the scanned projects
+         * @param project
+         *            the project
+         * @param xmlBlock
+         *            the text and fingerprint of the xml block, without projects, or null if nothing matched
+         */
+        @SuppressWarnings("rawtypes")
+        void onXmlBlock(XPathConfig config, int position, AbstractProject project, XmlBlock xmlBlock);
+    }
+
+    /**
+     * A project read by the executor, waiting to be merged.
+     */
+    @SuppressWarnings("rawtypes")
+    private static final class PendingProject {
+        private final int position;
+        private final AbstractProject project;
+        private final List< XPathConfig > selecting;
+        private final Future< XmlBlock[][] > future;
+
+        private PendingProject(int position, AbstractProject project, List< XPathConfig > selecting, Future< XmlBlock[][] > future) {
+            this.position = position;
+            this.project = project;
+            this.selecting = selecting;
+            this.future = future;
+        }
+    }
+}
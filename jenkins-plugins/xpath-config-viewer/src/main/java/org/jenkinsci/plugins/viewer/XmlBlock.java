@@ -26,47 +26,99 @@ package org.jenkinsci.plugins.viewer;
 import hudson.Util;
 import hudson.model.AbstractProject;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.AbstractList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import org.apache.commons.lang.StringUtils;
 
 /**
  * Represents an xml element which exists in the linked AbstractProjects.
  * 
+ * The text is a shared {@link BlockText}. The linked projects are kept as a set of positions in the list of scanned
+ * projects, which is shared by all blocks of a scan.
+ * 
  * @author c031
  *
  */
 public class XmlBlock {
 
+    /**
+     * hex digits.
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
     /**
      * xml block from config.xml
      */
-    private String xmlblock;
+    private BlockText xmlblock;
     /**
-     * list of related projects.
+     * content digest of the xml block.
+     */
+    private String digest;
+    /**
+     * the scanned projects the related projects are taken from.
      */
     @SuppressWarnings("rawtypes")
-    private List< AbstractProject> projects;
+    private List< AbstractProject> universe = Collections.emptyList();
+    /**
+     * positions of the related projects in the scanned projects.
+     */
+    private BitSet members = new BitSet();
 
     /**
      * @return the xmlblock
      */
     public String getXmlblock() {
-        return xmlblock;
+        return xmlblock == null ? null : xmlblock.toString();
     }
 
     /**
      * @param xmlblock the xmlblock to set
      */
     public void setXmlblock(String xmlblock) {
-        this.xmlblock = xmlblock;
+        this.xmlblock = xmlblock == null ? null : BlockText.of(xmlblock);
+    }
+
+    /**
+     * @return the shared text of the xml block
+     */
+    public BlockText getText() {
+        return xmlblock;
+    }
+
+    /**
+     * @param text the shared text of the xml block to set
+     */
+    public void setText(BlockText text) {
+        this.xmlblock = text;
+    }
+
+    /**
+     * @return the content digest of the xml block
+     */
+    public String getDigest() {
+        return digest;
     }
 
     /**
-     * @return the projects
+     * @param digest the content digest to set
+     */
+    public void setDigest(String digest) {
+        this.digest = digest;
+    }
+
+    /**
+     * @return the unmodifiable list of related projects
      */
     @SuppressWarnings("rawtypes")
     public List< AbstractProject> getProjects() {
-        return projects;
+        return new ProjectList();
     }
 
     /**
@@ -74,7 +126,33 @@ public class XmlBlock {
      */
     @SuppressWarnings("rawtypes")
     public void setProjects(List< AbstractProject> projects) {
-        this.projects = projects;
+        BitSet all = new BitSet(projects.size());
+        all.set(0, projects.size());
+        this.setMembers(projects, all);
+    }
+
+    /**
+     * Sets the related projects.
+     * 
+     * @param universe
+     *            the scanned projects
+     * @param members
+     *            the positions of the related projects in the scanned projects
+     */
+    @SuppressWarnings("rawtypes")
+    void setMembers(List< AbstractProject> universe, BitSet members) {
+        this.universe = universe;
+        this.members = members;
+    }
+
+    /**
+     * Adds the project at the given position of the scanned projects to the related projects.
+     * 
+     * @param position
+     *            the position of the project
+     */
+    void addMember(int position) {
+        this.members.set(position);
     }
     
     /**
@@ -82,7 +160,74 @@ public class XmlBlock {
      * @return the HTML escaped xml block
      */
     public String getEscapedXmlblock() {
-        return Util.escape(this.xmlblock);
+        return Util.escape(this.getXmlblock());
+    }
+
+    /**
+     * Writes the HTML escaped xml block to the given writer, without building the escaped text in memory. Escapes
+     * like {@link Util#escape(String)}.
+     * 
+     * @param out
+     *            the writer, e.g. the output of the view
+     * @throws IOException
+     *             if the block can't be written
+     */
+    public void writeEscapedXmlblock(Writer out) throws IOException {
+        if (this.xmlblock == null) {
+            return;
+        }
+
+        Reader reader = this.xmlblock.openReader();
+        try {
+            char[] buffer = new char[4096];
+            boolean space = false;
+            for (int n = reader.read(buffer); n >= 0; n = reader.read(buffer)) {
+                for (int i = 0; i < n; i++) {
+                    char ch = buffer[i];
+                    // a space followed by another space is written as non-breaking space
+                    if (space) {
+                        out.write(ch == ' ' ? "&nbsp;" : " ");
+                        space = false;
+                    }
+                    if (ch == '\n') {
+                        out.write("<br>");
+                    } else if (ch == '<') {
+                        out.write("&lt;");
+                    } else if (ch == '&') {
+                        out.write("&amp;");
+                    } else if (ch == '"') {
+                        out.write("&quot;");
+                    } else if (ch == '\'') {
+                        out.write("&#039;");
+                    } else if (ch == ' ') {
+                        space = true;
+                    } else {
+                        out.write(ch);
+                    }
+                }
+            }
+            if (space) {
+                out.write(' ');
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Returns the given digest hex encoded.
+     * 
+     * @param hash
+     *            the digest
+     * @return the hex encoded digest
+     */
+    static String hex(byte[] hash) {
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[hash[i] & 0xf];
+        }
+        return new String(hex);
     }
 
     /* (non-Javadoc)
@@ -90,8 +235,9 @@ public class XmlBlock {
      */
     @Override
     public int hashCode() {
-        if (StringUtils.isNotBlank(xmlblock)) {
-            return this.xmlblock.hashCode();
+        String text = this.getXmlblock();
+        if (StringUtils.isNotBlank(text)) {
+            return text.hashCode();
         }
         return super.hashCode();
     }
@@ -102,10 +248,64 @@ public class XmlBlock {
     @Override
     public boolean equals(Object obj) {
 
-        if (obj instanceof XmlBlock && StringUtils.isNotBlank(xmlblock) && StringUtils.isNotBlank(((XmlBlock) obj).xmlblock)) {
-            return this.xmlblock.equals(((XmlBlock) obj).xmlblock);
+        if (obj instanceof XmlBlock) {
+            String text = this.getXmlblock();
+            String other = ((XmlBlock) obj).getXmlblock();
+            if (StringUtils.isNotBlank(text) && StringUtils.isNotBlank(other)) {
+                return text.equals(other);
+            }
         }
 
         return super.equals(obj);
     }
+
+    /**
+     * The related projects, resolved from their positions in the scanned projects.
+     */
+    @SuppressWarnings("rawtypes")
+    private final class ProjectList extends AbstractList< AbstractProject > {
+        @Override
+        public AbstractProject get(int index) {
+            if (index < 0) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+            int position = members.nextSetBit(0);
+            for (int i = 0; i < index && position >= 0; i++) {
+                position = members.nextSetBit(position + 1);
+            }
+            if (position < 0) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+            return universe.get(position);
+        }
+
+        @Override
+        public int size() {
+            return members.cardinality();
+        }
+
+        @Override
+        public Iterator< AbstractProject > iterator() {
+            return new Iterator< AbstractProject >() {
+                private int position = members.nextSetBit(0);
+
+                public boolean hasNext() {
+                    return this.position >= 0;
+                }
+
+                public AbstractProject next() {
+                    if (this.position < 0) {
+                        throw new NoSuchElementException();
+                    }
+                    AbstractProject project = universe.get(this.position);
+                    this.position = members.nextSetBit(this.position + 1);
+                    return project;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
 }
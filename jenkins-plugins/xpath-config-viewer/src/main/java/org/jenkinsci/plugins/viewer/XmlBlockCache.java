@@ -0,0 +1,279 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the xml blocks extracted from config.xml files between renders, so that unchanged files aren't read again.
+ *
+ * Entries are keyed by file path and hold the serialized xml blocks and fingerprints of every xpath config evaluated
+ * against the file, see {@link XPathConfig#getBlockKey()}. An entry is only used while the lastModified and length of the file are the ones it was read with. Entries
+ * are evicted least recently used first once the estimated size of all entries exceeds the memory budget.
+ *
+ * @author c031
+ *
+ */
+public class XmlBlockCache {
+    /**
+     * default memory budget in bytes.
+     */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * estimated bytes of an entry or a block mapping besides its strings.
+     */
+    private static final int OVERHEAD = 64;
+
+    /**
+     * the cache shared by all scans.
+     */
+    private static final XmlBlockCache INSTANCE = new XmlBlockCache(Long.getLong(XmlBlockCache.class.getName() + ".maxBytes", DEFAULT_MAX_BYTES));
+
+    /**
+     * the memory budget in bytes.
+     */
+    private final long maxBytes;
+
+    /**
+     * entries by file path, least recently used first.
+     */
+    private final LinkedHashMap< String, Entry > entries = new LinkedHashMap< String, Entry >(16, 0.75f, true);
+
+    /**
+     * estimated size of all entries in bytes.
+     */
+    private long bytes;
+
+    /**
+     * number of lookups answered from the cache.
+     */
+    private long hits;
+
+    /**
+     * number of lookups the file had to be read for.
+     */
+    private long misses;
+
+    /**
+     * number of entries evicted to stay within the memory budget.
+     */
+    private long evictions;
+
+    /**
+     * Constructor
+     *
+     * @param maxBytes
+     *            the memory budget in bytes, 0 disables the cache.
+     */
+    public XmlBlockCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the cache shared by all scans.
+     *
+     * @return the shared cache
+     */
+    public static XmlBlockCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the cached xml blocks of the given xpath configs.
+     *
+     * @param file
+     *            the config.xml file
+     * @param lastModified
+     *            the current lastModified of the file
+     * @param length
+     *            the current length of the file
+     * @param keys
+     *            the block keys of the xpath configs
+     * @return the xml blocks of each config with text and digest, empty for configs without match. Returns null if the
+     *         file has changed or a config hasn't been evaluated yet.
+     */
+    public synchronized XmlBlock[][] get(File file, long lastModified, long length, List< String > keys) {
+        Entry entry = this.entries.get(file.getPath());
+        if (entry == null || entry.lastModified != lastModified || entry.length != length) {
+            this.misses++;
+            return null;
+        }
+
+        XmlBlock[][] blocks = new XmlBlock[keys.size()][];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = entry.blocks.get(keys.get(i));
+            if (blocks[i] == null) {
+                this.misses++;
+                return null;
+            }
+        }
+        this.hits++;
+        return blocks;
+    }
+
+    /**
+     * Stores the xml blocks of the given xpath configs. Blocks of other configs read from the same version of the file
+     * are kept.
+     *
+     * @param file
+     *            the config.xml file
+     * @param lastModified
+     *            the lastModified of the file before it was read
+     * @param length
+     *            the length of the file before it was read
+     * @param keys
+     *            the block keys of the xpath configs
+     * @param blocks
+     *            the xml blocks of each config with text and digest, empty for configs without match
+     */
+    public synchronized void put(File file, long lastModified, long length, List< String > keys, XmlBlock[][] blocks) {
+        if (this.maxBytes <= 0 || lastModified == 0L) {
+            return;
+        }
+
+        String key = file.getPath();
+        Entry entry = this.entries.remove(key);
+        if (entry != null) {
+            this.bytes -= entry.bytes;
+        }
+        if (entry == null || entry.lastModified != lastModified || entry.length != length) {
+            entry = new Entry(lastModified, length, OVERHEAD + 2L * key.length());
+        }
+
+        for (int i = 0; i < blocks.length; i++) {
+            String blockKey = keys.get(i);
+            XmlBlock[] previous = entry.blocks.put(blockKey, blocks[i]);
+            if (previous == null) {
+                entry.bytes += OVERHEAD + 2L * blockKey.length();
+            } else {
+                entry.bytes -= weight(previous);
+            }
+            entry.bytes += weight(blocks[i]);
+        }
+
+        if (entry.bytes > this.maxBytes) {
+            return;
+        }
+        this.entries.put(key, entry);
+        this.bytes += entry.bytes;
+
+        Iterator< Entry > eldest = this.entries.values().iterator();
+        while (this.bytes > this.maxBytes) {
+            Entry evicted = eldest.next();
+            eldest.remove();
+            this.bytes -= evicted.bytes;
+            this.evictions++;
+        }
+    }
+
+    /**
+     * Returns the estimated size of the given blocks in bytes.
+     *
+     * @param blocks
+     *            the xml blocks
+     * @return the estimated size
+     */
+    private static long weight(XmlBlock[] blocks) {
+        long weight = 0;
+        for (XmlBlock block : blocks) {
+            weight += OVERHEAD + block.getText().getSize() + 2L * block.getDigest().length();
+        }
+        return weight;
+    }
+
+    /**
+     * Removes all entries and resets the counters.
+     */
+    public synchronized void clear() {
+        this.entries.clear();
+        this.bytes = 0;
+        this.hits = 0;
+        this.misses = 0;
+        this.evictions = 0;
+    }
+
+    /**
+     * @return the memory budget in bytes
+     */
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    /**
+     * @return the estimated size of all entries in bytes
+     */
+    public synchronized long getBytes() {
+        return this.bytes;
+    }
+
+    /**
+     * @return the number of cached files
+     */
+    public synchronized int getSize() {
+        return this.entries.size();
+    }
+
+    /**
+     * @return the number of lookups answered from the cache
+     */
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    /**
+     * @return the number of lookups the file had to be read for
+     */
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * @return the number of entries evicted to stay within the memory budget
+     */
+    public synchronized long getEvictions() {
+        return this.evictions;
+    }
+
+    /**
+     * The xml blocks read from one version of a config.xml file.
+     */
+    private static final class Entry {
+        private final long lastModified;
+        private final long length;
+        private final Map< String, XmlBlock[] > blocks = new HashMap< String, XmlBlock[] >();
+        private long bytes;
+
+        private Entry(long lastModified, long length, long bytes) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.bytes = bytes;
+        }
+    }
+}
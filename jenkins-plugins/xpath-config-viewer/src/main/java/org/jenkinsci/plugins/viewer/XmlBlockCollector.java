@@ -0,0 +1,187 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import hudson.model.AbstractProject;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dom4j.Element;
+
+/**
+ * Groups the projects of one xpath config by the xml block selected from their config.xml.
+ *
+ * Blocks are indexed by their fingerprint, see {@link XmlFingerprint}. Equivalent blocks are grouped together and
+ * adding a project costs the same no matter how many distinct blocks exist. Projects are added by their position in
+ * the scanned projects, every group only keeps a bit set of positions.
+ *
+ * @author c031
+ *
+ */
+public class XmlBlockCollector {
+    /**
+     * fingerprint of blocks added as element, without normalized whitespace or order.
+     */
+    private static final XmlFingerprint DEFAULT_FINGERPRINT = new XmlFingerprint(false, false);
+
+    /**
+     * the scanned projects, positions refer to this list.
+     */
+    @SuppressWarnings("rawtypes")
+    private final List< AbstractProject > universe;
+
+    /**
+     * true if the scanned projects are given, otherwise projects are appended when added.
+     */
+    private final boolean shared;
+
+    /**
+     * distinct xml blocks by fingerprint in order of their first occurrence.
+     */
+    private final Map< String, XmlBlock > xmlBlocks = new LinkedHashMap< String, XmlBlock >();
+
+    /**
+     * positions of the projects without a matching xml block.
+     */
+    private final BitSet notAssigned = new BitSet();
+
+    /**
+     * Constructor for projects added one by one.
+     */
+    public XmlBlockCollector() {
+        this(null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param universe
+     *            the scanned projects, projects are added by their position in this list. Null to add projects one
+     *            by one.
+     */
+    @SuppressWarnings("rawtypes")
+    public XmlBlockCollector(List< AbstractProject > universe) {
+        this.shared = universe != null;
+        this.universe = this.shared ? universe : new ArrayList< AbstractProject >();
+    }
+
+    /**
+     * Adds the given project to the group of the given xml block.
+     *
+     * @param project
+     *            the project
+     * @param xmlBlockElement
+     *            the xml block selected from the config.xml of the project or null if nothing matched.
+     */
+    @SuppressWarnings("rawtypes")
+    public void add(AbstractProject project, Element xmlBlockElement) {
+        if (xmlBlockElement == null) {
+            this.add(project, null, null);
+            return;
+        }
+
+        String digest = DEFAULT_FINGERPRINT.fingerprint(xmlBlockElement);
+        this.add(this.append(project), BlockText.intern(digest, xmlBlockElement.asXML()), digest);
+    }
+
+    /**
+     * Adds the given project to the group of the given xml block.
+     *
+     * @param project
+     *            the project
+     * @param xmlBlockStr
+     *            the serialized xml block or null if nothing matched.
+     * @param digest
+     *            the fingerprint of the xml block, the text of its first occurrence is kept
+     */
+    @SuppressWarnings("rawtypes")
+    public void add(AbstractProject project, String xmlBlockStr, String digest) {
+        this.add(this.append(project), xmlBlockStr == null ? null : BlockText.intern(digest, xmlBlockStr), digest);
+    }
+
+    /**
+     * Adds the project at the given position of the scanned projects to the group of the given xml block.
+     *
+     * @param position
+     *            the position of the project in the scanned projects
+     * @param text
+     *            the text of the xml block or null if nothing matched.
+     * @param digest
+     *            the fingerprint of the xml block, the text of its first occurrence is kept
+     */
+    public void add(int position, BlockText text, String digest) {
+        if (text == null) {
+            this.notAssigned.set(position);
+            return;
+        }
+
+        XmlBlock xmlBlock = this.xmlBlocks.get(digest);
+        if (xmlBlock == null) {
+            xmlBlock = new XmlBlock();
+            xmlBlock.setText(text);
+            xmlBlock.setDigest(digest);
+            xmlBlock.setMembers(this.universe, new BitSet());
+            this.xmlBlocks.put(digest, xmlBlock);
+        }
+        xmlBlock.addMember(position);
+    }
+
+    /**
+     * Appends the given project to the projects added one by one.
+     *
+     * @param project
+     *            the project
+     * @return the position of the project
+     */
+    @SuppressWarnings("rawtypes")
+    private int append(AbstractProject project) {
+        if (this.shared) {
+            throw new IllegalStateException("projects are added by position");
+        }
+        this.universe.add(project);
+        return this.universe.size() - 1;
+    }
+
+    /**
+     * Returns the distinct xml blocks followed by the block of not assigned projects, if any.
+     *
+     * @return the list of distinct xml blocks
+     */
+    public List< XmlBlock > getXmlBlocks() {
+        List< XmlBlock > result = new ArrayList< XmlBlock >(this.xmlBlocks.values());
+
+        if (!this.notAssigned.isEmpty()) {
+            XmlBlock notAssignedBlock = new XmlBlock();
+            notAssignedBlock.setXmlblock(XPathConfig.NOT_ASSIGNED);
+            notAssignedBlock.setMembers(this.universe, this.notAssigned);
+            result.add(notAssignedBlock);
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,467 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import hudson.Util;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.dom4j.Attribute;
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.jfree.util.Log;
+
+/**
+ * The differences of an xml block from the baseline of its xpath config, the xml block shared by most jobs, so that
+ * the outliers of a selector are seen as changes against the standard configuration instead of as full texts.
+ *
+ * Both blocks are parsed and compared as trees. Every element is fingerprinted once, bottom up, see
+ * {@link XmlFingerprint#subtreeFingerprints(Element)}, and children with the same fingerprint on both sides are paired
+ * without being compared. The remaining children are paired by name in document order and compared recursively,
+ * children left over are reported as added or removed. The whitespace and order options of the xpath config apply.
+ * Values, and blocks that can't be parsed, are compared as text. The results of a composite config are compared one by
+ * one.
+ *
+ * Differences are computed when a block is opened and kept by the fingerprints of both blocks, see
+ * {@link #of(XPathConfig, XmlBlock, XmlBlock)}.
+ *
+ * @author c031
+ *
+ */
+public class XmlBlockDiff {
+    /**
+     * maximum number of differences kept.
+     */
+    public static final int MAX_CACHED = Integer.getInteger(XmlBlockDiff.class.getName() + ".maxCached", 1000);
+
+    /**
+     * maximum number of characters of a text shown in a change.
+     */
+    private static final int MAX_TEXT = 500;
+
+    /**
+     * computed differences by block key and fingerprints of both blocks, least recently used first.
+     */
+    private static final LinkedHashMap< String, XmlBlockDiff > CACHE = new LinkedHashMap< String, XmlBlockDiff >(16, 0.75f, true);
+
+    /**
+     * The kinds of changes.
+     */
+    public enum Kind {
+        /** only in the xml block. */
+        ADDED,
+        /** only in the baseline. */
+        REMOVED,
+        /** in both with different text or value. */
+        CHANGED,
+        /** the same children in a different order. */
+        MOVED
+    }
+
+    /**
+     * the changes in the order they were found.
+     */
+    private final List< Change > changes = new ArrayList< Change >();
+
+    /**
+     * the fingerprints of the xml block being compared.
+     */
+    private Map< Element, String > fingerprints;
+
+    /**
+     * the fingerprints of the baseline being compared.
+     */
+    private Map< Element, String > baselineFingerprints;
+
+    /**
+     * Constructor
+     *
+     * @param config
+     *            the xpath config the blocks were selected by
+     * @param baseline
+     *            the text of the baseline
+     * @param text
+     *            the text of the xml block
+     */
+    XmlBlockDiff(XPathConfig config, String baseline, String text) {
+        XmlFingerprint fingerprint = config.getFingerprint();
+        if (!config.isComposite()) {
+            this.compare(fingerprint, "", baseline, text);
+        } else {
+            List< String > expressions = config.getExpressions();
+            List< String > baselineComponents = XPathConfig.getComponents(baseline);
+            List< String > components = XPathConfig.getComponents(text);
+            for (int i = 0; i < expressions.size(); i++) {
+                String a = i < baselineComponents.size() ? baselineComponents.get(i) : XPathConfig.NOT_ASSIGNED;
+                String b = i < components.size() ? components.get(i) : XPathConfig.NOT_ASSIGNED;
+                if (!a.equals(b)) {
+                    this.compare(fingerprint, expressions.get(i), a, b);
+                }
+            }
+        }
+
+        // the parsed trees are not kept with the cached changes
+        this.fingerprints = null;
+        this.baselineFingerprints = null;
+    }
+
+    /**
+     * Returns the xml block shared by most jobs.
+     *
+     * @param xmlBlocks
+     *            the distinct xml blocks of an xpath config
+     * @return the first of the xml blocks with most jobs, null if there is none besides the jobs without xml block
+     */
+    public static XmlBlock getBaseline(List< XmlBlock > xmlBlocks) {
+        XmlBlock baseline = null;
+        for (XmlBlock xmlBlock : xmlBlocks) {
+            if (xmlBlock.getDigest() != null && (baseline == null || xmlBlock.getProjects().size() > baseline.getProjects().size())) {
+                baseline = xmlBlock;
+            }
+        }
+        return baseline;
+    }
+
+    /**
+     * Returns the differences of the given xml block from the given baseline, computed on first request.
+     *
+     * @param config
+     *            the xpath config the blocks were selected by
+     * @param baseline
+     *            the baseline, see {@link #getBaseline(List)}
+     * @param xmlBlock
+     *            the xml block
+     * @return the differences
+     */
+    public static XmlBlockDiff of(XPathConfig config, XmlBlock baseline, XmlBlock xmlBlock) {
+        String key = config.getBlockKey() + "\n" + baseline.getDigest() + "\n" + xmlBlock.getDigest();
+        synchronized (CACHE) {
+            XmlBlockDiff diff = CACHE.get(key);
+            if (diff != null) {
+                return diff;
+            }
+        }
+
+        XmlBlockDiff diff = new XmlBlockDiff(config, baseline.getXmlblock(), xmlBlock.getXmlblock());
+        synchronized (CACHE) {
+            CACHE.put(key, diff);
+            Iterator< XmlBlockDiff > eldest = CACHE.values().iterator();
+            while (CACHE.size() > MAX_CACHED) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        return diff;
+    }
+
+    /**
+     * Drops all computed differences.
+     */
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+
+    /**
+     * @return the number of computed differences kept
+     */
+    static int getCached() {
+        synchronized (CACHE) {
+            return CACHE.size();
+        }
+    }
+
+    /**
+     * @return the changes, changed and added nodes in document order followed by the removed nodes of each element
+     */
+    public List< Change > getChanges() {
+        return Collections.unmodifiableList(this.changes);
+    }
+
+    /**
+     * Compares two texts, as trees if both are xml.
+     *
+     * @param fingerprint
+     *            the fingerprint options of the xpath config
+     * @param path
+     *            the expression of the texts for a composite config, otherwise empty
+     * @param baseline
+     *            the text of the baseline
+     * @param text
+     *            the text of the xml block
+     */
+    private void compare(XmlFingerprint fingerprint, String path, String baseline, String text) {
+        if (XPathConfig.NOT_ASSIGNED.equals(baseline)) {
+            this.changes.add(new Change(Kind.ADDED, path, null, text));
+            return;
+        }
+        if (XPathConfig.NOT_ASSIGNED.equals(text)) {
+            this.changes.add(new Change(Kind.REMOVED, path, baseline, null));
+            return;
+        }
+
+        Element a = parse(baseline);
+        Element b = a == null ? null : parse(text);
+        if (a == null || b == null) {
+            this.changes.add(new Change(Kind.CHANGED, path, baseline, text));
+            return;
+        }
+
+        this.baselineFingerprints = fingerprint.subtreeFingerprints(a);
+        this.fingerprints = fingerprint.subtreeFingerprints(b);
+        this.compare(fingerprint, path.length() == 0 ? "" : path + " ", a, b);
+    }
+
+    /**
+     * Compares two elements of the same name.
+     *
+     * @param fingerprint
+     *            the fingerprint options of the xpath config
+     * @param prefix
+     *            the path of the texts the elements are part of
+     * @param a
+     *            the element of the baseline
+     * @param b
+     *            the element of the xml block
+     */
+    @SuppressWarnings("unchecked")
+    private void compare(XmlFingerprint fingerprint, String prefix, Element a, Element b) {
+        if (this.baselineFingerprints.get(a).equals(this.fingerprints.get(b))) {
+            return;
+        }
+
+        String path = prefix + b.getUniquePath();
+        if (!a.getQualifiedName().equals(b.getQualifiedName())) {
+            this.changes.add(new Change(Kind.CHANGED, path, a.asXML(), b.asXML()));
+            return;
+        }
+
+        for (Attribute attribute : (List< Attribute >) a.attributes()) {
+            Attribute other = b.attribute(attribute.getQName());
+            if (other == null) {
+                this.changes.add(new Change(Kind.REMOVED, path + "/@" + attribute.getQualifiedName(), attribute.getValue(), null));
+            } else if (!attribute.getValue().equals(other.getValue())) {
+                this.changes.add(new Change(Kind.CHANGED, path + "/@" + attribute.getQualifiedName(), attribute.getValue(), other.getValue()));
+            }
+        }
+        for (Attribute attribute : (List< Attribute >) b.attributes()) {
+            if (a.attribute(attribute.getQName()) == null) {
+                this.changes.add(new Change(Kind.ADDED, path + "/@" + attribute.getQualifiedName(), null, attribute.getValue()));
+            }
+        }
+
+        String textA = fingerprint.text(a);
+        String textB = fingerprint.text(b);
+        if (!textA.equals(textB)) {
+            this.changes.add(new Change(Kind.CHANGED, path + "/text()", textA, textB));
+        }
+
+        this.compareChildren(fingerprint, prefix, path, a.elements(), b.elements());
+    }
+
+    /**
+     * Pairs the child elements of two elements and compares them.
+     *
+     * @param fingerprint
+     *            the fingerprint options of the xpath config
+     * @param prefix
+     *            the path of the texts the elements are part of
+     * @param path
+     *            the path of the parent element
+     * @param as
+     *            the children of the baseline element
+     * @param bs
+     *            the children of the element of the xml block
+     */
+    private void compareChildren(XmlFingerprint fingerprint, String prefix, String path, List< Element > as, List< Element > bs) {
+        // identical subtrees are paired by fingerprint and never compared
+        Map< String, LinkedList< Integer > > unpaired = new HashMap< String, LinkedList< Integer > >();
+        for (int i = 0; i < as.size(); i++) {
+            String key = this.baselineFingerprints.get(as.get(i));
+            LinkedList< Integer > positions = unpaired.get(key);
+            if (positions == null) {
+                positions = new LinkedList< Integer >();
+                unpaired.put(key, positions);
+            }
+            positions.add(i);
+        }
+
+        int[] pairs = new int[bs.size()];
+        boolean[] paired = new boolean[as.size()];
+        for (int j = 0; j < bs.size(); j++) {
+            LinkedList< Integer > positions = unpaired.get(this.fingerprints.get(bs.get(j)));
+            pairs[j] = positions == null || positions.isEmpty() ? -1 : positions.removeFirst();
+            if (pairs[j] >= 0) {
+                paired[pairs[j]] = true;
+            }
+        }
+
+        // the others by name, in document order
+        for (int j = 0; j < bs.size(); j++) {
+            if (pairs[j] >= 0) {
+                continue;
+            }
+            String name = bs.get(j).getQualifiedName();
+            for (int i = 0; i < as.size(); i++) {
+                if (!paired[i] && as.get(i).getQualifiedName().equals(name)) {
+                    pairs[j] = i;
+                    paired[i] = true;
+                    break;
+                }
+            }
+        }
+
+        boolean moved = false;
+        int last = -1;
+        for (int j = 0; j < bs.size(); j++) {
+            if (pairs[j] < 0) {
+                this.changes.add(new Change(Kind.ADDED, prefix + bs.get(j).getUniquePath(), null, bs.get(j).asXML()));
+                continue;
+            }
+            moved |= pairs[j] < last;
+            last = pairs[j];
+            this.compare(fingerprint, prefix, as.get(pairs[j]), bs.get(j));
+        }
+        for (int i = 0; i < as.size(); i++) {
+            if (!paired[i]) {
+                this.changes.add(new Change(Kind.REMOVED, prefix + as.get(i).getUniquePath(), as.get(i).asXML(), null));
+            }
+        }
+        if (moved && !fingerprint.isIgnoreOrder()) {
+            this.changes.add(new Change(Kind.MOVED, path, null, null));
+        }
+    }
+
+    /**
+     * Parses the given text as xml block.
+     *
+     * @param text
+     *            the text
+     * @return the root element or null if the text is not an xml element
+     */
+    private static Element parse(String text) {
+        if (!StringUtils.trimToEmpty(text).startsWith("<")) {
+            return null;
+        }
+        try {
+            Document document = ParserPool.newReader().read(new StringReader(text));
+            return document.getRootElement();
+        } catch (Exception e) {
+            Log.debug("Can't parse xml block, comparing as text", e);
+        }
+        return null;
+    }
+
+    /**
+     * A difference of the xml block from the baseline.
+     */
+    public static final class Change {
+        private final Kind kind;
+
+        private final String path;
+
+        private final String baseline;
+
+        private final String text;
+
+        /**
+         * Constructor
+         *
+         * @param kind
+         *            the kind of change
+         * @param path
+         *            the path of the changed node
+         * @param baseline
+         *            the text in the baseline, null if added
+         * @param text
+         *            the text in the xml block, null if removed
+         */
+        Change(Kind kind, String path, String baseline, String text) {
+            this.kind = kind;
+            this.path = path;
+            this.baseline = baseline;
+            this.text = text;
+        }
+
+        /**
+         * @return the kind of change
+         */
+        public Kind getKind() {
+            return this.kind;
+        }
+
+        /**
+         * @return the path of the changed node, prefixed with the expression for a composite config, empty if the
+         *         whole value changed
+         */
+        public String getPath() {
+            return this.path;
+        }
+
+        /**
+         * @return the text in the baseline, null if added
+         */
+        public String getBaseline() {
+            return this.baseline;
+        }
+
+        /**
+         * @return the text in the xml block, null if removed
+         */
+        public String getText() {
+            return this.text;
+        }
+
+        /**
+         * @return the path escaped for html
+         */
+        public String getEscapedPath() {
+            return Util.escape(this.path);
+        }
+
+        /**
+         * @return the start of the text in the baseline escaped for html, empty if added
+         */
+        public String getEscapedBaseline() {
+            return Util.escape(StringUtils.abbreviate(StringUtils.defaultString(this.baseline), MAX_TEXT));
+        }
+
+        /**
+         * @return the start of the text in the xml block escaped for html, empty if removed
+         */
+        public String getEscapedText() {
+            return Util.escape(StringUtils.abbreviate(StringUtils.defaultString(this.text), MAX_TEXT));
+        }
+    }
+}
@@ -0,0 +1,559 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import hudson.Util;
+import hudson.model.AbstractProject;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * One page of the distinct xml blocks of an xpath config, so that a selector with thousands of groups or jobs is
+ * rendered a window at a time. The blocks can be sorted by the number of jobs, by their text or by the name of their
+ * first job, and filtered to the jobs whose full name contains a substring.
+ *
+ * Only the rows of the window are materialized: the text of other blocks isn't inflated unless they are sorted by
+ * text, and the jobs of a row are resolved from their positions up to the page size, see {@link #getProjects(XmlBlock,
+ * String, int, int)}.
+ *
+ * @author c031
+ *
+ */
+public class XmlBlockWindow {
+    /**
+     * default number of xml blocks of a page.
+     */
+    public static final int DEFAULT_COUNT = 50;
+
+    /**
+     * default number of jobs shown for an xml block.
+     */
+    public static final int DEFAULT_JOBS = 100;
+
+    /**
+     * The orders of the xml blocks.
+     */
+    public enum Sort {
+        /** most jobs first. */
+        COUNT,
+        /** by the text of the xml block. */
+        TEXT,
+        /** by the full name of the first job. */
+        JOB;
+
+        /**
+         * Returns the order of the given name.
+         *
+         * @param name
+         *            the name, case insensitive
+         * @return the order, {@link #COUNT} for unknown names
+         */
+        public static Sort of(String name) {
+            for (Sort sort : values()) {
+                if (sort.name().equalsIgnoreCase(name)) {
+                    return sort;
+                }
+            }
+            return COUNT;
+        }
+    }
+
+    /**
+     * the rows of the window.
+     */
+    private final List< Row > rows = new ArrayList< Row >();
+
+    /**
+     * the order of the xml blocks.
+     */
+    private final Sort sort;
+
+    /**
+     * the job name filter, empty for all jobs.
+     */
+    private final String filter;
+
+    /**
+     * the job name filter in lower case.
+     */
+    private final String needle;
+
+    /**
+     * index of the first xml block of the window.
+     */
+    private final int start;
+
+    /**
+     * maximum number of xml blocks of the window.
+     */
+    private final int count;
+
+    /**
+     * number of xml blocks with a job passing the filter.
+     */
+    private final int total;
+
+    /**
+     * number of distinct jobs passing the filter.
+     */
+    private final int totalJobs;
+
+    /**
+     * the xml block shared by most jobs, the others are compared against it, see {@link XmlBlockDiff}.
+     */
+    private final XmlBlock baseline;
+
+    /**
+     * Constructor
+     *
+     * @param xmlBlocks
+     *            the distinct xml blocks of an xpath config
+     * @param sort
+     *            the order of the xml blocks
+     * @param filter
+     *            substring of the full name of the jobs to show, null or empty for all jobs
+     * @param start
+     *            index of the first xml block of the window
+     * @param count
+     *            maximum number of xml blocks of the window
+     * @param maxJobs
+     *            maximum number of jobs of a row
+     */
+    @SuppressWarnings("rawtypes")
+    public XmlBlockWindow(List< XmlBlock > xmlBlocks, Sort sort, String filter, int start, int count, int maxJobs) {
+        this.sort = sort;
+        this.filter = StringUtils.defaultString(filter).trim();
+        this.needle = this.filter.toLowerCase(Locale.ENGLISH);
+        this.count = Math.max(count, 1);
+        this.baseline = XmlBlockDiff.getBaseline(xmlBlocks);
+
+        // a job has several blocks if all matches are grouped, it is counted once for the total
+        Map< AbstractProject, Boolean > jobs = new IdentityHashMap< AbstractProject, Boolean >();
+        List< Row > matching = new ArrayList< Row >();
+        for (XmlBlock xmlBlock : xmlBlocks) {
+            int size = 0;
+            for (AbstractProject project : xmlBlock.getProjects()) {
+                if (this.matches(project)) {
+                    jobs.put(project, Boolean.TRUE);
+                    size++;
+                }
+            }
+            if (size > 0) {
+                matching.add(new Row(xmlBlock, size));
+            }
+        }
+        this.total = matching.size();
+        this.totalJobs = jobs.size();
+
+        Collections.sort(matching, this.comparator());
+
+        this.start = Math.max(0, Math.min(start, this.total - 1));
+        for (Row row : matching.subList(this.start, Math.min(this.start + this.count, this.total))) {
+            row.projects = getProjects(row.xmlBlock, this.filter, 0, maxJobs);
+            this.rows.add(row);
+        }
+    }
+
+    /**
+     * Returns the jobs of the given xml block whose full name contains the given filter.
+     *
+     * @param xmlBlock
+     *            the xml block
+     * @param filter
+     *            substring of the full name, case insensitive, null or empty for all jobs
+     * @param start
+     *            index of the first matching job to return
+     * @param count
+     *            maximum number of jobs to return
+     * @return the jobs
+     */
+    @SuppressWarnings("rawtypes")
+    public static List< AbstractProject > getProjects(XmlBlock xmlBlock, String filter, int start, int count) {
+        String f = StringUtils.defaultString(filter).trim().toLowerCase(Locale.ENGLISH);
+        List< AbstractProject > result = new ArrayList< AbstractProject >();
+        int index = 0;
+        for (AbstractProject project : xmlBlock.getProjects()) {
+            if (result.size() >= count) {
+                break;
+            }
+            if (f.length() == 0 || project.getFullName().toLowerCase(Locale.ENGLISH).contains(f)) {
+                if (index++ >= start) {
+                    result.add(project);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the xml block with the given digest.
+     *
+     * @param xmlBlocks
+     *            the distinct xml blocks of an xpath config
+     * @param digest
+     *            the digest, null or empty for the jobs without xml block
+     * @return the xml block or null if there is none
+     */
+    public static XmlBlock find(List< XmlBlock > xmlBlocks, String digest) {
+        String d = StringUtils.isEmpty(digest) ? null : digest;
+        for (XmlBlock xmlBlock : xmlBlocks) {
+            if (d == null ? xmlBlock.getDigest() == null : d.equals(xmlBlock.getDigest())) {
+                return xmlBlock;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the full name of the given job contains the filter.
+     *
+     * @param project
+     *            the job
+     * @return true if the job is shown
+     */
+    @SuppressWarnings("rawtypes")
+    private boolean matches(AbstractProject project) {
+        return this.needle.length() == 0 || project.getFullName().toLowerCase(Locale.ENGLISH).contains(this.needle);
+    }
+
+    /**
+     * Returns the comparator of the order of this window. Jobs without xml block are always last.
+     *
+     * @return the comparator
+     */
+    private Comparator< Row > comparator() {
+        if (this.sort == Sort.TEXT) {
+            return new RowComparator() {
+                @Override
+                protected int compareRows(Row a, Row b) {
+                    return a.getText().compareTo(b.getText());
+                }
+            };
+        }
+        if (this.sort == Sort.JOB) {
+            final String f = this.filter;
+            return new RowComparator() {
+                @Override
+                protected int compareRows(Row a, Row b) {
+                    return a.getFirstJob(f).compareToIgnoreCase(b.getFirstJob(f));
+                }
+            };
+        }
+        return new RowComparator() {
+            @Override
+            protected int compareRows(Row a, Row b) {
+                return b.size - a.size;
+            }
+        };
+    }
+
+    /**
+     * @return the rows of the window
+     */
+    public List< Row > getRows() {
+        return this.rows;
+    }
+
+    /**
+     * @return the order of the xml blocks
+     */
+    public Sort getSort() {
+        return this.sort;
+    }
+
+    /**
+     * @return the job name filter, empty for all jobs
+     */
+    public String getFilter() {
+        return this.filter;
+    }
+
+    /**
+     * @return the index of the first xml block of the window
+     */
+    public int getStart() {
+        return this.start;
+    }
+
+    /**
+     * @return the index after the last xml block of the window
+     */
+    public int getEnd() {
+        return this.start + this.rows.size();
+    }
+
+    /**
+     * @return the number of xml blocks with a job passing the filter
+     */
+    public int getTotal() {
+        return this.total;
+    }
+
+    /**
+     * @return the number of distinct jobs passing the filter
+     */
+    public int getTotalJobs() {
+        return this.totalJobs;
+    }
+
+    /**
+     * @return true if there are xml blocks before the window
+     */
+    public boolean hasPrevious() {
+        return this.start > 0;
+    }
+
+    /**
+     * @return true if there are xml blocks after the window
+     */
+    public boolean hasNext() {
+        return this.getEnd() < this.total;
+    }
+
+    /**
+     * Returns the query of the window of the same size and filter starting at the given index.
+     *
+     * @param start
+     *            index of the first xml block, clamped to the xml blocks
+     * @param sort
+     *            the name of the order, null for the order of this window
+     * @return the url encoded query parameters start, count, sort and filter
+     */
+    public String getQuery(int start, String sort) {
+        return "start=" + Math.max(0, Math.min(start, this.total - 1)) + "&count=" + this.count + "&sort="
+                + (sort == null ? this.sort : Sort.of(sort)).name().toLowerCase(Locale.ENGLISH) + "&filter=" + this.getEncodedFilter();
+    }
+
+    /**
+     * @return the job name filter, url encoded
+     */
+    public String getEncodedFilter() {
+        try {
+            return URLEncoder.encode(this.filter, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the query of the previous window
+     */
+    public String getPreviousQuery() {
+        return this.getQuery(this.start - this.count, null);
+    }
+
+    /**
+     * @return the query of the next window
+     */
+    public String getNextQuery() {
+        return this.getQuery(this.start + this.count, null);
+    }
+
+    /**
+     * An xml block of the window with its first jobs.
+     */
+    public final class Row {
+        /**
+         * the xml block.
+         */
+        private final XmlBlock xmlBlock;
+
+        /**
+         * number of jobs passing the filter.
+         */
+        private final int size;
+
+        /**
+         * the first jobs passing the filter.
+         */
+        @SuppressWarnings("rawtypes")
+        private List< AbstractProject > projects;
+
+        /**
+         * full name of the first job passing the filter, resolved when sorting by job.
+         */
+        private String firstJob;
+
+        /**
+         * text of the xml block, inflated once when sorting by text.
+         */
+        private String text;
+
+        /**
+         * Constructor
+         *
+         * @param xmlBlock
+         *            the xml block
+         * @param size
+         *            number of jobs passing the filter
+         */
+        private Row(XmlBlock xmlBlock, int size) {
+            this.xmlBlock = xmlBlock;
+            this.size = size;
+        }
+
+        /**
+         * @return the xml block
+         */
+        public XmlBlock getXmlBlock() {
+            return this.xmlBlock;
+        }
+
+        /**
+         * @return true for the jobs without xml block
+         */
+        public boolean isNotAssigned() {
+            return this.xmlBlock.getDigest() == null;
+        }
+
+        /**
+         * @return true for the xml block shared by most jobs
+         */
+        public boolean isBaseline() {
+            return this.xmlBlock == XmlBlockWindow.this.baseline;
+        }
+
+        /**
+         * @return true if the xml block can be compared against the baseline
+         */
+        public boolean isComparable() {
+            return XmlBlockWindow.this.baseline != null && !this.isBaseline() && !this.isNotAssigned();
+        }
+
+        /**
+         * @return the digest of the xml block, empty for the jobs without xml block
+         */
+        public String getDigest() {
+            return StringUtils.defaultString(this.xmlBlock.getDigest());
+        }
+
+        /**
+         * @return the text of the xml block escaped for html
+         */
+        public String getEscapedValue() {
+            return Util.escape(this.xmlBlock.getXmlblock());
+        }
+
+        /**
+         * @return the results of the expressions of a composite config escaped for html, see
+         *         {@link XPathConfig#isComposite()}
+         */
+        public List< String > getEscapedComponents() {
+            List< String > components = new ArrayList< String >();
+            for (String component : XPathConfig.getComponents(this.getText())) {
+                components.add(Util.escape(component));
+            }
+            return components;
+        }
+
+        /**
+         * @return the number of jobs passing the filter
+         */
+        public int getCount() {
+            return this.size;
+        }
+
+        /**
+         * @return the share of the jobs passing the filter in percent, formatted with one decimal
+         */
+        public String getPercentage() {
+            return String.format(Locale.ENGLISH, "%.1f", XmlBlockWindow.this.totalJobs == 0 ? 0.0 : 100.0 * this.size / XmlBlockWindow.this.totalJobs);
+        }
+
+        /**
+         * @return the first jobs passing the filter
+         */
+        @SuppressWarnings("rawtypes")
+        public List< AbstractProject > getProjects() {
+            return this.projects;
+        }
+
+        /**
+         * @return the number of jobs passing the filter that aren't shown
+         */
+        public int getMoreProjects() {
+            return this.size - this.projects.size();
+        }
+
+        /**
+         * @return the text of the xml block
+         */
+        private String getText() {
+            if (this.text == null) {
+                this.text = this.xmlBlock.getXmlblock();
+            }
+            return this.text;
+        }
+
+        /**
+         * Returns the full name of the first job passing the given filter.
+         *
+         * @param filter
+         *            the filter
+         * @return the full name
+         */
+        private String getFirstJob(String filter) {
+            if (this.firstJob == null) {
+                this.firstJob = XmlBlockWindow.getProjects(this.xmlBlock, filter, 0, 1).get(0).getFullName();
+            }
+            return this.firstJob;
+        }
+    }
+
+    /**
+     * Orders rows, jobs without xml block last.
+     */
+    private abstract static class RowComparator implements Comparator< Row > {
+        public int compare(Row a, Row b) {
+            if (a.isNotAssigned() != b.isNotAssigned()) {
+                return a.isNotAssigned() ? 1 : -1;
+            }
+            if (a.isNotAssigned()) {
+                return 0;
+            }
+            return this.compareRows(a, b);
+        }
+
+        /**
+         * Compares two rows with xml blocks.
+         *
+         * @param a
+         *            the first row
+         * @param b
+         *            the second row
+         * @return the order of the rows
+         */
+        protected abstract int compareRows(Row a, Row b);
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dom4j.Attribute;
+import org.dom4j.Element;
+import org.dom4j.Node;
+import org.dom4j.ProcessingInstruction;
+
+/**
+ * Computes a 128 bit fingerprint of an xml block over its canonical form, so that equivalent blocks are grouped
+ * together no matter how they are serialized.
+ *
+ * The canonical form identifies elements and attributes by namespace URI and local name instead of prefix, sorts the
+ * attributes, merges adjacent text and CDATA and leaves out comments. Optionally whitespace is normalized and the order
+ * of child nodes is ignored. The digest of an element is computed from its name, its attributes and the digests of its
+ * child nodes, so the fingerprint of a block is also the fingerprint of the same element within a larger block. The
+ * canonical form is never serialized. Values of scalar xpath results are fingerprinted as a single value token.
+ *
+ * Fingerprints are computed on every scan, for blocks as large as a whole config.xml. Each thread reuses one digest
+ * per depth of the block, so an element costs no digest lookup and, unless the order of child nodes is ignored, no
+ * list of child digests either.
+ *
+ * @author c031
+ *
+ */
+public final class XmlFingerprint {
+    /**
+     * token types, written before each part of the canonical form.
+     */
+    private static final byte ELEMENT = 1;
+    private static final byte ATTRIBUTE = 2;
+    private static final byte TEXT = 3;
+    private static final byte PROCESSING_INSTRUCTION = 4;
+    private static final byte END = 5;
+    private static final byte CHILD = 6;
+    private static final byte VALUE = 7;
+
+    /**
+     * orders attributes by namespace URI and local name.
+     */
+    private static final Comparator< Attribute > ATTRIBUTE_ORDER = new Comparator< Attribute >() {
+        public int compare(Attribute a, Attribute b) {
+            int result = a.getNamespaceURI().compareTo(b.getNamespaceURI());
+            return result != 0 ? result : a.getName().compareTo(b.getName());
+        }
+    };
+
+    /**
+     * orders child digests bytewise.
+     */
+    private static final Comparator< byte[] > DIGEST_ORDER = new Comparator< byte[] >() {
+        public int compare(byte[] a, byte[] b) {
+            for (int i = 0; i < a.length; i++) {
+                if (a[i] != b[i]) {
+                    return a[i] < b[i] ? -1 : 1;
+                }
+            }
+            return 0;
+        }
+    };
+
+    /**
+     * the reusable digests of the current thread.
+     */
+    private static final ThreadLocal< Digests > DIGESTS = new ThreadLocal< Digests >() {
+        @Override
+        protected Digests initialValue() {
+            return new Digests();
+        }
+    };
+
+    /**
+     * normalize whitespace in text.
+     */
+    private final boolean ignoreWhitespace;
+
+    /**
+     * ignore the order of child nodes.
+     */
+    private final boolean ignoreOrder;
+
+    /**
+     * Constructor
+     *
+     * @param ignoreWhitespace
+     *            trim text, collapse whitespace and leave out whitespace only text
+     * @param ignoreOrder
+     *            ignore the order of child nodes
+     */
+    public XmlFingerprint(boolean ignoreWhitespace, boolean ignoreOrder) {
+        this.ignoreWhitespace = ignoreWhitespace;
+        this.ignoreOrder = ignoreOrder;
+    }
+
+    /**
+     * Returns the fingerprint of the given xml block.
+     *
+     * @param element
+     *            the xml block
+     * @return the hex encoded 128 bit digest
+     */
+    public String fingerprint(Element element) {
+        return XmlBlock.hex(this.subtree(element, 0, DIGESTS.get(), null));
+    }
+
+    /**
+     * Returns the fingerprint of the given value, the string value of a scalar xpath result or of a node other than an
+     * element.
+     *
+     * @param value
+     *            the value
+     * @return the hex encoded 128 bit digest
+     */
+    public String fingerprint(String value) {
+        Digests digests = DIGESTS.get();
+        MessageDigest md = this.blockDigest(digests, 0);
+        md.update(VALUE);
+        digests.update(md, this.ignoreWhitespace ? value.trim().replaceAll("\\s+", " ") : value);
+        return XmlBlock.hex(md.digest());
+    }
+
+    /**
+     * Returns the fingerprint of every element of the given xml block. The fingerprint of an element is computed from
+     * the fingerprints of its children, so every element is hashed once and equivalent subtrees are recognized by
+     * comparing their fingerprints, see {@link XmlBlockDiff}. The fingerprint of each element is the one returned by
+     * {@link #fingerprint(Element)} for it.
+     *
+     * @param element
+     *            the xml block
+     * @return the hex encoded 128 bit digest of every element of the block
+     */
+    public Map< Element, String > subtreeFingerprints(Element element) {
+        Map< Element, String > fingerprints = new IdentityHashMap< Element, String >();
+        this.subtree(element, 0, DIGESTS.get(), fingerprints);
+        return fingerprints;
+    }
+
+    /**
+     * Computes the fingerprint of the given element from the fingerprints of its children. The digests of the children
+     * are added to the digest of the element as they are computed, unless the order of child nodes is ignored and
+     * they have to be sorted first.
+     *
+     * @param element
+     *            the element
+     * @param depth
+     *            the depth of the element within the block, selects the digest used
+     * @param digests
+     *            the digests of the current thread
+     * @param fingerprints
+     *            receives the fingerprints of the element and all elements below, may be null
+     * @return the digest of the element
+     */
+    @SuppressWarnings("unchecked")
+    private byte[] subtree(Element element, int depth, Digests digests, Map< Element, String > fingerprints) {
+        MessageDigest md = this.blockDigest(digests, depth);
+        md.update(ELEMENT);
+        digests.update(md, element.getNamespaceURI());
+        digests.update(md, element.getName());
+
+        List< Attribute > attributes = element.attributes();
+        if (attributes.size() > 1) {
+            attributes = new ArrayList< Attribute >(attributes);
+            Collections.sort(attributes, ATTRIBUTE_ORDER);
+        }
+        for (Attribute attribute : attributes) {
+            md.update(ATTRIBUTE);
+            digests.update(md, attribute.getNamespaceURI());
+            digests.update(md, attribute.getName());
+            digests.update(md, attribute.getValue());
+        }
+
+        List< byte[] > children = this.ignoreOrder ? new ArrayList< byte[] >() : null;
+        StringBuilder text = null;
+        for (Node node : (List< Node >) element.content()) {
+            switch (node.getNodeType()) {
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+            case Node.ENTITY_REFERENCE_NODE:
+                if (text == null) {
+                    text = new StringBuilder();
+                }
+                text.append(node.getText());
+                break;
+            case Node.ELEMENT_NODE:
+                text = this.updateText(md, children, text, depth + 1, digests);
+                child(md, children, this.subtree((Element) node, depth + 1, digests, fingerprints));
+                break;
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                text = this.updateText(md, children, text, depth + 1, digests);
+                MessageDigest pi = digests.get(depth + 1);
+                pi.update(PROCESSING_INSTRUCTION);
+                digests.update(pi, ((ProcessingInstruction) node).getTarget());
+                digests.update(pi, ((ProcessingInstruction) node).getText());
+                child(md, children, pi.digest());
+                break;
+            default:
+                break;
+            }
+        }
+        this.updateText(md, children, text, depth + 1, digests);
+
+        if (children != null) {
+            Collections.sort(children, DIGEST_ORDER);
+            for (byte[] child : children) {
+                md.update(CHILD);
+                md.update(child);
+            }
+        }
+        md.update(END);
+
+        byte[] digest = md.digest();
+        if (fingerprints != null) {
+            fingerprints.put(element, XmlBlock.hex(digest));
+        }
+        return digest;
+    }
+
+    /**
+     * Adds the digest of a child node to the digest of its element, or to the child digests if they are sorted first.
+     *
+     * @param md
+     *            the digest of the element
+     * @param children
+     *            the child digests to sort, null to add the digest right away
+     * @param child
+     *            the digest of the child node
+     */
+    private static void child(MessageDigest md, List< byte[] > children, byte[] child) {
+        if (children != null) {
+            children.add(child);
+        } else {
+            md.update(CHILD);
+            md.update(child);
+        }
+    }
+
+    /**
+     * Returns the text of the given element the way it is fingerprinted: adjacent text and CDATA merged, whitespace
+     * normalized if it is ignored.
+     *
+     * @param element
+     *            the element
+     * @return the text of the element without the text of its children
+     */
+    public String text(Element element) {
+        String value = element.getText();
+        return this.ignoreWhitespace ? value.trim().replaceAll("\\s+", " ") : value;
+    }
+
+    /**
+     * @return true if the order of child nodes is ignored
+     */
+    public boolean isIgnoreOrder() {
+        return this.ignoreOrder;
+    }
+
+    /**
+     * Returns the reset digest of the given depth, prepared for a fingerprint with these options.
+     *
+     * @param digests
+     *            the digests of the current thread
+     * @param depth
+     *            the depth within the block
+     * @return the digest
+     */
+    private MessageDigest blockDigest(Digests digests, int depth) {
+        MessageDigest md = digests.get(depth);
+        if (this.ignoreWhitespace || this.ignoreOrder) {
+            // fingerprints of different options never match, texts are interned by fingerprint
+            md.update((byte) ((this.ignoreWhitespace ? 1 : 0) | (this.ignoreOrder ? 2 : 0)));
+        }
+        return md;
+    }
+
+    /**
+     * Adds the digest of the given merged text to the digest of its element.
+     *
+     * @param md
+     *            the digest of the element
+     * @param children
+     *            the child digests to sort, null to add the digest right away
+     * @param text
+     *            the merged text or null if there is none
+     * @param depth
+     *            the depth of the text within the block
+     * @param digests
+     *            the digests of the current thread
+     * @return null, the text has been added
+     */
+    private StringBuilder updateText(MessageDigest md, List< byte[] > children, StringBuilder text, int depth, Digests digests) {
+        if (text == null) {
+            return null;
+        }
+
+        String value = text.toString();
+        if (this.ignoreWhitespace) {
+            value = value.trim().replaceAll("\\s+", " ");
+            if (value.length() == 0) {
+                return null;
+            }
+        }
+
+        MessageDigest textDigest = digests.get(depth);
+        textDigest.update(TEXT);
+        digests.update(textDigest, value);
+        child(md, children, textDigest.digest());
+        return null;
+    }
+
+    /**
+     * The digests of one thread, one per depth of the block. A digest is only used again once the digest of the
+     * element or node it belongs to is computed, which resets it.
+     */
+    private static final class Digests {
+        /**
+         * the digests by depth.
+         */
+        private final List< MessageDigest > byDepth = new ArrayList< MessageDigest >();
+
+        /**
+         * the length prefix of a string.
+         */
+        private final byte[] length = new byte[4];
+
+        /**
+         * Returns the reset digest of the given depth.
+         *
+         * @param depth
+         *            the depth within the block
+         * @return the digest
+         */
+        private MessageDigest get(int depth) {
+            while (this.byDepth.size() <= depth) {
+                this.byDepth.add(newDigest());
+            }
+            MessageDigest md = this.byDepth.get(depth);
+            md.reset();
+            return md;
+        }
+
+        /**
+         * Adds the given string to the digest, prefixed with its length so that adjacent strings can't be confused.
+         *
+         * @param md
+         *            the digest
+         * @param value
+         *            the string, null is added as empty string
+         */
+        private void update(MessageDigest md, String value) {
+            try {
+                byte[] bytes = (value == null ? "" : value).getBytes("UTF-8");
+                this.length[0] = (byte) (bytes.length >>> 24);
+                this.length[1] = (byte) (bytes.length >>> 16);
+                this.length[2] = (byte) (bytes.length >>> 8);
+                this.length[3] = (byte) bytes.length;
+                md.update(this.length);
+                md.update(bytes);
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * @return a new 128 bit digest
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author c031
+ *
+ */
+public class BlockTextTest {
+
+    @Test
+    public void testDeflate() {
+        BlockText small = BlockText.of("<a/>");
+        assertFalse(small.isDeflated());
+        assertEquals("<a/>", small.toString());
+        assertEquals(8, small.getSize());
+
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < BlockText.DEFAULT_COMPRESS_ABOVE) {
+            sb.append("<hudson.tasks.Shell><command>make \u00e4 all</command></hudson.tasks.Shell>\n");
+        }
+        String text = sb.toString();
+
+        BlockText large = BlockText.of(text);
+        assertTrue(large.isDeflated());
+        assertEquals(text.length(), large.length());
+        assertTrue(large.getSize() < text.length() / 10);
+        assertEquals(text, large.toString());
+    }
+
+    @Test
+    public void testIntern() {
+        BlockText first = BlockText.intern("digest-1", "<a/>");
+        assertSame(first, BlockText.intern("digest-1", "<a />"));
+        assertEquals("<a/>", BlockText.intern("digest-1", "<a />").toString());
+        assertNotSame(first, BlockText.intern("digest-2", "<a/>"));
+    }
+}
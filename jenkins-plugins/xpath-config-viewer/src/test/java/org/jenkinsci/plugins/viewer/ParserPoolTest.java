@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.io.SAXReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author c031
+ *
+ */
+public class ParserPoolTest {
+
+    private File dir;
+
+    @Before
+    public void setup() throws IOException {
+        this.dir = File.createTempFile("parser-pool", "");
+        this.dir.delete();
+        this.dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : this.dir.listFiles()) {
+            file.delete();
+        }
+        this.dir.delete();
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(this.dir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void testSameDocumentAsSAXReader() throws Exception {
+        String[] paths = { "src/test/resources/jobs/jobA/config.xml", "src/test/resources/jobs/jobB/config.xml", "src/test/resources/xml/1.xml",
+                "src/test/resources/xml/5.xml" };
+        for (String path : paths) {
+            File file = new File(path);
+            assertEquals(path, new SAXReader().read(file).asXML(), ParserPool.read(file).asXML());
+        }
+    }
+
+    @Test
+    public void testParserIsReused() throws Exception {
+        ParserPool pool = ParserPool.get();
+        assertSame(pool, ParserPool.get());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ParserPool other = executor.submit(new Callable< ParserPool >() {
+                public ParserPool call() {
+                    return ParserPool.get();
+                }
+            }).get();
+            assertFalse(pool == other);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testExternalEntitiesAreNotResolved() throws Exception {
+        File secret = write("secret.txt", "secret");
+        File file = write("config.xml", "<?xml version='1.0'?>\n<!DOCTYPE project [<!ENTITY e SYSTEM '" + secret.toURI() + "'>]>\n"
+                + "<project><description>&e;</description></project>");
+
+        Document document = ParserPool.read(file);
+        assertEquals("", document.getRootElement().elementText("description"));
+    }
+
+    @Test
+    public void testBrokenDocument() throws Exception {
+        File broken = write("broken.xml", "<project><description></project>");
+        try {
+            ParserPool.read(broken);
+            fail("broken document parsed");
+        } catch (DocumentException e) {
+            // expected
+        }
+
+        File file = write("config.xml", "<project><description>ok</description></project>");
+        assertEquals("ok", ParserPool.read(file).getRootElement().elementText("description"));
+    }
+
+    private static String project(int length) {
+        StringBuilder xml = new StringBuilder("<project>");
+        while (xml.length() < length) {
+            xml.append("<builder>echo 0123456789</builder>");
+        }
+        return xml.append("</project>").toString();
+    }
+
+    @Test
+    public void testBuffer() throws Exception {
+        ParserPool pool = new ParserPool();
+        int initial = pool.getBufferSize();
+
+        File large = write("large.xml", project(ParserPool.MAX_BUFFER + 1000));
+        assertEquals(large.length(), pool.load(large));
+        assertEquals("project", pool.parse(large.toURI().toString()).getRootElement().getName());
+        assertEquals(initial, pool.getBufferSize());
+
+        File medium = write("medium.xml", project(initial * 2));
+        assertEquals(medium.length(), pool.load(medium));
+        assertEquals("project", pool.parse(medium.toURI().toString()).getRootElement().getName());
+        assertTrue(pool.getBufferSize() > initial);
+        assertTrue(pool.getBufferSize() <= ParserPool.MAX_BUFFER);
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+import org.junit.Test;
+
+/**
+ * @author c031
+ *
+ */
+public class PathPrefixReaderTest {
+
+    private static final String XML = "<?xml version='1.0' encoding='UTF-8'?>\n"
+            + "<project>\n"
+            + "  <description>text <!-- note -->more</description>\n"
+            + "  <builders>\n"
+            + "    <hudson.tasks.Shell><command><![CDATA[echo <a> & b]]></command></hudson.tasks.Shell>\n"
+            + "    <?pi data?>\n"
+            + "    <hudson.tasks.Ant plugin='ant@1.1'><targets>clean</targets></hudson.tasks.Ant>\n"
+            + "    <hudson.tasks.Shell><command>make</command></hudson.tasks.Shell>\n"
+            + "  </builders>\n"
+            + "  <publishers><hudson.tasks.Mailer><recipients>a@b</recipients></hudson.tasks.Mailer></publishers>\n"
+            + "  <builders><hudson.tasks.Maven><targets>install</targets></hudson.tasks.Maven></builders>\n"
+            + "</project>\n";
+
+    private static final String[] PROJECT_SELECTORS = { "/project/builders", "/project/builders/*", "/project/builders/hudson.tasks.Shell",
+            "/project/builders/*[@plugin]", "/project/builders/*[2]", "/project/builders/*[last()]", "/project/builders[2]/*",
+            "/project/builders/*/command/text()", "/project/builders//targets", "/project/builders/*[command = 'make']",
+            "/project/description", "/project/description/comment()", "/project/publishers/*/recipients",
+            "/project/builders/* | /project/publishers/*", "count(/project/builders/*)", "string(/project/builders/*[last()])",
+            "boolean(/project/publishers/hudson.tasks.Mailer)", "(/project/builders/*)[3]", "/project/builders/processing-instruction()",
+            "/project/builders/hudson.tasks.Ant/@plugin", "/project/properties", "/project/builders/*[.//command]",
+            "/project/publishers/*[not(@plugin)]", "/project/*/hudson.tasks.Shell[contains(., 'echo')]" };
+
+    private static final String[] ROOT_SELECTORS = { "/root/sub", "/root/sub[2]/value/content", "/root/sub/value[@key='value']/content",
+            "/root/sub[value/content='BBB']", "/root/sub1", "/root/sub/@att", "count(/root/sub)", "string(/root/sub[last()]/@att)",
+            "/root/*/value", "/root/sub/value/content/text()" };
+
+    @Test
+    public void testGetPrefix() {
+        assertArrayEquals(new String[] { "project", "builders" }, PathPrefixReader.getPrefix("/project/builders/*[@plugin]"));
+        assertArrayEquals(new String[] { "project", "builders" }, PathPrefixReader.getPrefix("/project/builders"));
+        assertArrayEquals(new String[] { "root" }, PathPrefixReader.getPrefix("/root/sub[2]/value"));
+        assertArrayEquals(new String[] { "project" }, PathPrefixReader.getPrefix("/project/builders/* | /project/publishers/*"));
+        assertArrayEquals(new String[] { "project", "scm" }, PathPrefixReader.getPrefix("count(/project/scm//*)"));
+        assertArrayEquals(new String[] { "project", "a", "b" }, PathPrefixReader.getPrefix("(/project/a/b)[2]"));
+        assertArrayEquals(new String[] { "project", "a" }, PathPrefixReader.getPrefix("/project/a/b[string-length(name()) > 1]"));
+
+        assertNull(PathPrefixReader.getPrefix("//builders"));
+        assertNull(PathPrefixReader.getPrefix("/*/builders"));
+        assertNull(PathPrefixReader.getPrefix("/project/* | //a"));
+        assertNull(PathPrefixReader.getPrefix("/project/a/.."));
+        assertNull(PathPrefixReader.getPrefix("/project/a/b[../c]"));
+        assertNull(PathPrefixReader.getPrefix("/project/a/b[/project/c]"));
+        assertNull(PathPrefixReader.getPrefix("/project/a/b[following-sibling::c]"));
+        assertNull(PathPrefixReader.getPrefix("/project/a/b[id('x')]"));
+        assertNull(PathPrefixReader.getPrefix("/project/a[$v]"));
+        assertNull(PathPrefixReader.getPrefix("/x:project/a"));
+        assertNull(PathPrefixReader.getPrefix("/project/a | string()"));
+        assertNull(PathPrefixReader.getPrefix("project/a"));
+        assertNull(PathPrefixReader.getPrefix("1 + 1"));
+        assertNull(PathPrefixReader.getPrefix("/"));
+        assertNull(PathPrefixReader.getPrefix("/project/["));
+        assertNull(PathPrefixReader.getPrefix(null));
+    }
+
+    @Test
+    public void testCanStopAtFirstMatch() {
+        assertTrue(PathPrefixReader.canStopAtFirstMatch("/project/builders/*[2]"));
+        assertFalse(PathPrefixReader.canStopAtFirstMatch("(/project/builders/*)[2]"));
+        assertFalse(PathPrefixReader.canStopAtFirstMatch("/project/a | /project/b"));
+        assertFalse(PathPrefixReader.canStopAtFirstMatch("count(/project/a)"));
+    }
+
+    @Test
+    public void testPrunedDocument() throws Exception {
+        Document pruned = PathPrefixReader.read(new ByteArrayInputStream(XML.getBytes("UTF-8")), new String[] { "project", "builders" }, null);
+
+        Element project = pruned.getRootElement();
+        assertEquals(2, project.elements().size());
+        assertEquals("", project.getText());
+        assertEquals(3, project.element("builders").elements().size());
+        assertEquals("echo <a> & b", project.element("builders").element("hudson.tasks.Shell").elementText("command"));
+        assertEquals(1, project.element("builders").element("hudson.tasks.Shell").element("command").nodeCount());
+    }
+
+    @Test
+    public void testUnsupportedDocument() throws Exception {
+        String dtd = "<!DOCTYPE project [<!ENTITY e 'x'>]><project><builders>&e;</builders></project>";
+        assertNull(PathPrefixReader.read(new ByteArrayInputStream(dtd.getBytes("UTF-8")), new String[] { "project" }, null));
+
+        String namespaced = "<project><builders xmlns='urn:x'/></project>";
+        assertNull(PathPrefixReader.read(new ByteArrayInputStream(namespaced.getBytes("UTF-8")), new String[] { "project", "builders" }, null));
+
+        String skipped = "<project><scm xmlns='urn:x'/><builders/></project>";
+        assertNotNull(PathPrefixReader.read(new ByteArrayInputStream(skipped.getBytes("UTF-8")), new String[] { "project", "builders" }, null));
+    }
+
+    @Test
+    public void testSameResultsAsDocument() throws Exception {
+        List< String > documents = new ArrayList< String >();
+        documents.add(XML);
+        documents.add(read("src/test/resources/jobs/jobA/config.xml"));
+        documents.add(read("src/test/resources/jobs/jobB/config.xml"));
+        for (int i = 1; i <= 5; i++) {
+            documents.add(read("src/test/resources/xml/" + i + ".xml"));
+        }
+
+        for (String xml : documents) {
+            Document full = new SAXReader().read(new StringReader(xml));
+            String[] selectors = full.getRootElement().getName().equals("root") ? ROOT_SELECTORS : PROJECT_SELECTORS;
+            for (String selector : selectors) {
+                String[] prefix = PathPrefixReader.getPrefix(selector);
+                assertNotNull(selector, prefix);
+                for (boolean allMatches : new boolean[] { false, true }) {
+                    XPathConfig config = new XPathConfig("id", "name", null, selector, false, false, allMatches);
+                    Document pruned = PathPrefixReader.read(new ByteArrayInputStream(xml.getBytes("UTF-8")), prefix, null);
+                    assertEquals(selector, texts(config.select(full)), texts(config.select(pruned)));
+                }
+
+                if (PathPrefixReader.canStopAtFirstMatch(selector)) {
+                    XPathConfig config = new XPathConfig("id", "name", null, selector);
+                    Document stopped = PathPrefixReader.read(new ByteArrayInputStream(xml.getBytes("UTF-8")), prefix, config.getCompiledXpath());
+                    assertEquals(selector, text(config.selectXmlBlock(full)), text(config.selectXmlBlock(stopped)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testStopsAtFirstMatch() throws Exception {
+        StringBuilder xml = new StringBuilder("<project><builders>");
+        xml.append("<hudson.tasks.Shell><command>first</command></hudson.tasks.Shell>");
+        for (int i = 0; i < 100; i++) {
+            xml.append("<hudson.tasks.Shell><command>").append(i).append("</command></hudson.tasks.Shell>");
+        }
+        xml.append("</builders>");
+        for (int i = 0; i < 10000; i++) {
+            xml.append("<builders><hudson.tasks.Ant/></builders>");
+        }
+        xml.append("</project>");
+        byte[] bytes = xml.toString().getBytes("UTF-8");
+
+        XPathConfig config = new XPathConfig("id", "name", null, "/project/builders/hudson.tasks.Shell[1]");
+        CountingInputStream in = new CountingInputStream(new ByteArrayInputStream(bytes));
+        Document document = PathPrefixReader.read(in, config.getPathPrefix(), config.getCompiledXpath());
+
+        assertEquals("first", config.selectXmlBlock(document).elementText("command"));
+        assertTrue(in.count < bytes.length / 10);
+
+        XPathConfig later = new XPathConfig("id", "name", null, "/project/builders/hudson.tasks.Ant");
+        in = new CountingInputStream(new ByteArrayInputStream(bytes));
+        document = PathPrefixReader.read(in, later.getPathPrefix(), later.getCompiledXpath());
+
+        assertNotNull(later.selectXmlBlock(document));
+        assertEquals(2, document.getRootElement().elements().size());
+        assertEquals(0, document.getRootElement().element("builders").elements().size());
+    }
+
+    @Test
+    public void testGetXmlBlock() throws Exception {
+        File file = new File("src/test/resources/jobs/jobA/config.xml");
+        XPathConfig config = new XPathConfig("id", "name", null, "/project/publishers/*[recipients]");
+        Element full = config.selectXmlBlock(new SAXReader().read(new FileInputStream(file)));
+
+        assertEquals(full.asXML(), config.getXmlBlock(file).asXML());
+    }
+
+    private static String read(String path) throws IOException {
+        File file = new File(path);
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        return new String(bytes, "UTF-8");
+    }
+
+    private static List< String > texts(List< Object > results) {
+        List< String > texts = new ArrayList< String >();
+        for (Object result : results) {
+            texts.add(result instanceof Element ? ((Element) result).asXML() : (String) result);
+        }
+        return texts;
+    }
+
+    private static String text(Element element) {
+        return element == null ? null : element.asXML();
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                this.count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                this.count += n;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import hudson.XmlFile;
+import hudson.model.AbstractProject;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+/**
+ * @author c031
+ *
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(AbstractProject.class)
+public class PivotMatrixTest {
+
+    @SuppressWarnings("rawtypes")
+    private List< AbstractProject > projectsList;
+
+    private List< XPathConfig > configs;
+
+    private PivotMatrix matrix;
+
+    @Before
+    @SuppressWarnings("rawtypes")
+    public void setup() throws Throwable {
+        this.projectsList = new ArrayList< AbstractProject >();
+        String[] names = { "zeta", "alpha", "beta", "gamma", "delta", "folder/alpha2" };
+        for (int i = 0; i < names.length; i++) {
+            AbstractProject project = PowerMockito.mock(AbstractProject.class);
+            PowerMockito.when(project.getConfigFile()).thenReturn(new XmlFile(new File("src/test/resources/xml/" + (i % 5 + 1) + ".xml")));
+            PowerMockito.when(project.getName()).thenReturn(names[i]);
+            PowerMockito.when(project.getFullName()).thenReturn(names[i]);
+            this.projectsList.add(project);
+        }
+        ProjectCollector.setProjectsListForTest(this.projectsList);
+
+        this.configs = Arrays.asList(new XPathConfig("count", "count", null, "count(/root/sub)"),
+                new XPathConfig("first", "first, sub", null, "/root/sub[1]"), new XPathConfig("alpha", "alpha", "alpha.*", "/root/sub[2]"));
+        this.matrix = PivotMatrix.compute(this.configs, this.projectsList);
+    }
+
+    private List< String > jobs(PivotMatrix.Page page) {
+        List< String > jobs = new ArrayList< String >();
+        for (PivotMatrix.Row row : page.getRows()) {
+            jobs.add(row.getJob());
+        }
+        return jobs;
+    }
+
+    @Test
+    public void testCells() {
+        assertEquals(6, this.matrix.getRows().size());
+        PivotMatrix.Row zeta = this.matrix.getRows().get(0);
+        PivotMatrix.Row alpha = this.matrix.getRows().get(1);
+        PivotMatrix.Row delta = this.matrix.getRows().get(4);
+
+        // the most common block is number 1
+        assertEquals("2", this.matrix.getBlocks(0).get(0).getXmlblock());
+        assertEquals("1", zeta.getCells().get(0).getRefs());
+        assertEquals("2", zeta.getCells().get(0).getEscapedLabel());
+        assertEquals("1", zeta.getCells().get(1).getRefs());
+        assertEquals("#1", zeta.getCells().get(1).getEscapedLabel());
+        assertTrue(zeta.getCells().get(1).getTitle().contains("AAA"));
+        assertEquals(3, this.matrix.getBlocks(1).get(0).getProjects().size());
+
+        // not selected by the job filter
+        assertNull(zeta.getCells().get(2));
+        assertFalse(alpha.getCells().get(2).isNotAssigned());
+
+        // without xml block
+        assertTrue(delta.getCells().get(1).isNotAssigned());
+        assertEquals("0", delta.getCells().get(1).getRefs());
+        assertEquals("-", delta.getCells().get(1).getEscapedLabel());
+    }
+
+    @Test
+    public void testPage() {
+        assertEquals(Arrays.asList("alpha", "beta", "delta", "folder/alpha2", "gamma", "zeta"), jobs(this.matrix.getPage("job", null, 0, 10)));
+        assertEquals(Arrays.asList("alpha", "folder/alpha2", "zeta", "beta", "gamma", "delta"), jobs(this.matrix.getPage("first", null, 0, 10)));
+        assertEquals(Arrays.asList("zeta", "alpha", "beta", "gamma", "delta", "folder/alpha2"), jobs(this.matrix.getPage("", null, 0, 10)));
+
+        PivotMatrix.Page filtered = this.matrix.getPage("job", "ALPHA", 1, 1);
+        assertEquals(Arrays.asList("folder/alpha2"), jobs(filtered));
+        assertEquals(2, filtered.getTotal());
+        assertTrue(filtered.hasPrevious());
+        assertFalse(filtered.hasNext());
+        assertEquals("start=0&count=1&sort=job&filter=ALPHA", filtered.getPreviousQuery());
+    }
+
+    @Test
+    public void testCsv() throws Exception {
+        StringWriter csv = new StringWriter();
+        this.matrix.writeCsv(csv);
+        String[] lines = csv.toString().split("\r\n");
+        assertEquals(7, lines.length);
+        assertEquals("job,count,\"first, sub\",alpha", lines[0]);
+        assertEquals("zeta,1,1,", lines[1]);
+        assertEquals("delta,2,0,", lines[5]);
+
+        StringWriter blocks = new StringWriter();
+        this.matrix.writeBlocksCsv(blocks);
+        assertTrue(blocks.toString().startsWith("selector,block,digest,jobs,xml\r\ncount,1,"));
+
+        assertEquals("\"a \"\"b\"\"\"", PivotMatrix.csv("a \"b\""));
+        assertEquals("", PivotMatrix.csv(null));
+    }
+
+    @Test
+    public void testNdjson() throws Exception {
+        StringWriter ndjson = new StringWriter();
+        this.matrix.writeNdjson(ndjson);
+        String[] lines = ndjson.toString().split("\n");
+        assertEquals("{\"type\":\"selector\",\"id\":\"count\",\"name\":\"count\",\"xpath\":\"count(/root/sub)\"}", lines[0]);
+        assertTrue(lines[lines.length - 1].startsWith("{\"type\":\"end\",\"jobs\":6,\"selectors\":3,"));
+
+        List< String > jobs = new ArrayList< String >();
+        for (String line : lines) {
+            if (line.startsWith("{\"type\":\"job\"")) {
+                jobs.add(line);
+            }
+        }
+        assertEquals(6, jobs.size());
+        assertEquals("{\"type\":\"job\",\"job\":\"zeta\",\"cells\":{\"count\":[1],\"first\":[1]}}", jobs.get(0));
+        assertEquals("{\"type\":\"job\",\"job\":\"delta\",\"cells\":{\"count\":[2],\"first\":[]}}", jobs.get(4));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import hudson.model.AbstractProject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+/**
+ * @author c031
+ *
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(AbstractProject.class)
+public class ProjectCollectorTest {
+
+    @After
+    public void tearDown() {
+        ProjectCollector.invalidate();
+        RenderSession.close();
+    }
+
+    @Test
+    public void testSnapshot() {
+        List< AbstractProject > projectsList = new ArrayList< AbstractProject >();
+        projectsList.add(PowerMockito.mock(AbstractProject.class));
+        ProjectCollector.setProjectsListForTest(projectsList);
+
+        List< AbstractProject > snapshot = ProjectCollector.getProjectsList();
+        projectsList.add(PowerMockito.mock(AbstractProject.class));
+
+        assertEquals(1, snapshot.size());
+        assertSame(snapshot, ProjectCollector.getProjectsList());
+        try {
+            snapshot.clear();
+            fail("expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testInvalidate() {
+        List< AbstractProject > projectsList = new ArrayList< AbstractProject >();
+        ProjectCollector.setProjectsListForTest(projectsList);
+        new ProjectCollector.ItemListenerImpl().onDeleted(null);
+
+        // no Jenkins instance to take a new snapshot from
+        assertNull(ProjectCollector.getProjectsList());
+    }
+
+    @Test
+    public void testInitRegistersConfigs() {
+        ProjectCollector.setProjectsListForTest(new ArrayList< AbstractProject >());
+        XPathConfig config = new XPathConfig("id", "name", "comment", "/project");
+        XPathConfig other = new XPathConfig("other", "name", "comment", "/project");
+
+        ProjectCollector.init(Collections.singletonList(config));
+        RenderSession session = RenderSession.current();
+        assertTrue(session.isRegistered(config));
+        assertFalse(session.isRegistered(other));
+
+        ProjectCollector.release(config);
+        assertNull(RenderSession.current());
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import hudson.model.AbstractProject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author c031
+ *
+ */
+public class RenderSessionTest {
+
+    private XPathConfig config1 = new XPathConfig("1", "name", "comment", "/project");
+
+    private XPathConfig config2 = new XPathConfig("2", "name", "comment", "/project/description");
+
+    @After
+    public void tearDown() {
+        RenderSession.close();
+        ProjectCollector.setProjectsListForTest(null);
+    }
+
+    @Test
+    public void testOpenAndClose() {
+        assertNull(RenderSession.current());
+
+        RenderSession session = RenderSession.open();
+        assertSame(session, RenderSession.current());
+
+        RenderSession.close();
+        assertNull(RenderSession.current());
+    }
+
+    @Test
+    public void testRegister() {
+        RenderSession session = RenderSession.open();
+        session.register(Arrays.asList(this.config1));
+        assertTrue(session.isRegistered(this.config1));
+        assertFalse(session.isRegistered(this.config2));
+
+        session.register(Arrays.asList(this.config2));
+        assertFalse(session.isRegistered(this.config1));
+        assertTrue(session.isRegistered(this.config2));
+    }
+
+    @Test
+    @SuppressWarnings("rawtypes")
+    public void testDistinctXmlBlocksLookedUpOnce() {
+        ProjectCollector.setProjectsListForTest(new ArrayList< AbstractProject >());
+        RenderSession session = RenderSession.open();
+        session.register(Arrays.asList(this.config1, this.config2));
+
+        List< XmlBlock > blocks = session.getDistinctXmlBlocks(this.config1);
+        assertEquals(0, blocks.size());
+        assertSame(blocks, session.getDistinctXmlBlocks(this.config1));
+        assertEquals(0, session.getDistinctXmlBlocks(this.config2).size());
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import hudson.model.AbstractProject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author c031
+ *
+ */
+public class ScanCoalescerTest {
+
+    private ScanCoalescer coalescer;
+
+    private ExecutorService requests;
+
+    private List< XPathConfig > configs;
+
+    @SuppressWarnings("rawtypes")
+    private List< AbstractProject > projects;
+
+    private CountDownLatch release;
+
+    private AtomicInteger calls;
+
+    @Before
+    @SuppressWarnings("rawtypes")
+    public void setup() {
+        this.coalescer = new ScanCoalescer();
+        this.requests = Executors.newCachedThreadPool();
+        this.configs = Arrays.asList(new XPathConfig("a", "a", null, "/root/sub"), new XPathConfig("b", "b", null, "count(/root/sub)"));
+        this.projects = new ArrayList< AbstractProject >();
+        this.release = new CountDownLatch(1);
+        this.calls = new AtomicInteger();
+    }
+
+    @After
+    public void tearDown() {
+        this.release.countDown();
+        this.requests.shutdownNow();
+    }
+
+    private Callable< Map< XPathConfig, List< XmlBlock > > > slowLookup() {
+        return new Callable< Map< XPathConfig, List< XmlBlock > > >() {
+            public Map< XPathConfig, List< XmlBlock > > call() throws Exception {
+                ScanCoalescerTest.this.calls.incrementAndGet();
+                ScanCoalescerTest.this.release.await();
+                Map< XPathConfig, List< XmlBlock > > result = new IdentityHashMap< XPathConfig, List< XmlBlock > >();
+                for (XPathConfig config : ScanCoalescerTest.this.configs) {
+                    result.put(config, Collections.< XmlBlock > emptyList());
+                }
+                return result;
+            }
+        };
+    }
+
+    private Future< Map< XPathConfig, List< XmlBlock > > > request(final List< XPathConfig > configs) {
+        return this.requests.submit(new Callable< Map< XPathConfig, List< XmlBlock > > >() {
+            public Map< XPathConfig, List< XmlBlock > > call() {
+                return ScanCoalescerTest.this.coalescer.lookup(configs, ScanCoalescerTest.this.projects, slowLookup());
+            }
+        });
+    }
+
+    private void awaitJoined(long joined) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (this.coalescer.getJoined() < joined && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(joined, this.coalescer.getJoined());
+    }
+
+    @Test
+    public void testIdenticalLookupsRunOnce() throws Exception {
+        Future< Map< XPathConfig, List< XmlBlock > > > first = request(this.configs);
+        Future< Map< XPathConfig, List< XmlBlock > > > second = request(this.configs);
+        Future< Map< XPathConfig, List< XmlBlock > > > third = request(new ArrayList< XPathConfig >(this.configs));
+        awaitJoined(2);
+        this.release.countDown();
+
+        Map< XPathConfig, List< XmlBlock > > result = first.get(10, TimeUnit.SECONDS);
+        assertSame(result, second.get(10, TimeUnit.SECONDS));
+        assertSame(result, third.get(10, TimeUnit.SECONDS));
+        assertEquals(1, this.calls.get());
+        assertEquals(1, this.coalescer.getStarted());
+        assertEquals(0, this.coalescer.getRunning());
+
+        // a finished lookup isn't reused
+        assertNotSame(result, request(this.configs).get(10, TimeUnit.SECONDS));
+        assertEquals(2, this.calls.get());
+    }
+
+    @Test
+    public void testDifferentLookupsRunSeparately() throws Exception {
+        Future< Map< XPathConfig, List< XmlBlock > > > first = request(this.configs);
+        Future< Map< XPathConfig, List< XmlBlock > > > subset = request(this.configs.subList(0, 1));
+        Future< Map< XPathConfig, List< XmlBlock > > > copies = request(Arrays.asList(new XPathConfig("a", "a", null, "/root/sub"),
+                new XPathConfig("b", "b", null, "count(/root/sub)")));
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (this.coalescer.getStarted() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        this.configs.get(1).setXpath("count(/root/sub1)");
+        Future< Map< XPathConfig, List< XmlBlock > > > changed = request(this.configs);
+        deadline = System.currentTimeMillis() + 10000;
+        while (this.coalescer.getStarted() < 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        this.release.countDown();
+
+        first.get(10, TimeUnit.SECONDS);
+        subset.get(10, TimeUnit.SECONDS);
+        copies.get(10, TimeUnit.SECONDS);
+        changed.get(10, TimeUnit.SECONDS);
+        assertEquals(4, this.calls.get());
+        assertEquals(0, this.coalescer.getJoined());
+    }
+
+    @Test
+    public void testAbandonedRequestDoesNotCancelLookup() throws Exception {
+        Future< Map< XPathConfig, List< XmlBlock > > > running = request(this.configs);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (this.coalescer.getStarted() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+
+        final Thread[] abandoned = new Thread[1];
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        this.requests.submit(new Runnable() {
+            public void run() {
+                abandoned[0] = Thread.currentThread();
+                try {
+                    ScanCoalescerTest.this.coalescer.lookup(ScanCoalescerTest.this.configs, ScanCoalescerTest.this.projects, slowLookup());
+                } catch (CancellationException e) {
+                    assertTrue(Thread.currentThread().isInterrupted());
+                    cancelled.countDown();
+                }
+            }
+        });
+        Future< Map< XPathConfig, List< XmlBlock > > > waiting = request(this.configs);
+        awaitJoined(2);
+
+        abandoned[0].interrupt();
+        assertTrue(cancelled.await(10, TimeUnit.SECONDS));
+        assertEquals(1, this.coalescer.getRunning());
+
+        this.release.countDown();
+        assertSame(running.get(10, TimeUnit.SECONDS), waiting.get(10, TimeUnit.SECONDS));
+        assertEquals(2, waiting.get(10, TimeUnit.SECONDS).size());
+        assertEquals(1, this.calls.get());
+    }
+
+    @Test
+    public void testAbandonedStartingRequestDoesNotCancelLookup() throws Exception {
+        final Thread[] abandoned = new Thread[1];
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        this.requests.submit(new Runnable() {
+            public void run() {
+                abandoned[0] = Thread.currentThread();
+                try {
+                    ScanCoalescerTest.this.coalescer.lookup(ScanCoalescerTest.this.configs, ScanCoalescerTest.this.projects, slowLookup());
+                } catch (CancellationException e) {
+                    assertTrue(Thread.currentThread().isInterrupted());
+                    cancelled.countDown();
+                }
+            }
+        });
+        long deadline = System.currentTimeMillis() + 10000;
+        while (this.coalescer.getStarted() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Future< Map< XPathConfig, List< XmlBlock > > > waiting = request(this.configs);
+        awaitJoined(1);
+
+        abandoned[0].interrupt();
+        assertTrue(cancelled.await(10, TimeUnit.SECONDS));
+        assertEquals(1, this.coalescer.getRunning());
+
+        this.release.countDown();
+        assertEquals(2, waiting.get(10, TimeUnit.SECONDS).size());
+        assertEquals(1, this.calls.get());
+    }
+
+    @Test
+    public void testLookupRunsOnDaemonThread() {
+        final Thread[] lookupThread = new Thread[1];
+        this.coalescer.lookup(this.configs, this.projects, new Callable< Map< XPathConfig, List< XmlBlock > > >() {
+            public Map< XPathConfig, List< XmlBlock > > call() {
+                lookupThread[0] = Thread.currentThread();
+                return new IdentityHashMap< XPathConfig, List< XmlBlock > >();
+            }
+        });
+        assertNotSame(Thread.currentThread(), lookupThread[0]);
+        assertTrue(lookupThread[0].isDaemon());
+        assertEquals(0, this.coalescer.getRunning());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFailureIsRethrown() {
+        this.coalescer.lookup(this.configs, this.projects, new Callable< Map< XPathConfig, List< XmlBlock > > >() {
+            public Map< XPathConfig, List< XmlBlock > > call() {
+                throw new IllegalArgumentException("failed");
+            }
+        });
+    }
+}
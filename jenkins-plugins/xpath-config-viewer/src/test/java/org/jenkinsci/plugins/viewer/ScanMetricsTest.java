@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import net.sf.json.JSONObject;
+
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author c031
+ *
+ */
+public class ScanMetricsTest {
+
+    @Before
+    public void setup() {
+        ScanMetrics.getInstance().reset();
+    }
+
+    @After
+    public void tearDown() {
+        ScanMetrics.getInstance().reset();
+    }
+
+    @Test
+    public void testRecord() {
+        ScanMetrics metrics = new ScanMetrics(3);
+        XPathConfig a = new XPathConfig("a", "name a", null, "/root");
+        XPathConfig b = new XPathConfig("b", "name b", null, "/root/sub");
+
+        metrics.record(ScanMetrics.Stage.EVALUATE, a, 1000000L);
+        metrics.record(ScanMetrics.Stage.EVALUATE, b, 5000000L);
+        metrics.record(ScanMetrics.Stage.EVALUATE, a, 3000000L);
+        metrics.record(ScanMetrics.Stage.RENDER, null, 7000000L);
+
+        ScanMetrics.Timing evaluate = metrics.getStages().get(ScanMetrics.Stage.EVALUATE.ordinal());
+        assertEquals("xpath evaluation", evaluate.getName());
+        assertEquals(3, evaluate.getCount());
+        assertEquals(9, evaluate.getMillis());
+        assertEquals("3.000", evaluate.getAverageMillis());
+        assertEquals("5.000", evaluate.getMaxMillis());
+        assertEquals(1, metrics.getStages().get(ScanMetrics.Stage.RENDER.ordinal()).getCount());
+
+        List< ScanMetrics.Timing > evaluations = metrics.getEvaluations();
+        assertEquals(2, evaluations.size());
+        assertEquals("b", evaluations.get(0).getId());
+        assertEquals("name a", evaluations.get(1).getName());
+        assertEquals(2, evaluations.get(1).getCount());
+        assertEquals("3.000", evaluations.get(1).getMaxMillis());
+        assertEquals(0, metrics.getSelectors(ScanMetrics.Stage.RENDER).size());
+
+        metrics.reset();
+        assertEquals(0, metrics.getStages().get(ScanMetrics.Stage.EVALUATE.ordinal()).getCount());
+        assertEquals(0, metrics.getEvaluations().size());
+    }
+
+    @Test
+    public void testSlowestJobs() {
+        ScanMetrics metrics = new ScanMetrics(3);
+        metrics.recordFile("job1", 100, 1000, 2000);
+        metrics.recordFile("job2", 200, 9000, 9000);
+        metrics.recordFile("job3", 300, 1000, 1000);
+        metrics.recordFile("job4", 400, 5000, 5000);
+        metrics.recordFile("job5", 500, 1, 1);
+
+        assertEquals(5, metrics.getFilesRead());
+        assertEquals(1500, metrics.getBytesParsed());
+        assertEquals(5, metrics.getStages().get(ScanMetrics.Stage.IO.ordinal()).getCount());
+        assertEquals(16001, metrics.getStages().get(ScanMetrics.Stage.IO.ordinal()).getNanos());
+
+        List< ScanMetrics.Timing > jobs = metrics.getSlowestJobs();
+        assertEquals(3, jobs.size());
+        assertEquals("job2", jobs.get(0).getId());
+        assertEquals("job4", jobs.get(1).getId());
+        assertEquals("job1", jobs.get(2).getId());
+        assertEquals("job4 (400 bytes)", jobs.get(1).getName());
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        File file = new File("src/test/resources/xml/1.xml");
+        Document dom = ParserPool.read(file, "job1");
+        assertNotNull(dom);
+
+        Element[] elements = StreamingPathEvaluator.evaluate(file, "job1", new String[][] { { "root", "sub" } });
+        assertEquals("sub", elements[0].getName());
+
+        assertNotNull(PathPrefixReader.read(file, "job1", new String[] { "root", "sub" }, null));
+
+        ScanMetrics metrics = ScanMetrics.getInstance();
+        assertEquals(3, metrics.getFilesRead());
+        assertEquals(3 * file.length(), metrics.getBytesParsed());
+        assertEquals(3, metrics.getStages().get(ScanMetrics.Stage.PARSE.ordinal()).getCount());
+        assertEquals("job1", metrics.getSlowestJobs().get(0).getId());
+    }
+
+    @Test
+    public void testEvaluationIsRecorded() throws Exception {
+        XPathConfig config = new XPathConfig("content", "content", null, "/root/sub");
+        config.select(ParserPool.read(new File("src/test/resources/xml/1.xml"), "job1"));
+
+        List< ScanMetrics.Timing > evaluations = ScanMetrics.getInstance().getEvaluations();
+        assertEquals(1, evaluations.size());
+        assertEquals("content", evaluations.get(0).getId());
+        assertEquals(1, evaluations.get(0).getCount());
+    }
+
+    @Test
+    public void testToJSON() {
+        ScanMetrics metrics = new ScanMetrics(3);
+        metrics.record(ScanMetrics.Stage.EVALUATE, new XPathConfig("a", "name a", null, "/root"), 1000L);
+        metrics.recordFile("job1", 100, 1000, 2000);
+
+        JSONObject json = metrics.toJSON();
+        assertEquals(1, json.getInt("filesRead"));
+        assertEquals(100, json.getInt("bytesParsed"));
+        assertEquals(1, json.getJSONObject("stages").getJSONObject("evaluate").getInt("count"));
+        assertEquals("a", json.getJSONObject("selectors").getJSONArray("evaluate").getJSONObject(0).getString("id"));
+        assertEquals("job1", json.getJSONArray("slowestJobs").getJSONObject(0).getString("id"));
+        assertTrue(json.getJSONObject("blockCache").has("hitRatio"));
+    }
+}
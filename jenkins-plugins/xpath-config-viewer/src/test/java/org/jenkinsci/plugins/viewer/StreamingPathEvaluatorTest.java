@@ -0,0 +1,130 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+import org.junit.Test;
+
+/**
+ * @author c031
+ *
+ */
+public class StreamingPathEvaluatorTest {
+
+    private static final String[] FILES = new String[] { "src/test/resources/jobs/jobA/config.xml", "src/test/resources/jobs/jobB/config.xml", "src/test/resources/xml/1.xml",
+            "src/test/resources/xml/5.xml" };
+
+    private static final String[] PATHS = new String[] { "/project", "/project/publishers", "/project/scm", "/project/description",
+            "/project/publishers/hudson.plugins.emailext.ExtendedEmailPublisher/configuredTriggers", "/project/publishers/hudson.plugins.svn__tag.SvnTagPublisher",
+            "/project/blockBuildWhenDownstreamBuilding", "/project/missing", "/root/sub", "/root/sub/value/content", "/root/sub1/value" };
+
+    @Test
+    public void testGetSteps() {
+        assertArrayEquals(new String[] { "project", "scm", "branches" }, StreamingPathEvaluator.getSteps("/project/scm/branches"));
+        assertArrayEquals(new String[] { "project", "hudson.tasks.Shell" }, StreamingPathEvaluator.getSteps(" /project/hudson.tasks.Shell "));
+        assertNull(StreamingPathEvaluator.getSteps(null));
+        assertNull(StreamingPathEvaluator.getSteps("//configuredTriggers"));
+        assertNull(StreamingPathEvaluator.getSteps("/root/sub[2]"));
+        assertNull(StreamingPathEvaluator.getSteps("/root/*"));
+        assertNull(StreamingPathEvaluator.getSteps("/root/sub/@att"));
+        assertNull(StreamingPathEvaluator.getSteps("/root/sub/text()"));
+        assertNull(StreamingPathEvaluator.getSteps("/ns:root"));
+        assertNull(StreamingPathEvaluator.getSteps("project"));
+    }
+
+    @Test
+    public void testSameResultAsDocument() throws Exception {
+        String[][] paths = new String[PATHS.length][];
+        for (int i = 0; i < PATHS.length; i++) {
+            paths[i] = StreamingPathEvaluator.getSteps(PATHS[i]);
+        }
+
+        for (String file : FILES) {
+            Element[] streamed = StreamingPathEvaluator.evaluate(new File(file), paths);
+            assertNotNull(streamed);
+
+            Document dom = new SAXReader().read(new File(file));
+            for (int i = 0; i < PATHS.length; i++) {
+                List< ? > nodes = dom.selectNodes(PATHS[i]);
+                String expected = nodes.isEmpty() ? null : ((Element) nodes.get(0)).asXML();
+                String actual = streamed[i] == null ? null : streamed[i].asXML();
+                assertEquals(file + " " + PATHS[i], expected, actual);
+
+                Element single = StreamingPathEvaluator.evaluate(new File(file), new String[][] { paths[i] })[0];
+                assertEquals(file + " " + PATHS[i], expected, single == null ? null : single.asXML());
+            }
+        }
+    }
+
+    @Test
+    public void testContentNodes() throws Exception {
+        File file = this.write("<?xml version='1.0'?><project><a x=\"1\" y='&lt;2&gt;'>t&amp;1<!-- c --><![CDATA[<raw>]]><?pi data?><b/>tail</a><a>second</a></project>");
+
+        Element block = StreamingPathEvaluator.evaluate(file, new String[][] { { "project", "a" } })[0];
+        Document dom = new SAXReader().read(file);
+
+        assertEquals(((Element) dom.selectNodes("/project/a").get(0)).asXML(), block.asXML());
+    }
+
+    @Test
+    public void testUnsupportedDocuments() throws Exception {
+        File namespaced = this.write("<project xmlns:x=\"urn:x\"><x:a/></project>");
+        assertNull(StreamingPathEvaluator.evaluate(namespaced, new String[][] { { "project" } }));
+
+        File defaultNamespace = this.write("<project xmlns=\"urn:x\"><a/></project>");
+        assertNull(StreamingPathEvaluator.evaluate(defaultNamespace, new String[][] { { "project", "a" } }));
+
+        File outside = this.write("<project><a/><x:b xmlns:x=\"urn:x\"/></project>");
+        assertEquals("<a/>", StreamingPathEvaluator.evaluate(outside, new String[][] { { "project", "a" } })[0].asXML());
+
+        XPathConfig config = new XPathConfig("id", "name", null, "/project");
+        Element fallback = config.getXmlBlock(namespaced);
+        assertNotNull(fallback);
+        assertEquals(new SAXReader().read(namespaced).getRootElement().asXML(), fallback.asXML());
+    }
+
+    private File write(String xml) throws IOException {
+        File file = File.createTempFile("config", ".xml");
+        file.deleteOnExit();
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(xml);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+}
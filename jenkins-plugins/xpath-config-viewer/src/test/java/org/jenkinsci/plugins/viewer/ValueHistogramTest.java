@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import hudson.XmlFile;
+import hudson.model.AbstractProject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+/**
+ * @author c031
+ *
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(AbstractProject.class)
+public class ValueHistogramTest {
+
+    private List< AbstractProject > projectsList;
+
+    @Before
+    public void setup() throws Throwable {
+        this.projectsList = new ArrayList< AbstractProject >();
+        for (int i = 1; i <= 5; i++) {
+            AbstractProject project = PowerMockito.mock(AbstractProject.class);
+            PowerMockito.when(project.getConfigFile()).thenReturn(new XmlFile(new File("src/test/resources/xml/" + i + ".xml")));
+            PowerMockito.when(project.getName()).thenReturn("job" + i);
+            this.projectsList.add(project);
+        }
+        ProjectCollector.setProjectsListForTest(this.projectsList);
+    }
+
+    @Test
+    public void testHistogram() {
+        XPathConfig config = new XPathConfig("content", "content", null, "string(/root/sub[2]/value/content)");
+        ValueHistogram histogram = config.getHistogram();
+
+        assertEquals(5, histogram.getTotal());
+        assertEquals(4, histogram.getBins().size());
+        assertEquals("AAA", histogram.getBins().get(0).getValue());
+        assertEquals(2, histogram.getBins().get(0).getCount());
+        assertEquals("40.0", histogram.getBins().get(0).getPercentage());
+        assertEquals(Arrays.asList(this.projectsList.get(0), this.projectsList.get(2)), histogram.getBins().get(0).getProjects());
+        assertEquals("BBB", histogram.getBins().get(1).getValue());
+        assertEquals("DDD", histogram.getBins().get(2).getValue());
+        assertEquals("", histogram.getBins().get(3).getValue());
+        assertEquals("20.0", histogram.getBins().get(3).getPercentage());
+        assertFalse(histogram.getBins().get(3).isNotAssigned());
+    }
+
+    @Test
+    public void testAllMatches() {
+        XPathConfig config = new XPathConfig("content", "content", "job[1-4]", "/root/sub/value/content/text()", false, false, true);
+        ValueHistogram histogram = config.getHistogram();
+
+        assertEquals(4, histogram.getTotal());
+        assertEquals("AAA", histogram.getBins().get(0).getValue());
+        assertEquals(3, histogram.getBins().get(0).getCount());
+        assertEquals("75.0", histogram.getBins().get(0).getPercentage());
+        assertEquals("BBB", histogram.getBins().get(1).getValue());
+        assertEquals("50.0", histogram.getBins().get(1).getPercentage());
+    }
+
+    @Test
+    public void testNotAssignedLast() {
+        XPathConfig config = new XPathConfig("sub1", "sub1", null, "/root/sub1/@att");
+        ValueHistogram histogram = config.getHistogram();
+
+        assertEquals(2, histogram.getBins().size());
+        assertEquals("pos1", histogram.getBins().get(0).getValue());
+        assertEquals(1, histogram.getBins().get(0).getCount());
+        assertTrue(histogram.getBins().get(1).isNotAssigned());
+        assertEquals(4, histogram.getBins().get(1).getCount());
+        assertEquals("&lt;!-- not assigned -->", histogram.getBins().get(1).getEscapedValue());
+    }
+}
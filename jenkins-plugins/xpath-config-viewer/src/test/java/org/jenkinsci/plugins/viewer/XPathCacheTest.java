@@ -0,0 +1,70 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+
+import org.dom4j.Document;
+import org.dom4j.InvalidXPathException;
+import org.dom4j.XPath;
+import org.dom4j.io.SAXReader;
+import org.junit.Test;
+
+/**
+ * @author c031
+ *
+ */
+public class XPathCacheTest {
+
+    @Test
+    public void testCompile() throws Exception {
+        XPath xpath = XPathCache.compile("/root/sub/@att");
+        assertNotNull(xpath);
+        assertSame(xpath, XPathCache.compile("/root/sub/@att"));
+
+        Document first = new SAXReader().read(new File("src/test/resources/xml/1.xml"));
+        Document fifth = new SAXReader().read(new File("src/test/resources/xml/5.xml"));
+
+        assertEquals(2, xpath.selectNodes(first).size());
+        assertEquals(0, xpath.selectNodes(fifth).size());
+        assertEquals(2, xpath.selectNodes(first).size());
+    }
+
+    @Test(expected = InvalidXPathException.class)
+    public void testCompileInvalid() {
+        XPathCache.compile("/root/sub[");
+    }
+
+    @Test
+    public void testMaxSize() {
+        for (int i = 0; i < XPathCache.DEFAULT_MAX_SIZE + 10; i++) {
+            XPathCache.compile("/root/sub[" + i + "]");
+        }
+        assertEquals(XPathCache.DEFAULT_MAX_SIZE, XPathCache.size());
+    }
+}
@@ -24,15 +24,20 @@
 package org.jenkinsci.plugins.viewer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.util.Arrays;
 
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
 import org.dom4j.Element;
+import org.dom4j.InvalidXPathException;
 import org.dom4j.io.SAXReader;
 import org.junit.Before;
 import org.junit.Test;
@@ -81,4 +86,89 @@ public class XPathConfigTest {
             fail("unexpected Exception: " + e.getMessage());
         }
     }
+
+    @Test
+    public void testInvalidXpath() {
+        XPathConfig config = new XPathConfig("id", "name", null, "//configuredTriggers[");
+        assertFalse(config.isValidXpath());
+        assertNull(config.getXmlBlock(this.jobAconfig));
+
+        InvalidXPathException invalid = null;
+        try {
+            config.getCompiledXpath();
+            fail("expected InvalidXPathException");
+        } catch (InvalidXPathException e) {
+            invalid = e;
+        }
+
+        // the failed compilation is remembered, not repeated
+        try {
+            config.getCompiledXpath();
+            fail("expected InvalidXPathException");
+        } catch (InvalidXPathException e) {
+            assertSame(invalid, e);
+        }
+
+        config.setXpath("//configuredTriggers");
+        assertTrue(config.isValidXpath());
+        assertSame(XPathCache.compile("//configuredTriggers"), config.getCompiledXpath());
+    }
+
+    @Test
+    public void testValueExpression() throws DocumentException {
+        Document dom = new SAXReader().read(this.jobAconfig);
+
+        XPathConfig count = new XPathConfig("id", "name", null, "count(//triggers/*)");
+        assertTrue(count.isValueExpression());
+        assertEquals(1, count.select(dom).size());
+        assertTrue(count.select(dom).get(0) instanceof String);
+
+        assertTrue(new XPathConfig("id", "name", null, "string(/project/keepDependencies)").isValueExpression());
+        assertTrue(new XPathConfig("id", "name", null, "boolean(/project/disabled)").isValueExpression());
+        assertFalse(new XPathConfig("id", "name", null, "/project/triggers").isValueExpression());
+        assertFalse(new XPathConfig("id", "name", null, "/").isValueExpression());
+        assertFalse(new XPathConfig("id", "name", null, "//triggers[").isValueExpression());
+
+        XPathConfig config = new XPathConfig("id", "name", null, "/project/triggers");
+        assertTrue(config.select(dom).get(0) instanceof Element);
+        config.setXpath("count(/project/triggers)");
+        assertEquals("1", config.select(dom).get(0));
+    }
+
+    @Test
+    public void testComposite() throws DocumentException {
+        XPathConfig composite = new XPathConfig("id", "name", null, "count(/root/sub)\r\n  /root/sub[1]/value/content\n\n/root/none");
+        assertTrue(composite.isComposite());
+        assertEquals(3, composite.getExpressions().size());
+        assertEquals("/root/sub[1]/value/content", composite.getExpressions().get(1));
+        assertTrue(composite.isValidXpath());
+        assertFalse(composite.isValueExpression());
+        assertEquals("root", composite.getPathPrefix()[0]);
+        assertEquals(1, composite.getPathPrefix().length);
+
+        XmlBlock first = composite.selectTuple(new SAXReader().read(new File("src/test/resources/xml/1.xml")));
+        assertEquals(Arrays.asList("2", "<content>AAA</content>", XPathConfig.NOT_ASSIGNED), XPathConfig.getComponents(first.getXmlblock()));
+        assertEquals(first.getDigest(), composite.selectTuple(new SAXReader().read(new File("src/test/resources/xml/2.xml"))).getDigest());
+        assertFalse(first.getDigest().equals(composite.selectTuple(new SAXReader().read(new File("src/test/resources/xml/3.xml"))).getDigest()));
+        assertTrue(composite.select(new SAXReader().read(new File("src/test/resources/xml/1.xml"))).get(0) instanceof XmlBlock);
+
+        XPathConfig none = new XPathConfig("id", "name", null, "/root/none\n/root/sub1");
+        assertNull(none.selectTuple(new SAXReader().read(new File("src/test/resources/xml/1.xml"))));
+        assertEquals(1, none.getPathPrefix().length);
+        assertNull(new XPathConfig("id", "name", null, "/root/sub\n//content").getPathPrefix());
+        assertTrue(none.select(new SAXReader().read(new File("src/test/resources/xml/1.xml"))).isEmpty());
+
+        assertFalse(new XPathConfig("id", "name", null, "/root/sub\n").isComposite());
+        assertFalse(new XPathConfig("id", "name", null, "/root/sub\n/root/sub[").isValidXpath());
+    }
+
+    @Test
+    public void testValueOf() {
+        assertEquals("3", XPathConfig.valueOf(Double.valueOf(3)));
+        assertEquals("-1", XPathConfig.valueOf(Double.valueOf(-1)));
+        assertEquals("2.5", XPathConfig.valueOf(Double.valueOf(2.5)));
+        assertEquals("NaN", XPathConfig.valueOf(Double.valueOf(Double.NaN)));
+        assertEquals("true", XPathConfig.valueOf(Boolean.TRUE));
+        assertEquals("jdk", XPathConfig.valueOf("jdk"));
+    }
 }
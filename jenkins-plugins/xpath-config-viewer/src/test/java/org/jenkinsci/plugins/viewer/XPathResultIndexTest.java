@@ -0,0 +1,303 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import hudson.XmlFile;
+import hudson.model.AbstractProject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+/**
+ * @author c031
+ *
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(AbstractProject.class)
+public class XPathResultIndexTest {
+
+    private List< AbstractProject > projectsList;
+
+    private List< XPathConfig > configs;
+
+    private XmlFile indexFile;
+
+    @Before
+    public void setup() throws Throwable {
+        this.projectsList = new ArrayList< AbstractProject >();
+        for (int i = 1; i <= 5; i++) {
+            AbstractProject project = PowerMockito.mock(AbstractProject.class);
+            stub(project, i);
+            this.projectsList.add(project);
+        }
+
+        this.configs = Arrays.asList(new XPathConfig("sub", "sub", null, "/root/sub"), new XPathConfig("content", "content", "job[2-5]", "/root/sub[2]/value/content"));
+
+        File file = File.createTempFile("xpath-config-index", ".xml");
+        file.delete();
+        file.deleteOnExit();
+        this.indexFile = new XmlFile(file);
+    }
+
+    @Test
+    public void testLookup() {
+        XPathResultIndex index = new XPathResultIndex(this.indexFile);
+
+        Map< XPathConfig, List< XmlBlock > > expected = new XPathScanner(this.configs).scan(this.projectsList);
+        assertResults(expected, index.getDistinctXmlBlocks(this.configs, this.projectsList));
+        assertEquals(5, index.size());
+
+        this.resetProjects();
+        assertResults(expected, index.getDistinctXmlBlocks(this.configs, this.projectsList));
+        for (AbstractProject project : this.projectsList) {
+            verify(project, never()).getConfigFile();
+        }
+    }
+
+    @Test
+    public void testInvalidate() {
+        XPathResultIndex index = new XPathResultIndex(this.indexFile);
+        index.getDistinctXmlBlocks(this.configs, this.projectsList);
+
+        index.invalidate("folder/job2");
+        assertEquals(4, index.size());
+
+        Map< XPathConfig, List< XmlBlock > > expected = new XPathScanner(this.configs).scan(this.projectsList);
+        this.resetProjects();
+        assertResults(expected, index.getDistinctXmlBlocks(this.configs, this.projectsList));
+        verify(this.projectsList.get(0), never()).getConfigFile();
+        verify(this.projectsList.get(1), times(2)).getConfigFile();
+
+        index.invalidate("folder");
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testChangedSelector() {
+        XPathResultIndex index = new XPathResultIndex(this.indexFile);
+        index.getDistinctXmlBlocks(this.configs, this.projectsList);
+
+        this.configs.get(0).setXpath("/root/sub1");
+        Map< XPathConfig, List< XmlBlock > > result = index.getDistinctXmlBlocks(this.configs, this.projectsList);
+
+        assertResults(new XPathScanner(this.configs).scan(this.projectsList), result);
+        assertEquals(2, result.get(this.configs.get(0)).size());
+    }
+
+    @Test
+    public void testMergeSelectors() {
+        XPathResultIndex index = new XPathResultIndex(this.indexFile);
+        index.getDistinctXmlBlocks(this.configs.subList(0, 1), this.projectsList);
+        index.getDistinctXmlBlocks(this.configs.subList(1, 2), this.projectsList);
+
+        // indexing the second selector keeps the results of the first one
+        Map< XPathConfig, List< XmlBlock > > expected = new XPathScanner(this.configs).scan(this.projectsList);
+        this.resetProjects();
+        assertResults(expected, index.getDistinctXmlBlocks(this.configs, this.projectsList));
+        for (AbstractProject project : this.projectsList) {
+            verify(project, never()).getConfigFile();
+        }
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        XPathResultIndex index = new XPathResultIndex(this.indexFile);
+        index.getDistinctXmlBlocks(this.configs, this.projectsList);
+
+        index.remove("sub");
+        index.save();
+
+        // job1 is only selected by the removed config
+        XPathResultIndex loaded = XPathResultIndex.load(this.indexFile);
+        assertEquals(4, loaded.size());
+        assertFalse(this.indexFile.asString().contains("<string>sub</string>"));
+    }
+
+    @Test
+    public void testMissingText() throws Exception {
+        XPathResultIndex index = new XPathResultIndex(this.indexFile);
+        Map< XPathConfig, List< XmlBlock > > expected = index.getDistinctXmlBlocks(this.configs, this.projectsList);
+        index.save();
+
+        String xml = this.indexFile.asString();
+        write(this.indexFile.getFile(), xml.replaceAll("(?s)<blocks>.*</blocks>", "<blocks/>"));
+
+        // jobs whose xml blocks have no text are read again, after comparing size and modification once
+        XPathResultIndex loaded = XPathResultIndex.load(this.indexFile);
+        this.resetProjects();
+        assertResults(expected, loaded.getDistinctXmlBlocks(this.configs, this.projectsList));
+        for (AbstractProject project : this.projectsList.subList(0, 4)) {
+            verify(project, times(3)).getConfigFile();
+        }
+        // job5 has no xml blocks
+        verify(this.projectsList.get(4), times(1)).getConfigFile();
+    }
+
+    @Test
+    public void testScanWithoutMonitor() throws Exception {
+        final XPathResultIndex index = new XPathResultIndex(this.indexFile);
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final XmlFile configFile = this.projectsList.get(0).getConfigFile();
+        PowerMockito.when(this.projectsList.get(0).getConfigFile()).thenAnswer(new Answer< XmlFile >() {
+            public XmlFile answer(InvocationOnMock invocation) throws Throwable {
+                reading.countDown();
+                proceed.await(10, TimeUnit.SECONDS);
+                return configFile;
+            }
+        });
+
+        Thread scan = new Thread() {
+            @Override
+            public void run() {
+                index.getDistinctXmlBlocks(XPathResultIndexTest.this.configs, XPathResultIndexTest.this.projectsList);
+            }
+        };
+        scan.start();
+        assertTrue(reading.await(10, TimeUnit.SECONDS));
+
+        // the index can be used while the scan reads the config.xml files
+        assertEquals(0, index.size());
+        proceed.countDown();
+        scan.join();
+        assertEquals(5, index.size());
+    }
+
+    @Test
+    public void testSaveOnlyChanges() {
+        XPathResultIndex index = new XPathResultIndex(this.indexFile);
+        index.save();
+        assertFalse(this.indexFile.exists());
+
+        // lookups don't write the index, the next save does
+        index.getDistinctXmlBlocks(this.configs, this.projectsList);
+        assertFalse(this.indexFile.exists());
+        index.save();
+        assertTrue(this.indexFile.exists());
+
+        this.indexFile.delete();
+        index.getDistinctXmlBlocks(this.configs, this.projectsList);
+        index.save();
+        assertFalse(this.indexFile.exists());
+
+        index.invalidate("folder/job2");
+        index.getDistinctXmlBlocks(this.configs, this.projectsList);
+        index.save();
+        assertEquals(5, XPathResultIndex.load(this.indexFile).size());
+    }
+
+    @Test
+    public void testAllMatches() {
+        List< XPathConfig > all = Arrays.asList(new XPathConfig("all", "all", null, "//content", false, false, true));
+        XPathResultIndex index = new XPathResultIndex(this.indexFile);
+        index.getDistinctXmlBlocks(all, this.projectsList);
+        index.save();
+
+        XPathResultIndex loaded = XPathResultIndex.load(this.indexFile);
+        Map< XPathConfig, List< XmlBlock > > result = loaded.getDistinctXmlBlocks(all, this.projectsList);
+
+        assertResults(new XPathScanner(all).scan(this.projectsList), result);
+        assertEquals(6, result.get(all.get(0)).size());
+    }
+
+    @Test
+    public void testPersistence() {
+        XPathResultIndex index = new XPathResultIndex(this.indexFile);
+        Map< XPathConfig, List< XmlBlock > > expected = index.getDistinctXmlBlocks(this.configs, this.projectsList);
+        index.save();
+        assertTrue(this.indexFile.exists());
+
+        XPathResultIndex loaded = XPathResultIndex.load(this.indexFile);
+        assertEquals(5, loaded.size());
+
+        this.resetProjects();
+        assertResults(expected, loaded.getDistinctXmlBlocks(this.configs, this.projectsList));
+        // size and modification are compared once after loading, the files are not read
+        for (AbstractProject project : this.projectsList) {
+            verify(project, times(1)).getConfigFile();
+        }
+    }
+
+    private static void assertResults(Map< XPathConfig, List< XmlBlock > > expected, Map< XPathConfig, List< XmlBlock > > actual) {
+        assertEquals(expected.size(), actual.size());
+        for (XPathConfig config : expected.keySet()) {
+            List< XmlBlock > expectedBlocks = expected.get(config);
+            List< XmlBlock > actualBlocks = actual.get(config);
+            assertEquals(expectedBlocks.size(), actualBlocks.size());
+            for (int i = 0; i < expectedBlocks.size(); i++) {
+                assertEquals(expectedBlocks.get(i).getXmlblock(), actualBlocks.get(i).getXmlblock());
+                assertEquals(expectedBlocks.get(i).getProjects(), actualBlocks.get(i).getProjects());
+            }
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void stub(AbstractProject project, int i) {
+        PowerMockito.when(project.getConfigFile()).thenReturn(new XmlFile(new File("src/test/resources/xml/" + i + ".xml")));
+        PowerMockito.when(project.getName()).thenReturn("job" + i);
+        PowerMockito.when(project.getFullName()).thenReturn("folder/job" + i);
+    }
+
+    // forgets the recorded invocations, mockito 1.8 has no clearInvocations
+    private void resetProjects() {
+        for (int i = 0; i < this.projectsList.size(); i++) {
+            AbstractProject project = this.projectsList.get(i);
+            reset(project);
+            stub(project, i + 1);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
+import hudson.XmlFile;
+import hudson.model.AbstractProject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+/**
+ * @author c031
+ *
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(AbstractProject.class)
+public class XPathResultSnapshotTest {
+
+    private List< AbstractProject > projectsList;
+
+    @Before
+    public void setup() throws Throwable {
+        this.projectsList = new ArrayList< AbstractProject >();
+        for (int i = 1; i <= 5; i++) {
+            AbstractProject project = PowerMockito.mock(AbstractProject.class);
+            stub(project, i);
+            this.projectsList.add(project);
+        }
+        ProjectCollector.setProjectsListForTest(this.projectsList);
+    }
+
+    @After
+    public void teardown() {
+        XPathResultSnapshot.publish(null);
+    }
+
+    @Test
+    public void testCompute() {
+        XPathConfig sub = new XPathConfig("sub", "sub", null, "/root/sub");
+        XPathConfig content = new XPathConfig("content", "content", "job[1-4]", "/root/sub[2]/value/content");
+
+        XPathResultSnapshot snapshot = XPathResultSnapshot.compute(Arrays.asList(sub, content), this.projectsList, 0);
+
+        assertEquals(2, snapshot.size());
+        assertEquals(4, snapshot.get(sub).size());
+        assertEquals(3, snapshot.get(content).size());
+        assertEquals("<content>BBB</content>", snapshot.get(content).get(1).getXmlblock());
+        assertNull(snapshot.get(new XPathConfig("other", "other", null, "/root/sub")));
+
+        content.setXpath("/root/sub[1]/value/content");
+        assertNull(snapshot.get(content));
+        assertNull(snapshot.get(new XPathConfig("sub", "sub", null, "/root/sub", true, false)));
+    }
+
+    @Test
+    public void testPublishedResults() {
+        XPathConfig sub = new XPathConfig("sub", "sub", null, "/root/sub");
+        XPathConfig other = new XPathConfig("other", "other", null, "/root/sub1");
+        XPathResultSnapshot snapshot = XPathResultSnapshot.compute(Arrays.asList(sub), this.projectsList, 0);
+        XPathResultSnapshot.publish(snapshot);
+        assertSame(snapshot, XPathResultSnapshot.current());
+
+        this.resetProjects();
+        assertSame(snapshot.get(sub), sub.getDistinctXmlBlocks());
+        for (AbstractProject project : this.projectsList) {
+            verify(project, never()).getConfigFile();
+        }
+
+        // configs missing from the snapshot are still evaluated
+        assertEquals(2, other.getDistinctXmlBlocks().size());
+    }
+
+    @Test
+    public void testOutdated() {
+        XPathResultSnapshot snapshot = XPathResultSnapshot.compute(new ArrayList< XPathConfig >(), this.projectsList, 0);
+        long timestamp = snapshot.getTimestamp();
+
+        assertEquals(false, XPathPrecomputation.isOutdated(snapshot, timestamp + 1000L));
+        assertEquals(true, XPathPrecomputation.isOutdated(snapshot, timestamp + XPathPrecomputation.MAX_AGE * 3600L * 1000L));
+        assertEquals(true, XPathPrecomputation.isIdle());
+    }
+
+    private static void stub(AbstractProject project, int i) {
+        PowerMockito.when(project.getConfigFile()).thenReturn(new XmlFile(new File("src/test/resources/xml/" + i + ".xml")));
+        PowerMockito.when(project.getName()).thenReturn("job" + i);
+    }
+
+    // forgets the recorded invocations, mockito 1.8 has no clearInvocations
+    private void resetProjects() {
+        for (int i = 0; i < this.projectsList.size(); i++) {
+            AbstractProject project = this.projectsList.get(i);
+            reset(project);
+            stub(project, i + 1);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import hudson.XmlFile;
+import hudson.model.AbstractProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+/**
+ * @author c031
+ *
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(AbstractProject.class)
+public class XPathResultsApiTest {
+
+    private List< AbstractProject > projectsList;
+
+    @Before
+    public void setup() throws Throwable {
+        this.projectsList = new ArrayList< AbstractProject >();
+        for (int i = 1; i <= 5; i++) {
+            AbstractProject project = PowerMockito.mock(AbstractProject.class);
+            PowerMockito.when(project.getConfigFile()).thenReturn(new XmlFile(new File("src/test/resources/xml/" + i + ".xml")));
+            PowerMockito.when(project.getName()).thenReturn("job" + i);
+            PowerMockito.when(project.getFullName()).thenReturn("folder/job" + i);
+            this.projectsList.add(project);
+        }
+    }
+
+    @Test
+    public void testWrite() throws IOException {
+        XPathConfig config = new XPathConfig("sub", "sub", null, "/root/sub");
+        List< XmlBlock > blocks = new XPathScanner(Collections.singletonList(config)).scan(this.projectsList).get(config);
+
+        StringWriter out = new StringWriter();
+        XPathResultsApi.write(config, this.projectsList, out);
+        String[] lines = out.toString().split("\n");
+
+        assertEquals(this.projectsList.size() + blocks.size() - 1 + 1, lines.length);
+        assertEquals("{\"type\":\"block\",\"digest\":\"" + blocks.get(0).getDigest() + "\",\"xml\":" + XPathResultsApi.quote(blocks.get(0).getXmlblock()) + "}", lines[0]);
+        assertEquals("{\"type\":\"job\",\"job\":\"folder/job1\",\"digest\":\"" + blocks.get(0).getDigest() + "\"}", lines[1]);
+        assertEquals("{\"type\":\"notAssigned\",\"job\":\"folder/job5\"}", lines[lines.length - 2]);
+        assertEquals("{\"type\":\"end\",\"jobs\":5,\"blocks\":3,\"notAssigned\":1}", lines[lines.length - 1]);
+    }
+
+    @Test
+    public void testQuote() {
+        assertEquals("\"a\\\"b\\\\c\\n\\u0001\\u2028<x/>\"", XPathResultsApi.quote("a\"b\\c\n\u0001\u2028<x/>"));
+    }
+
+    @Test
+    public void testWriteFailureCancelsScan() {
+        final int[] writes = new int[1];
+        Writer broken = new Writer() {
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                writes[0]++;
+                throw new IOException("client went away");
+            }
+
+            public void flush() {
+            }
+
+            public void close() {
+            }
+        };
+
+        try {
+            XPathResultsApi.write(new XPathConfig("sub", "sub", null, "/root/sub"), this.projectsList, broken);
+            fail("expected IOException");
+        } catch (IOException e) {
+            assertEquals("client went away", e.getMessage());
+        }
+        assertTrue(writes[0] < this.projectsList.size());
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import hudson.XmlFile;
+import hudson.model.AbstractProject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+/**
+ * @author c031
+ *
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(AbstractProject.class)
+public class XPathScannerTest {
+
+    private List< AbstractProject > projectsList;
+
+    @Before
+    public void setup() throws Throwable {
+        this.projectsList = new ArrayList< AbstractProject >();
+        for (int i = 1; i <= 5; i++) {
+            AbstractProject project = PowerMockito.mock(AbstractProject.class);
+            PowerMockito.when(project.getConfigFile()).thenReturn(new XmlFile(new File("src/test/resources/xml/" + i + ".xml")));
+            PowerMockito.when(project.getName()).thenReturn("job" + i);
+            this.projectsList.add(project);
+        }
+    }
+
+    @Test
+    public void testScanReadsEveryConfigOnce() {
+        XPathConfig sub = new XPathConfig("sub", "sub", null, "/root/sub");
+        XPathConfig content = new XPathConfig("content", "content", null, "/root/sub[2]/value/content");
+        XPathConfig empty = new XPathConfig("empty", "empty", null, null);
+
+        Map< XPathConfig, List< XmlBlock > > result = new XPathScanner(Arrays.asList(sub, content, empty)).scan(this.projectsList);
+
+        for (AbstractProject project : this.projectsList) {
+            verify(project, times(1)).getConfigFile();
+        }
+
+        assertEquals(0, result.get(empty).size());
+
+        ProjectCollector.setProjectsListForTest(this.projectsList);
+        assertBlocks(sub.getDistinctXmlBlocks(), result.get(sub));
+        assertBlocks(content.getDistinctXmlBlocks(), result.get(content));
+
+        assertEquals(4, result.get(sub).size());
+        assertEquals(XPathConfig.NOT_ASSIGNED, result.get(sub).get(3).getXmlblock());
+        assertEquals("<content>BBB</content>", result.get(content).get(1).getXmlblock());
+    }
+
+    @Test
+    public void testJobNameFilter() {
+        XPathConfig filtered = new XPathConfig("filtered", "filtered", "job[45]", "/root/sub");
+
+        List< XmlBlock > blocks = new XPathScanner(Arrays.asList(filtered)).scan(this.projectsList).get(filtered);
+
+        assertEquals(2, blocks.size());
+        assertEquals("job4", blocks.get(0).getProjects().get(0).getName());
+        assertEquals(XPathConfig.NOT_ASSIGNED, blocks.get(1).getXmlblock());
+        assertEquals("job5", blocks.get(1).getProjects().get(0).getName());
+
+        verify(this.projectsList.get(0), times(0)).getConfigFile();
+    }
+
+    @Test
+    public void testAllMatches() {
+        XPathConfig first = new XPathConfig("first", "first", null, "/root/sub/value/content");
+        XPathConfig all = new XPathConfig("all", "all", null, "/root/sub/value/content", false, false, true);
+
+        Map< XPathConfig, List< XmlBlock > > result = new XPathScanner(Arrays.asList(first, all)).scan(this.projectsList);
+
+        for (AbstractProject project : this.projectsList) {
+            verify(project, times(1)).getConfigFile();
+        }
+
+        assertEquals(4, result.get(first).size());
+        List< XmlBlock > blocks = result.get(all);
+        assertEquals(5, blocks.size());
+        assertEquals("<content>AAA</content>", blocks.get(0).getXmlblock());
+        assertEquals(Arrays.asList(this.projectsList.get(0), this.projectsList.get(1), this.projectsList.get(2)), blocks.get(0).getProjects());
+        assertEquals("<content>BBB</content>", blocks.get(1).getXmlblock());
+        assertEquals(Arrays.asList(this.projectsList.get(1), this.projectsList.get(2)), blocks.get(1).getProjects());
+        assertEquals("<content>CCC</content>", blocks.get(2).getXmlblock());
+        assertEquals("<content>DDD</content>", blocks.get(3).getXmlblock());
+        assertEquals(Arrays.asList(this.projectsList.get(3)), blocks.get(3).getProjects());
+        assertEquals(XPathConfig.NOT_ASSIGNED, blocks.get(4).getXmlblock());
+        assertEquals(Arrays.asList(this.projectsList.get(4)), blocks.get(4).getProjects());
+
+        ProjectCollector.setProjectsListForTest(this.projectsList);
+        assertBlocks(blocks, new XPathScanner(Arrays.asList(all), null, 1).scan(this.projectsList).get(all));
+    }
+
+    @Test
+    public void testValues() {
+        XPathConfig count = new XPathConfig("count", "count", null, "count(/root/sub)");
+        XPathConfig attributes = new XPathConfig("att", "att", null, "/root/sub/@att", false, false, true);
+
+        Map< XPathConfig, List< XmlBlock > > result = new XPathScanner(Arrays.asList(count, attributes)).scan(this.projectsList);
+
+        List< XmlBlock > counts = result.get(count);
+        assertEquals(2, counts.size());
+        assertEquals("2", counts.get(0).getXmlblock());
+        assertEquals(4, counts.get(0).getProjects().size());
+        assertEquals("0", counts.get(1).getXmlblock());
+        assertEquals(Arrays.asList(this.projectsList.get(4)), counts.get(1).getProjects());
+
+        List< XmlBlock > values = result.get(attributes);
+        assertEquals(3, values.size());
+        assertEquals("pos1", values.get(0).getXmlblock());
+        assertEquals("pos2", values.get(1).getXmlblock());
+        assertEquals(4, values.get(1).getProjects().size());
+        assertEquals(XPathConfig.NOT_ASSIGNED, values.get(2).getXmlblock());
+    }
+
+    @Test
+    public void testCompositeKeys() {
+        XPathConfig composite = new XPathConfig("composite", "composite", null, "count(/root/sub)\n/root/sub[2]/value/content");
+
+        List< XmlBlock > blocks = new XPathScanner(Arrays.asList(composite)).scan(this.projectsList).get(composite);
+
+        for (AbstractProject project : this.projectsList) {
+            verify(project, times(1)).getConfigFile();
+        }
+
+        assertEquals(4, blocks.size());
+        assertEquals(Arrays.asList("2", "<content>AAA</content>"), XPathConfig.getComponents(blocks.get(0).getXmlblock()));
+        assertEquals(Arrays.asList(this.projectsList.get(0), this.projectsList.get(2)), blocks.get(0).getProjects());
+        assertEquals(Arrays.asList("2", "<content>BBB</content>"), XPathConfig.getComponents(blocks.get(1).getXmlblock()));
+        assertEquals(Arrays.asList("2", "<content>DDD</content>"), XPathConfig.getComponents(blocks.get(2).getXmlblock()));
+        assertEquals(Arrays.asList("0", XPathConfig.NOT_ASSIGNED), XPathConfig.getComponents(blocks.get(3).getXmlblock()));
+        assertEquals(Arrays.asList(this.projectsList.get(4)), blocks.get(3).getProjects());
+    }
+
+    @Test
+    public void testMaxReadsPerSecond() {
+        XPathConfig config = new XPathConfig("throttled", "throttled", null, "/root/sub[1]/@att");
+        XPathScanner scanner = new XPathScanner(Arrays.asList(config), null, 1);
+        scanner.setMaxReadsPerSecond(20);
+        XmlBlockCache.getInstance().clear();
+
+        long start = System.nanoTime();
+        List< XmlBlock > blocks = scanner.scan(this.projectsList).get(config);
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(2, blocks.size());
+        // five reads, four intervals of 50 ms
+        assertTrue(elapsed >= 190L * 1000 * 1000);
+    }
+
+    @Test
+    public void testParallelScan() {
+        List< AbstractProject > manyProjects = new ArrayList< AbstractProject >();
+        for (int i = 0; i < 200; i++) {
+            manyProjects.add(this.projectsList.get(i % this.projectsList.size()));
+        }
+        List< XPathConfig > configs = Arrays.asList(new XPathConfig("sub", "sub", null, "/root/sub"), new XPathConfig("content", "content", "job[1-4]", "//content"));
+
+        Map< XPathConfig, List< XmlBlock > > sequential = new XPathScanner(configs, null, 1).scan(manyProjects);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Map< XPathConfig, List< XmlBlock > > parallel = new XPathScanner(configs, executor, 3).scan(manyProjects);
+
+            for (XPathConfig config : configs) {
+                assertBlocks(sequential.get(config), parallel.get(config));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCancel() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            XPathScanner scanner = new XPathScanner(Arrays.asList(new XPathConfig("sub", "sub", null, "/root/sub")), executor, 2);
+            scanner.cancel();
+            try {
+                scanner.scan(this.projectsList);
+                fail("expected CancellationException");
+            } catch (CancellationException e) {
+                // expected
+            }
+
+            scanner = new XPathScanner(Arrays.asList(new XPathConfig("sub", "sub", null, "/root/sub")), executor, 2);
+            Thread.currentThread().interrupt();
+            try {
+                scanner.scan(this.projectsList);
+                fail("expected CancellationException");
+            } catch (CancellationException e) {
+                assertTrue(Thread.interrupted());
+            }
+            assertFalse(Thread.currentThread().isInterrupted());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void assertBlocks(List< XmlBlock > expected, List< XmlBlock > actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getXmlblock(), actual.get(i).getXmlblock());
+            assertEquals(expected.get(i).getProjects(), actual.get(i).getProjects());
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author c031
+ *
+ */
+public class XmlBlockCacheTest {
+
+    private static final List< String > XPATHS = Arrays.asList("/root/sub", "/root/none");
+
+    @Test
+    public void testGet() {
+        XmlBlockCache cache = new XmlBlockCache(1024 * 1024);
+        File file = new File("config.xml");
+
+        assertNull(cache.get(file, 10L, 100L, XPATHS));
+        cache.put(file, 10L, 100L, XPATHS, blocks("<sub/>", null));
+
+        assertArrayEquals(new String[] { "<sub/>", null }, texts(cache.get(file, 10L, 100L, XPATHS)));
+        assertArrayEquals(new String[] { null }, texts(cache.get(file, 10L, 100L, Arrays.asList("/root/none"))));
+        assertNull(cache.get(file, 10L, 100L, Arrays.asList("/root/sub", "/root/other")));
+        assertNull(cache.get(file, 11L, 100L, XPATHS));
+        assertNull(cache.get(file, 10L, 101L, XPATHS));
+
+        cache.put(file, 10L, 100L, Arrays.asList("/root/other"), blocks("<other/>"));
+        assertArrayEquals(new String[] { "<sub/>", "<other/>" }, texts(cache.get(file, 10L, 100L, Arrays.asList("/root/sub", "/root/other"))));
+
+        cache.put(file, 11L, 100L, Arrays.asList("/root/other"), blocks("<other/>"));
+        assertNull(cache.get(file, 11L, 100L, XPATHS));
+
+        assertEquals(3, cache.getHits());
+        assertEquals(5, cache.getMisses());
+        assertEquals(0, cache.getEvictions());
+        assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    public void testEviction() {
+        XmlBlockCache cache = new XmlBlockCache(2048);
+        char[] text = new char[300];
+        Arrays.fill(text, 'x');
+        String block = "<sub>" + new String(text) + "</sub>";
+
+        for (int i = 0; i < 10; i++) {
+            cache.put(new File("job" + i + "/config.xml"), 10L, 100L, XPATHS, blocks(block, null));
+            cache.get(new File("job0/config.xml"), 10L, 100L, XPATHS);
+            assertTrue(cache.getBytes() <= cache.getMaxBytes());
+        }
+
+        assertEquals(10 - cache.getSize(), cache.getEvictions());
+        assertArrayEquals(new String[] { block, null }, texts(cache.get(new File("job0/config.xml"), 10L, 100L, XPATHS)));
+        assertArrayEquals(new String[] { block, null }, texts(cache.get(new File("job9/config.xml"), 10L, 100L, XPATHS)));
+        assertNull(cache.get(new File("job1/config.xml"), 10L, 100L, XPATHS));
+
+        XmlBlockCache disabled = new XmlBlockCache(0);
+        disabled.put(new File("job0/config.xml"), 10L, 100L, XPATHS, blocks(block, null));
+        assertEquals(0, disabled.getSize());
+    }
+
+    @Test
+    public void testMultipleBlocks() {
+        XmlBlockCache cache = new XmlBlockCache(XmlBlockCache.DEFAULT_MAX_BYTES);
+        File file = new File("job/config.xml");
+        XmlBlock[][] blocks = new XmlBlock[][] { { XmlBlockFixtures.block("<a/>"), XmlBlockFixtures.block("<b/>") }, {} };
+        cache.put(file, 10L, 100L, XPATHS, blocks);
+
+        XmlBlock[][] cached = cache.get(file, 10L, 100L, XPATHS);
+        assertEquals(2, cached[0].length);
+        assertEquals("<a/>", cached[0][0].getXmlblock());
+        assertEquals("<b/>", cached[0][1].getXmlblock());
+        assertEquals(0, cached[1].length);
+    }
+
+    private static XmlBlock[][] blocks(String... texts) {
+        XmlBlock[][] blocks = new XmlBlock[texts.length][];
+        for (int i = 0; i < texts.length; i++) {
+            blocks[i] = texts[i] == null ? new XmlBlock[0] : new XmlBlock[] { XmlBlockFixtures.block(texts[i]) };
+        }
+        return blocks;
+    }
+
+    private static String[] texts(XmlBlock[][] blocks) {
+        String[] texts = new String[blocks.length];
+        for (int i = 0; i < blocks.length; i++) {
+            texts[i] = blocks[i].length == 0 ? null : blocks[i][0].getXmlblock();
+        }
+        return texts;
+    }
+}
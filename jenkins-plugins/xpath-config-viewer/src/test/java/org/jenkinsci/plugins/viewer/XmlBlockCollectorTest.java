@@ -0,0 +1,102 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import static org.junit.Assert.assertEquals;
+import hudson.model.AbstractProject;
+
+import java.util.List;
+
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+/**
+ * @author c031
+ *
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(AbstractProject.class)
+public class XmlBlockCollectorTest {
+
+    private AbstractProject [] projects;
+
+    @Before
+    public void setup() {
+        this.projects = new AbstractProject[16];
+        for (int i = 0; i < this.projects.length; i++) {
+            this.projects[i] = PowerMockito.mock(AbstractProject.class);
+        }
+    }
+
+    @Test
+    public void testOrder() {
+        XmlBlockCollector collector = new XmlBlockCollector();
+
+        collector.add(this.projects[0], element("B"));
+        collector.add(this.projects[1], null);
+        collector.add(this.projects[2], element("A"));
+        collector.add(this.projects[3], element("B"));
+        collector.add(this.projects[4], null);
+
+        List< XmlBlock > blocks = collector.getXmlBlocks();
+
+        assertEquals(3, blocks.size());
+        assertEquals("<param>B</param>", blocks.get(0).getXmlblock());
+        assertEquals(new XmlFingerprint(false, false).fingerprint(element("B")), blocks.get(0).getDigest());
+        assertEquals(2, blocks.get(0).getProjects().size());
+        assertEquals(this.projects[3], blocks.get(0).getProjects().get(1));
+        assertEquals("<param>A</param>", blocks.get(1).getXmlblock());
+        assertEquals(XPathConfig.NOT_ASSIGNED, blocks.get(2).getXmlblock());
+        assertEquals(this.projects[1], blocks.get(2).getProjects().get(0));
+        assertEquals(this.projects[4], blocks.get(2).getProjects().get(1));
+    }
+
+    @Test
+    public void testManyDistinctBlocks() {
+        int count = 50000;
+        XmlBlockCollector collector = new XmlBlockCollector();
+        for (int i = 0; i < count; i++) {
+            collector.add(this.projects[i % this.projects.length], element(String.valueOf(i % (count - 10))));
+        }
+
+        // in order of first occurrence, the last ten projects repeat the first ten blocks
+        List< XmlBlock > blocks = collector.getXmlBlocks();
+        assertEquals(count - 10, blocks.size());
+        for (int i = 0; i < blocks.size(); i++) {
+            assertEquals("<param>" + i + "</param>", blocks.get(i).getXmlblock());
+            assertEquals(i < 10 ? 2 : 1, blocks.get(i).getProjects().size());
+        }
+        assertEquals(this.projects[(count - 10) % this.projects.length], blocks.get(0).getProjects().get(1));
+    }
+
+    private static Element element(String value) {
+        return DocumentHelper.createElement("param").addText(value);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author c031
+ *
+ */
+public class XmlBlockDiffTest {
+
+    private static List< String > describe(XmlBlockDiff diff) {
+        List< String > changes = new ArrayList< String >();
+        for (XmlBlockDiff.Change change : diff.getChanges()) {
+            changes.add(change.getKind() + " " + change.getPath());
+        }
+        return changes;
+    }
+
+    @Test
+    public void testTreeDiff() {
+        XPathConfig config = new XPathConfig("id", "name", null, "/project/builders");
+        String baseline = "<builders><shell id=\"1\"><command>make</command></shell><ant><targets>all</targets></ant><maven/></builders>";
+        String text = "<builders><ant><targets>dist</targets></ant><shell id=\"2\" x=\"y\"><command>make</command></shell><gradle/></builders>";
+
+        XmlBlockDiff diff = new XmlBlockDiff(config, baseline, text);
+        List< String > changes = describe(diff);
+        assertTrue(changes.toString(), changes.contains("CHANGED /builders/ant/targets/text()"));
+        assertTrue(changes.toString(), changes.contains("CHANGED /builders/shell/@id"));
+        assertTrue(changes.toString(), changes.contains("ADDED /builders/shell/@x"));
+        assertTrue(changes.toString(), changes.contains("ADDED /builders/gradle"));
+        assertTrue(changes.toString(), changes.contains("REMOVED /builders/maven"));
+        assertTrue(changes.toString(), changes.contains("MOVED /builders"));
+        assertEquals(6, changes.size());
+
+        XmlBlockDiff.Change targets = diff.getChanges().get(changes.indexOf("CHANGED /builders/ant/targets/text()"));
+        assertEquals("all", targets.getBaseline());
+        assertEquals("dist", targets.getText());
+        assertNull(diff.getChanges().get(changes.indexOf("REMOVED /builders/maven")).getText());
+    }
+
+    @Test
+    public void testIdenticalSubtreesAreSkipped() {
+        XPathConfig config = new XPathConfig("id", "name", null, "/a", true, true);
+        XmlBlockDiff diff = new XmlBlockDiff(config, "<a><b><c>1</c><d/></b><e>x</e></a>", "<a>\n  <e>y</e>\n  <b><d/><c> 1 </c></b>\n</a>");
+
+        assertEquals("[CHANGED /a/e/text()]", describe(diff).toString());
+    }
+
+    @Test
+    public void testValuesAndComposite() {
+        XmlBlockDiff value = new XmlBlockDiff(new XPathConfig("id", "name", null, "count(/a/b)"), "2", "3");
+        assertEquals("[CHANGED ]", describe(value).toString());
+
+        XPathConfig composite = new XPathConfig("id", "name", null, "string(/project/jdk)\n/project/scm\n/project/label");
+        String sep = XPathConfig.COMPONENT_SEPARATOR;
+        XmlBlockDiff diff = new XmlBlockDiff(composite, "jdk6" + sep + "<scm><branch>master</branch></scm>" + sep + "<label>linux</label>", "jdk6" + sep
+                + "<scm><branch>release</branch></scm>" + sep + XPathConfig.NOT_ASSIGNED);
+        assertEquals("[CHANGED /project/scm /scm/branch/text(), REMOVED /project/label]", describe(diff).toString());
+
+        XmlBlockDiff broken = new XmlBlockDiff(new XPathConfig("id", "name", null, "/a"), "<a>", "<a/>");
+        assertEquals("[CHANGED ]", describe(broken).toString());
+    }
+
+    @Test
+    public void testCache() {
+        XmlBlockDiff.clear();
+        XPathConfig config = new XPathConfig("id", "name", null, "/a");
+        XmlBlock baseline = XmlBlockFixtures.block("<a><b/></a>");
+        XmlBlock other = XmlBlockFixtures.block("<a><c/></a>");
+
+        XmlBlockDiff diff = XmlBlockDiff.of(config, baseline, other);
+        assertSame(diff, XmlBlockDiff.of(config, baseline, other));
+        assertSame(diff, XmlBlockDiff.of(new XPathConfig("other", "other", null, "/a"), XmlBlockFixtures.block("<a><b/></a>"), XmlBlockFixtures.block("<a><c/></a>")));
+        assertEquals(1, XmlBlockDiff.getCached());
+
+        XmlBlockDiff.of(new XPathConfig("id", "name", null, "/a", true, false), baseline, other);
+        assertEquals(2, XmlBlockDiff.getCached());
+        XmlBlockDiff.clear();
+        assertEquals(0, XmlBlockDiff.getCached());
+    }
+}
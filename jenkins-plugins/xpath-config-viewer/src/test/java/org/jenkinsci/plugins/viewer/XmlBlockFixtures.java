@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import org.dom4j.DocumentException;
+import org.dom4j.DocumentHelper;
+
+/**
+ * Creates xml blocks for tests, with the digest the scanner would give them.
+ *
+ * @author c031
+ *
+ */
+final class XmlBlockFixtures {
+    /**
+     * the fingerprint of xpath configs with default options.
+     */
+    private static final XmlFingerprint FINGERPRINT = new XmlFingerprint(false, false);
+
+    private XmlBlockFixtures() {
+    }
+
+    /**
+     * Returns an xml block with the given text and its digest, without projects. The block of the jobs without match
+     * has no digest.
+     *
+     * @param text
+     *            the serialized xml block or {@link XPathConfig#NOT_ASSIGNED}
+     * @return the xml block
+     */
+    static XmlBlock block(String text) {
+        XmlBlock block = new XmlBlock();
+        block.setXmlblock(text);
+        block.setDigest(XPathConfig.NOT_ASSIGNED.equals(text) ? null : digest(text));
+        return block;
+    }
+
+    /**
+     * Returns the digest of the given serialized xml block, see {@link XmlFingerprint#fingerprint(org.dom4j.Element)}.
+     *
+     * @param text
+     *            the serialized xml block
+     * @return the digest
+     */
+    static String digest(String text) {
+        try {
+            return FINGERPRINT.fingerprint(DocumentHelper.parseText(text).getRootElement());
+        } catch (DocumentException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
@@ -23,6 +23,9 @@
  */
 package org.jenkinsci.plugins.viewer;
 
+import hudson.Util;
+
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.List;
 import org.junit.Test;
@@ -79,4 +82,21 @@ public class XmlBlockTest {
         xb.setXmlblock("<A />");        
         assertEquals("&lt;A />", xb.getEscapedXmlblock());
     }
+
+    @Test
+    public void testWriteEscapedXmlBlock() throws Exception {
+        StringBuilder large = new StringBuilder();
+        while (large.length() < BlockText.DEFAULT_COMPRESS_ABOVE) {
+            large.append("<a x=\"1\">  it's\n & more   </a> ");
+        }
+
+        for (String text : new String[] { "<A />", " <A  b='c'>&amp;</A>  ", "", large.toString() }) {
+            XmlBlock xb = new XmlBlock();
+            xb.setXmlblock(text);
+            StringWriter out = new StringWriter();
+            xb.writeEscapedXmlblock(out);
+            assertEquals(Util.escape(text), out.toString());
+            assertEquals(text, xb.getXmlblock());
+        }
+    }
 }
@@ -0,0 +1,194 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import hudson.XmlFile;
+import hudson.model.AbstractProject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+/**
+ * @author c031
+ *
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(AbstractProject.class)
+public class XmlBlockWindowTest {
+
+    private List< AbstractProject > projectsList;
+
+    private List< XmlBlock > xmlBlocks;
+
+    @Before
+    public void setup() throws Throwable {
+        this.projectsList = new ArrayList< AbstractProject >();
+        String[] names = { "zeta", "alpha", "beta", "gamma", "delta", "folder/alpha2" };
+        for (int i = 0; i < names.length; i++) {
+            AbstractProject project = PowerMockito.mock(AbstractProject.class);
+            PowerMockito.when(project.getConfigFile()).thenReturn(new XmlFile(new File("src/test/resources/xml/" + (i % 5 + 1) + ".xml")));
+            PowerMockito.when(project.getName()).thenReturn(names[i]);
+            PowerMockito.when(project.getFullName()).thenReturn(names[i]);
+            this.projectsList.add(project);
+        }
+
+        this.xmlBlocks = new ArrayList< XmlBlock >();
+        this.xmlBlocks.add(block("<b/>", 0));
+        this.xmlBlocks.add(block(XPathConfig.NOT_ASSIGNED, 5));
+        this.xmlBlocks.add(block("<a/>", 1, 2, 3));
+        this.xmlBlocks.add(block("<c/>", 4));
+    }
+
+    private XmlBlock block(String text, Integer... positions) {
+        XmlBlock block = XmlBlockFixtures.block(text);
+        List< AbstractProject > projects = new ArrayList< AbstractProject >();
+        for (int position : positions) {
+            projects.add(this.projectsList.get(position));
+        }
+        block.setProjects(projects);
+        return block;
+    }
+
+    private List< String > texts(XmlBlockWindow window) {
+        List< String > texts = new ArrayList< String >();
+        for (XmlBlockWindow.Row row : window.getRows()) {
+            texts.add(row.getXmlBlock().getXmlblock());
+        }
+        return texts;
+    }
+
+    @Test
+    public void testSortByCount() {
+        XmlBlockWindow window = new XmlBlockWindow(this.xmlBlocks, XmlBlockWindow.Sort.COUNT, null, 0, 10, 100);
+
+        assertEquals(Arrays.asList("<a/>", "<b/>", "<c/>", XPathConfig.NOT_ASSIGNED), texts(window));
+        assertEquals(4, window.getTotal());
+        assertEquals(6, window.getTotalJobs());
+        assertEquals(3, window.getRows().get(0).getCount());
+        assertEquals("50.0", window.getRows().get(0).getPercentage());
+        assertTrue(window.getRows().get(3).isNotAssigned());
+        assertEquals("", window.getRows().get(3).getDigest());
+    }
+
+    @Test
+    public void testSortByTextAndJob() {
+        XmlBlockWindow byText = new XmlBlockWindow(this.xmlBlocks, XmlBlockWindow.Sort.TEXT, null, 0, 10, 100);
+        assertEquals(Arrays.asList("<a/>", "<b/>", "<c/>", XPathConfig.NOT_ASSIGNED), texts(byText));
+
+        XmlBlockWindow byJob = new XmlBlockWindow(this.xmlBlocks, XmlBlockWindow.Sort.JOB, null, 0, 10, 100);
+        assertEquals(Arrays.asList("<a/>", "<c/>", "<b/>", XPathConfig.NOT_ASSIGNED), texts(byJob));
+    }
+
+    @Test
+    public void testPaging() {
+        XmlBlockWindow first = new XmlBlockWindow(this.xmlBlocks, XmlBlockWindow.Sort.COUNT, null, 0, 2, 2);
+        assertEquals(Arrays.asList("<a/>", "<b/>"), texts(first));
+        assertFalse(first.hasPrevious());
+        assertTrue(first.hasNext());
+        assertEquals("start=2&count=2&sort=count&filter=", first.getNextQuery());
+        assertEquals(Arrays.asList(this.projectsList.get(1), this.projectsList.get(2)), first.getRows().get(0).getProjects());
+        assertEquals(1, first.getRows().get(0).getMoreProjects());
+
+        XmlBlockWindow second = new XmlBlockWindow(this.xmlBlocks, XmlBlockWindow.Sort.COUNT, null, 2, 2, 2);
+        assertEquals(Arrays.asList("<c/>", XPathConfig.NOT_ASSIGNED), texts(second));
+        assertEquals(3, second.getStart() + 1);
+        assertEquals(4, second.getEnd());
+        assertTrue(second.hasPrevious());
+        assertFalse(second.hasNext());
+
+        XmlBlockWindow beyond = new XmlBlockWindow(this.xmlBlocks, XmlBlockWindow.Sort.COUNT, null, 99, 2, 2);
+        assertEquals(3, beyond.getStart());
+        assertEquals(Arrays.asList(XPathConfig.NOT_ASSIGNED), texts(beyond));
+
+        XmlBlockWindow empty = new XmlBlockWindow(new ArrayList< XmlBlock >(), XmlBlockWindow.Sort.COUNT, null, 5, 2, 2);
+        assertEquals(0, empty.getTotal());
+        assertEquals(0, empty.getRows().size());
+        assertFalse(empty.hasNext());
+    }
+
+    @Test
+    public void testFilter() {
+        XmlBlockWindow window = new XmlBlockWindow(this.xmlBlocks, XmlBlockWindow.Sort.COUNT, " ALPHA ", 0, 10, 100);
+
+        assertEquals("ALPHA", window.getFilter());
+        assertEquals(Arrays.asList("<a/>", XPathConfig.NOT_ASSIGNED), texts(window));
+        assertEquals(2, window.getTotalJobs());
+        assertEquals(1, window.getRows().get(0).getCount());
+        assertEquals(Arrays.asList(this.projectsList.get(1)), window.getRows().get(0).getProjects());
+        assertEquals("start=0&count=10&sort=text&filter=ALPHA", window.getQuery(0, "text"));
+    }
+
+    @Test
+    public void testGetProjects() {
+        XmlBlock block = this.xmlBlocks.get(2);
+
+        assertEquals(Arrays.asList(this.projectsList.get(2), this.projectsList.get(3)), XmlBlockWindow.getProjects(block, null, 1, 5));
+        assertEquals(Arrays.asList(this.projectsList.get(3)), XmlBlockWindow.getProjects(block, "MM", 0, 5));
+        assertEquals(0, XmlBlockWindow.getProjects(block, "zeta", 0, 5).size());
+    }
+
+    @Test
+    public void testFind() {
+        assertSame(this.xmlBlocks.get(2), XmlBlockWindow.find(this.xmlBlocks, XmlBlockFixtures.digest("<a/>")));
+        assertSame(this.xmlBlocks.get(1), XmlBlockWindow.find(this.xmlBlocks, ""));
+        assertNull(XmlBlockWindow.find(this.xmlBlocks, "unknown"));
+    }
+
+    @Test
+    public void testBaseline() {
+        assertSame(this.xmlBlocks.get(2), XmlBlockDiff.getBaseline(this.xmlBlocks));
+        assertNull(XmlBlockDiff.getBaseline(this.xmlBlocks.subList(1, 2)));
+
+        XmlBlockWindow window = new XmlBlockWindow(this.xmlBlocks, XmlBlockWindow.Sort.COUNT, null, 0, 10, 100);
+        assertTrue(window.getRows().get(0).isBaseline());
+        assertFalse(window.getRows().get(0).isComparable());
+        assertTrue(window.getRows().get(1).isComparable());
+        assertFalse(window.getRows().get(3).isComparable());
+    }
+
+    @Test
+    public void testXmlBlockWindow() {
+        ProjectCollector.setProjectsListForTest(this.projectsList.subList(0, 5));
+        XPathConfig config = new XPathConfig("content", "content", null, "/root/sub[2]/value/content");
+
+        XmlBlockWindow window = config.getXmlBlockWindow("count", null, 0, 2);
+        assertEquals(2, window.getRows().size());
+        assertEquals(2, window.getRows().get(0).getCount());
+        assertTrue(window.hasNext());
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2011, Sun Microsystems, Inc., Kohsuke Kawaguchi, Frederik Fromm
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.viewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Map;
+
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.junit.Test;
+
+/**
+ * @author c031
+ *
+ */
+public class XmlFingerprintTest {
+
+    @Test
+    public void testCanonicalForm() throws Exception {
+        XmlFingerprint fingerprint = new XmlFingerprint(false, false);
+
+        String expected = fingerprint.fingerprint(parse("<a x=\"1\" y=\"2\"><b>text</b></a>"));
+        assertEquals(32, expected.length());
+
+        assertEquals(expected, fingerprint.fingerprint(parse("<a y=\"2\" x=\"1\"><b>text</b></a>")));
+        assertEquals(expected, fingerprint.fingerprint(parse("<a x='1' y='2'><b><![CDATA[te]]>xt</b><!-- comment --></a>")));
+        assertEquals(fingerprint.fingerprint(parse("<p:a xmlns:p=\"urn:x\"><p:b/></p:a>")), fingerprint.fingerprint(parse("<q:a xmlns:q=\"urn:x\"><q:b/></q:a>")));
+
+        assertFalse(expected.equals(fingerprint.fingerprint(parse("<a x=\"1\" y=\"2\"><b>text </b></a>"))));
+        assertFalse(expected.equals(fingerprint.fingerprint(parse("<a x=\"12\"><b>text</b></a>"))));
+        assertFalse(expected.equals(fingerprint.fingerprint(parse("<a x=\"1\" y=\"2\"><b>text</b><c/></a>"))));
+        assertFalse(fingerprint.fingerprint(parse("<a><b/><c/></a>")).equals(fingerprint.fingerprint(parse("<a><c/><b/></a>"))));
+        assertFalse(fingerprint.fingerprint(parse("<a xmlns=\"urn:x\"/>")).equals(fingerprint.fingerprint(parse("<a xmlns=\"urn:y\"/>"))));
+    }
+
+    @Test
+    public void testIgnoreWhitespace() throws Exception {
+        XmlFingerprint fingerprint = new XmlFingerprint(true, false);
+
+        assertEquals(fingerprint.fingerprint(parse("<a><b>some text</b></a>")), fingerprint.fingerprint(parse("<a>\n  <b> some\n   text </b>\n</a>")));
+        assertFalse(fingerprint.fingerprint(parse("<a><b>some text</b></a>")).equals(fingerprint.fingerprint(parse("<a><b>sometext</b></a>"))));
+        assertFalse(fingerprint.fingerprint(parse("<a><b/><c/></a>")).equals(fingerprint.fingerprint(parse("<a><c/><b/></a>"))));
+    }
+
+    @Test
+    public void testIgnoreOrder() throws Exception {
+        XmlFingerprint fingerprint = new XmlFingerprint(true, true);
+
+        assertEquals(fingerprint.fingerprint(parse("<a><b>1</b><c><d/><e/></c></a>")), fingerprint.fingerprint(parse("<a>\n <c><e/><d/></c>\n <b>1</b>\n</a>")));
+        assertFalse(fingerprint.fingerprint(parse("<a><b>1</b><c/></a>")).equals(fingerprint.fingerprint(parse("<a><b>2</b><c/></a>"))));
+        assertFalse(fingerprint.fingerprint(parse("<a><b/><b/></a>")).equals(fingerprint.fingerprint(parse("<a><b/></a>"))));
+    }
+
+    @Test
+    public void testReusedDigests() throws Exception {
+        Element element = parse("<a x=\"1\"><b>text</b><?pi data?><c><d>1</d></c></a>");
+
+        // fingerprints are persisted by the result index, reusing the digests must not change them
+        assertEquals("5ae5962e5b08d567dcb5aa9e2c76b008", new XmlFingerprint(false, false).fingerprint(element));
+        assertEquals("0641b6fb9ae3e6aa3665bfed2e41a816", new XmlFingerprint(true, true).fingerprint(element));
+        assertEquals("5c91274fde1aa3ff4f48a2378b3a87d3", new XmlFingerprint(false, false).fingerprint("v"));
+        assertEquals("5ae5962e5b08d567dcb5aa9e2c76b008", new XmlFingerprint(false, false).fingerprint(element));
+    }
+
+    @Test
+    public void testSubtreeFingerprints() throws Exception {
+        XmlFingerprint fingerprint = new XmlFingerprint(false, false);
+
+        Element a = parse("<a><b x=\"1\">text</b><c><d/></c></a>");
+        Element b = parse("<a><b x='1'><![CDATA[te]]>xt</b><c><d/><!-- comment --></c><e/></a>");
+        Map< Element, String > fa = fingerprint.subtreeFingerprints(a);
+        Map< Element, String > fb = fingerprint.subtreeFingerprints(b);
+        assertEquals(4, fa.size());
+        assertEquals(5, fb.size());
+        assertEquals(fa.get(a.element("b")), fb.get(b.element("b")));
+        assertEquals(fa.get(a.element("c")), fb.get(b.element("c")));
+        assertFalse(fa.get(a).equals(fb.get(b)));
+        assertFalse(fa.get(a.element("b")).equals(fa.get(a.element("c"))));
+
+        XmlFingerprint unordered = new XmlFingerprint(true, true);
+        Element c = parse("<a>\n <c><d/></c>\n <b x='1'> text </b>\n</a>");
+        assertEquals(unordered.subtreeFingerprints(a).get(a), unordered.subtreeFingerprints(c).get(c));
+        assertFalse(fa.get(a).equals(fingerprint.subtreeFingerprints(c).get(c)));
+    }
+
+    @Test
+    public void testSubtreeMatchesFingerprint() throws Exception {
+        Element a = parse("<a x='1'><?pi data?><b>some <![CDATA[text]]></b>\n <c><d y='2'/><e/></c><!-- comment --></a>");
+        for (int options = 0; options < 4; options++) {
+            XmlFingerprint fingerprint = new XmlFingerprint((options & 1) != 0, (options & 2) != 0);
+            Map< Element, String > subtrees = fingerprint.subtreeFingerprints(a);
+            assertEquals(5, subtrees.size());
+            for (Map.Entry< Element, String > entry : subtrees.entrySet()) {
+                assertEquals(fingerprint.fingerprint(entry.getKey()), entry.getValue());
+            }
+            // an element has the same fingerprint as a block of its own
+            assertEquals(fingerprint.fingerprint(parse("<c><d y='2'/><e/></c>")), subtrees.get(a.element("c")));
+        }
+    }
+
+    private static Element parse(String xml) throws Exception {
+        return DocumentHelper.parseText(xml).getRootElement();
+    }
+}